@@ -0,0 +1,66 @@
+package com.citi.custody.benchmarks;
+
+import com.citi.custody.util.InlineImage;
+import com.citi.custody.util.JsonToHtmlConverter;
+import com.citi.custody.util.StreamingHtmlRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inline image discovery: the image list comes out of the compile pass or the streaming renderer's first pass,
+ * and decoding the base64 images is what the sender pays per message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InlineImageBenchmark {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    private String json;
+    private List<InlineImage> images;
+
+    @Setup
+    public void setUp() {
+        json = TemplateFixtures.template(size);
+        images = JsonToHtmlConverter.compile(json).getInlineImages();
+    }
+
+    @Benchmark
+    public List<InlineImage> discoverWithCompile() {
+        return JsonToHtmlConverter.compile(json).getInlineImages();
+    }
+
+    @Benchmark
+    public List<InlineImage> discoverWithStreamingPrepare() throws IOException {
+        return StreamingHtmlRenderer.prepare(StreamingHtmlRenderer.JsonSource.of(json)).getInlineImages();
+    }
+
+    @Benchmark
+    public long decodeDataImages() {
+        long bytes = 0;
+        for (InlineImage image : images) {
+            if (image.getKind() == InlineImage.Kind.DATA) {
+                bytes += image.decodeData().length;
+            }
+        }
+        return bytes;
+    }
+}
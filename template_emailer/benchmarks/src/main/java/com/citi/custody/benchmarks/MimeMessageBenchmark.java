@@ -0,0 +1,116 @@
+package com.citi.custody.benchmarks;
+
+import com.citi.custody.util.InlineImage;
+import com.citi.custody.util.JsonToHtmlConverter;
+import com.citi.custody.util.RenderPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Message assembly the way EmailSenderService builds it (multipart related HTML, inline images, file attachments)
+ * and encoding the finished message with {@link MimeMessage#writeTo}, which is what the SMTP transport streams.
+ * The HTML is the rendered medium template; attachments are {@value #ATTACHMENT_SIZE} byte binaries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MimeMessageBenchmark {
+
+    static final int ATTACHMENT_SIZE = 100 * 1024;
+
+    @Param({"0", "5", "20"})
+    public int attachments;
+
+    private final Session session = Session.getInstance(new Properties());
+    private String html;
+    private List<InlineImage> inlineImages;
+    private List<ByteArrayResource> files;
+    private MimeMessage assembled;
+
+    @Setup
+    public void setUp() throws MessagingException {
+        RenderPlan plan = JsonToHtmlConverter.compile(TemplateFixtures.template("medium"));
+        html = plan.render(Collections.emptyMap());
+        inlineImages = plan.getInlineImages();
+        files = new ArrayList<>(attachments);
+        for (int i = 0; i < attachments; i++) {
+            files.add(new ByteArrayResource(TemplateFixtures.bytes(ATTACHMENT_SIZE, i)));
+        }
+        assembled = assemble();
+    }
+
+    @Benchmark
+    public MimeMessage assembleWithHelper() throws MessagingException {
+        return assemble();
+    }
+
+    @Benchmark
+    public long writeTo() throws IOException, MessagingException {
+        CountingOutputStream out = new CountingOutputStream();
+        assembled.writeTo(out);
+        return out.count;
+    }
+
+    private MimeMessage assemble() throws MessagingException {
+        MimeMessage message = new MimeMessage(session);
+        MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
+        helper.setFrom("noreply@example.com");
+        helper.setTo("recipient@example.com");
+        helper.setSubject("Daily settlement report");
+        helper.setText(html, true);
+        // 与发送路径一致: 只有base64图片随模板内嵌, 本地文件图片在发送时才从磁盘读取
+        for (InlineImage image : inlineImages) {
+            if (image.getKind() == InlineImage.Kind.DATA) {
+                helper.addInline(image.getContentId(), new ByteArrayResource(image.decodeData()), image.getMimeType());
+            }
+        }
+        for (int i = 0; i < files.size(); i++) {
+            helper.addAttachment("report-" + i + ".pdf", files.get(i));
+        }
+        // 计算各部分的Content-Type和编码, 与JavaMailSender发送前做的一样
+        message.saveChanges();
+        return message;
+    }
+
+    /**
+     * Discards the encoded message but keeps its size.
+     */
+    static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            count += length;
+        }
+    }
+}
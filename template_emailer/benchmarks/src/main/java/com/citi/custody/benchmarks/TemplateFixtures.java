@@ -0,0 +1,76 @@
+package com.citi.custody.benchmarks;
+
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Generated template JSON in the editor's format, so the benchmarks do not depend on templates stored in GridFS.
+ * Every row mixes the content types the converter handles; every {@value #IMAGE_EVERY}th row carries inline images
+ * (a base64 image block and local/remote images inside an html block).
+ */
+final class TemplateFixtures {
+
+    static final int IMAGE_EVERY = 5;
+
+    private static final String PIXEL = "data:image/png;base64,"
+            + Base64.getEncoder().encodeToString(bytes(2 * 1024, 7));
+
+    private TemplateFixtures() {
+    }
+
+    /**
+     * Rows per template size: small is a short notice, medium a typical newsletter, huge a generated report.
+     */
+    static int rowsOf(String size) {
+        switch (size) {
+            case "small":
+                return 5;
+            case "medium":
+                return 100;
+            case "huge":
+                return 3000;
+            default:
+                throw new IllegalArgumentException("Unknown template size: " + size);
+        }
+    }
+
+    static String template(String size) {
+        int rows = rowsOf(size);
+        StringBuilder json = new StringBuilder(rows * 1200).append("{\"body\":{\"rows\":[");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            appendRow(json, i);
+        }
+        return json.append("]}}").toString();
+    }
+
+    private static void appendRow(StringBuilder json, int index) {
+        json.append("{\"columns\":[{\"ratio\":2,\"contents\":[")
+                .append("{\"type\":\"heading\",\"values\":{\"text\":\"Section ").append(index).append("\",\"align\":\"left\"}},")
+                .append("{\"type\":\"text\",\"values\":{\"text\":\"Settlement instructions for batch ").append(index)
+                .append(" were processed.\\nPlease review the figures below & confirm by end of day.\",\"align\":\"left\"}},")
+                .append("{\"type\":\"html\",\"values\":{\"html\":\"<div class=\\\"note\\\">  <b>Status:</b>   <span>complete</span>");
+        if (index % IMAGE_EVERY == 0) {
+            json.append("<img src=\\\"images/logo-").append(index).append(".png\\\" alt=\\\"logo\\\">")
+                    .append("<img src=\\\"https://cdn.example.com/banner.jpg\\\">");
+        }
+        json.append("  </div>\",\"align\":\"left\"}}")
+                .append("]},{\"ratio\":1,\"contents\":[");
+        if (index % IMAGE_EVERY == 0) {
+            json.append("{\"type\":\"image\",\"values\":{\"src\":\"").append(PIXEL).append("\",\"text\":\"chart\",\"align\":\"center\"}},");
+        }
+        json.append("{\"type\":\"button\",\"values\":{\"text\":\"Open batch ").append(index).append("\",\"align\":\"center\"}}")
+                .append("]}]}");
+    }
+
+    /**
+     * Deterministic filler bytes, so runs are comparable.
+     */
+    static byte[] bytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,100 @@
+package com.citi.custody.benchmarks;
+
+import com.citi.custody.util.JsonToHtmlConverter;
+import com.citi.custody.util.RenderPlan;
+import com.citi.custody.util.StreamingHtmlRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Template JSON to HTML: the one-shot conversion, compiling a render plan, rendering a cached plan
+ * and the two-pass streaming renderer writing to a discarding writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateRenderBenchmark {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    private String json;
+    private RenderPlan plan;
+    private StreamingHtmlRenderer.Prepared prepared;
+
+    @Setup
+    public void setUp() throws IOException {
+        json = TemplateFixtures.template(size);
+        plan = JsonToHtmlConverter.compile(json);
+        prepared = StreamingHtmlRenderer.prepare(StreamingHtmlRenderer.JsonSource.of(json));
+    }
+
+    @Benchmark
+    public String convertJsonToHtml() throws IOException {
+        return JsonToHtmlConverter.convertJsonToHtml(json);
+    }
+
+    @Benchmark
+    public RenderPlan compile() {
+        return JsonToHtmlConverter.compile(json);
+    }
+
+    @Benchmark
+    public String renderCachedPlan() {
+        return plan.render(Collections.emptyMap());
+    }
+
+    @Benchmark
+    public long streamPrepared() throws IOException {
+        CountingWriter out = new CountingWriter();
+        prepared.writeTo(out, Collections.emptyMap());
+        return out.count;
+    }
+
+    /**
+     * Discards output but keeps its length, so the write cannot be optimized away.
+     */
+    static final class CountingWriter extends Writer {
+        long count;
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void write(String text, int offset, int length) {
+            count += length;
+        }
+
+        @Override
+        public void write(int c) {
+            count++;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package com.citi.custody.config;
 
+import com.citi.custody.mail.CircuitBreaker;
+import com.citi.custody.mail.PooledJavaMailSender;
+import com.citi.custody.mail.RoutingJavaMailSender;
+import com.citi.custody.mail.SmtpRateLimiterRegistry;
+import com.citi.custody.mail.SmtpRelay;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.JavaMailSenderImpl;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 @Configuration
@@ -22,12 +31,88 @@ public class MailConfig {
     
     @Value("${spring.mail.password}")
     private String password;
+
+    // 多个中继: host:port:weight, 逗号分隔; 为空时只使用 spring.mail.host/port
+    @Value("${email.smtp.relays:}")
+    private String relays;
+
+    @Value("${email.smtp.pool.enabled:true}")
+    private boolean poolEnabled;
+
+    @Value("${email.smtp.pool.max-total:8}")
+    private int poolMaxTotal;
+
+    @Value("${email.smtp.pool.max-wait-ms:10000}")
+    private long poolMaxWaitMillis;
+
+    @Value("${email.smtp.pool.idle-timeout-ms:120000}")
+    private long poolIdleTimeoutMillis;
+
+    @Value("${email.smtp.pool.keepalive-interval-ms:30000}")
+    private long poolKeepAliveIntervalMillis;
+
+    @Value("${email.smtp.pool.max-messages-per-connection:100}")
+    private int poolMaxMessagesPerConnection;
+
+    @Value("${email.smtp.pool.prewarm:2}")
+    private int poolPrewarm;
+
+    @Value("${email.smtp.breaker.window-size:20}")
+    private int breakerWindowSize;
+
+    @Value("${email.smtp.breaker.minimum-calls:5}")
+    private int breakerMinimumCalls;
+
+    @Value("${email.smtp.breaker.failure-rate-threshold:0.5}")
+    private double breakerFailureRateThreshold;
+
+    @Value("${email.smtp.breaker.slow-call-rate-threshold:0.8}")
+    private double breakerSlowCallRateThreshold;
+
+    @Value("${email.smtp.breaker.slow-call-ms:10000}")
+    private long breakerSlowCallMillis;
+
+    @Value("${email.smtp.breaker.open-duration-ms:30000}")
+    private long breakerOpenDurationMillis;
     
     @Bean
-    public JavaMailSender javaMailSender() {
-        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
-        mailSender.setHost(host);
-        mailSender.setPort(port);
+    public RoutingJavaMailSender javaMailSender(SmtpRateLimiterRegistry rateLimiterRegistry) {
+        List<SmtpRelay> smtpRelays = new ArrayList<>();
+        if (relays == null || relays.trim().isEmpty()) {
+            smtpRelays.add(createRelay(host, port, 1));
+        } else {
+            for (String relay : relays.split(",")) {
+                String[] parts = relay.trim().split(":");
+                if (parts.length < 2) {
+                    throw new IllegalArgumentException("Invalid email.smtp.relays entry, expected host:port[:weight]: " + relay);
+                }
+                int weight = parts.length > 2 ? Integer.parseInt(parts[2].trim()) : 1;
+                smtpRelays.add(createRelay(parts[0].trim(), Integer.parseInt(parts[1].trim()), weight));
+            }
+        }
+
+        // 路由器本身只用于创建MimeMessage, 实际发送交给各中继
+        RoutingJavaMailSender mailSender = new RoutingJavaMailSender(smtpRelays, rateLimiterRegistry);
+        configure(mailSender, smtpRelays.get(0).getSender().getHost(), smtpRelays.get(0).getSender().getPort());
+        return mailSender;
+    }
+
+    private SmtpRelay createRelay(String relayHost, int relayPort, int weight) {
+        JavaMailSenderImpl sender = poolEnabled ? new PooledJavaMailSender() : new JavaMailSenderImpl();
+        configure(sender, relayHost, relayPort);
+        if (sender instanceof PooledJavaMailSender) {
+            ((PooledJavaMailSender) sender).initPool(poolMaxTotal, poolMaxWaitMillis, poolIdleTimeoutMillis,
+                    poolKeepAliveIntervalMillis, poolMaxMessagesPerConnection);
+        }
+        String name = relayHost + ":" + relayPort;
+        CircuitBreaker circuitBreaker = new CircuitBreaker(name, breakerWindowSize, breakerMinimumCalls,
+                breakerFailureRateThreshold, breakerSlowCallRateThreshold, breakerSlowCallMillis, breakerOpenDurationMillis);
+        return new SmtpRelay(name, weight, sender, circuitBreaker);
+    }
+
+    private void configure(JavaMailSenderImpl mailSender, String relayHost, int relayPort) {
+        mailSender.setHost(relayHost);
+        mailSender.setPort(relayPort);
         mailSender.setUsername(username);
         mailSender.setPassword(password);
         
@@ -36,7 +121,17 @@ public class MailConfig {
         props.put("mail.smtp.auth", "true");
         props.put("mail.smtp.starttls.enable", "true");
         props.put("mail.debug", "true");
-        
-        return mailSender;
     }
-} 
\ No newline at end of file
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarmMailConnections(ApplicationReadyEvent event) {
+        JavaMailSender mailSender = event.getApplicationContext().getBean(JavaMailSender.class);
+        if (mailSender instanceof RoutingJavaMailSender) {
+            for (SmtpRelay relay : ((RoutingJavaMailSender) mailSender).getRelays()) {
+                if (relay.getSender() instanceof PooledJavaMailSender) {
+                    ((PooledJavaMailSender) relay.getSender()).getPool().prewarmAsync(poolPrewarm);
+                }
+            }
+        }
+    }
+} 
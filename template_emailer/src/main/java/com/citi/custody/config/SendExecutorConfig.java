@@ -0,0 +1,88 @@
+package com.citi.custody.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class SendExecutorConfig {
+    private static final Logger logger = LoggerFactory.getLogger(SendExecutorConfig.class);
+
+    @Value("${email.send.worker-threads:4}")
+    private int workerThreads;
+
+    @Value("${email.send.queue-capacity:500}")
+    private int queueCapacity;
+
+    @Value("${email.send.chunk-threads:4}")
+    private int chunkThreads;
+
+    @Value("${email.send.chunk-queue-capacity:200}")
+    private int chunkQueueCapacity;
+
+    @Value("${email.scheduler.dispatch-threads:8}")
+    private int dispatchThreads;
+
+    @Value("${email.scheduler.max-in-flight:32}")
+    private int maxInFlight;
+
+    /**
+     * Bounded worker pool that drains submitted send jobs. AbortPolicy is kept on purpose so a full
+     * queue surfaces to the caller as a rejection instead of blocking the request thread.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor emailSendExecutor() {
+        logger.info("Creating email send executor: workerThreads={}, queueCapacity={}", workerThreads, queueCapacity);
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "email-send-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Sends the recipient chunks of one large email in parallel. The send worker waits for its chunks,
+     * so CallerRunsPolicy is used: when the pool is saturated the worker sends the chunk itself.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor emailChunkExecutor() {
+        logger.info("Creating email chunk executor: chunkThreads={}, queueCapacity={}", chunkThreads, chunkQueueCapacity);
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "email-chunk-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(chunkThreads, chunkThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(chunkQueueCapacity), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Sends due scheduled emails, kept apart from the on-demand send pool so a morning spike of scheduled
+     * emails neither waits behind nor starves manual sends. ScheduledEmailDispatcher bounds the in-flight
+     * work with a semaphore, so the queue never holds more than max-in-flight tasks.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor emailDispatchExecutor() {
+        logger.info("Creating scheduled email dispatch executor: dispatchThreads={}, maxInFlight={}", dispatchThreads, maxInFlight);
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "email-dispatch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, maxInFlight)), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -21,4 +21,5 @@ public class ErrorCodeConstants {
     public static final int GONE = 410;
     public static final int PRECONDITION_FAILED = 412;
     public static final int UN_PROCESSABLE_ENTITY = 422;
+    public static final int TOO_MANY_REQUESTS = 429;
 }
@@ -1,11 +1,23 @@
 package com.citi.custody.controller;
 
 import com.citi.custody.constant.ErrorCodeConstants;
+import com.citi.custody.entity.CampaignRecipient;
 import com.citi.custody.entity.Email;
+import com.citi.custody.entity.EmailExecution;
 import com.citi.custody.entity.FilterParams;
+import com.citi.custody.entity.SendJob;
+import com.citi.custody.exception.BusinessException;
+import com.citi.custody.mail.RoutingJavaMailSender;
+import com.citi.custody.mail.SmtpRateLimiterRegistry;
+import com.citi.custody.service.CampaignService;
+import com.citi.custody.service.EmailScheduleTimer;
+import com.citi.custody.service.EmailSendJobService;
 import com.citi.custody.service.EmailSenderService;
 import com.citi.custody.service.EmailService;
+import com.citi.custody.service.RecurringEmailService;
+import com.citi.custody.service.TemplateRenderService;
 import com.citi.custody.util.AssertUtils;
+import com.citi.custody.util.InlineImage;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +61,24 @@ public class EmailController {
     @Autowired
     private EmailSenderService emailSenderService;
 
+    @Autowired
+    private EmailSendJobService emailSendJobService;
+
+    @Autowired
+    private CampaignService campaignService;
+
+    @Autowired
+    private SmtpRateLimiterRegistry rateLimiterRegistry;
+
+    @Autowired
+    private EmailScheduleTimer emailScheduleTimer;
+
+    @Autowired
+    private RecurringEmailService recurringEmailService;
+
+    @Autowired
+    private TemplateRenderService templateRenderService;
+
     @Value("${attachment.storage.path:/temp/attachments}")
     private String attachmentPath;
 
@@ -64,6 +94,9 @@ public class EmailController {
     @Value("${spring.mail.username}")
     private String sender;
 
+    @Value("${email.send.batch-max-emails:1000}")
+    private int maxBatchSize;
+
     @PostMapping("/save")
     public ResponseEntity<String> saveEmail(@RequestBody Email email) {
         try {
@@ -136,7 +169,7 @@ public class EmailController {
     }
 
     @PostMapping("/send/{id}")
-    public ResponseEntity<String> sendEmail(@PathVariable String id) {
+    public ResponseEntity<?> sendEmail(@PathVariable String id) {
         try {
             logger.info("Received request to send email with ID: {}", id);
             
@@ -152,20 +185,142 @@ public class EmailController {
                 return ResponseEntity.status(404).body("Email not found with ID: " + id);
             }
 
-            emailSenderService.sendEmail(id);
-            logger.info("Email sending process initiated for ID: {}", id);
-            return ResponseEntity.ok("Email sending process initiated");
+            SendJob job = emailSendJobService.submit(id);
+            logger.info("Email sending job {} queued for ID: {}", job.getJobId(), id);
+            return ResponseEntity.accepted().body(job);
+        } catch (BusinessException e) {
+            logger.warn("Email send rejected for ID {}: {}", id, e.getMessage());
+            return ResponseEntity.status(e.getErrorCode()).body(e.getMessage());
         } catch (Exception e) {
             logger.error("Error initiating email send: {}", e.getMessage(), e);
             return ResponseEntity.status(500).body("Failed to send email: " + e.getMessage());
         }
     }
 
+    @PostMapping("/send-batch")
+    public ResponseEntity<?> sendBatch(@RequestBody List<String> ids) {
+        logger.info("Received request to batch send {} emails", ids == null ? 0 : ids.size());
+        if (ids == null || ids.isEmpty()) {
+            return ResponseEntity.badRequest().body("Email ID list cannot be empty");
+        }
+        if (ids.size() > maxBatchSize) {
+            return ResponseEntity.badRequest().body("At most " + maxBatchSize + " emails can be sent in one batch");
+        }
+
+        try {
+            SendJob job = emailSendJobService.submitBatch(ids);
+            return ResponseEntity.accepted().body(job);
+        } catch (BusinessException e) {
+            logger.warn("Batch send rejected: {}", e.getMessage());
+            return ResponseEntity.status(e.getErrorCode()).body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error initiating batch send: {}", e.getMessage(), e);
+            return ResponseEntity.status(500).body("Failed to send emails: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/send-jobs/{jobId}")
+    public ResponseEntity<?> getSendJob(@PathVariable String jobId) {
+        SendJob job = emailSendJobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.status(404).body("Send job not found with ID: " + jobId);
+        }
+        return ResponseEntity.ok(job);
+    }
+
+    @GetMapping("/send-jobs/stats")
+    public Map<String, Object> getSendQueueStats() {
+        return emailSendJobService.getQueueStats();
+    }
+
+    @GetMapping("/smtp/relays")
+    public ResponseEntity<?> getSmtpRelays() {
+        if (mailSender instanceof RoutingJavaMailSender) {
+            return ResponseEntity.ok(((RoutingJavaMailSender) mailSender).getRelayStats());
+        }
+        return ResponseEntity.ok(Collections.emptyList());
+    }
+
+    @GetMapping("/schedule/stats")
+    public Map<String, Object> getScheduleStats() {
+        return emailScheduleTimer.getStats();
+    }
+
+    @GetMapping("/mime-cache/stats")
+    public Map<String, Object> getMimeCacheStats() {
+        return emailSenderService.getMimeCacheStats();
+    }
+
+    @GetMapping("/smtp/rate-limits")
+    public List<Map<String, Object>> getSmtpRateLimits() {
+        return rateLimiterRegistry.getStats();
+    }
+
+    @PostMapping("/campaign/{id}/recipients")
+    public ResponseEntity<?> addCampaignRecipients(@PathVariable String id, @RequestBody List<String> addresses) {
+        try {
+            int added = campaignService.addRecipients(id, addresses);
+            return ResponseEntity.ok(Collections.singletonMap("added", added));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error adding campaign recipients: {}", e.getMessage(), e);
+            return ResponseEntity.status(500).body("Failed to add recipients: " + e.getMessage());
+        }
+    }
+
+    @PostMapping("/campaign/{id}/recipients/import-users")
+    public ResponseEntity<?> importCampaignUsers(@PathVariable String id) {
+        try {
+            int added = campaignService.importAllUsers(id);
+            return ResponseEntity.ok(Collections.singletonMap("added", added));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error importing users into campaign: {}", e.getMessage(), e);
+            return ResponseEntity.status(500).body("Failed to import users: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/campaign/{id}/recipients")
+    public Page<CampaignRecipient> getCampaignRecipients(@PathVariable String id,
+                                                         @RequestParam(value = "status", required = false) String status,
+                                                         @RequestParam(value = "page", defaultValue = "0") int page,
+                                                         @RequestParam(value = "size", defaultValue = "20") int size) {
+        return campaignService.getRecipients(id, status, PageRequest.of(page, size));
+    }
+
+    @GetMapping("/{id}/executions")
+    public Page<EmailExecution> getExecutions(@PathVariable String id,
+                                              @RequestParam(value = "page", defaultValue = "0") int page,
+                                              @RequestParam(value = "size", defaultValue = "20") int size) {
+        return recurringEmailService.getExecutions(id, PageRequest.of(page, size));
+    }
+
+    @PostMapping("/campaign/{id}/requeue-failed")
+    public ResponseEntity<?> requeueFailedRecipients(@PathVariable String id) {
+        try {
+            long requeued = campaignService.requeueFailed(id);
+            return ResponseEntity.ok(Collections.singletonMap("requeued", requeued));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @PostMapping("/retry/{id}")
-    public ResponseEntity<String> retryFailedEmail(@PathVariable String id) {
+    public ResponseEntity<?> retryFailedEmail(@PathVariable String id) {
         try {
-            emailSenderService.resendFailedEmail(id);
-            return ResponseEntity.ok("Email retry initiated");
+            // 与/send/{id}一样异步: 只重置重试状态并入队, 发送在工作线程上进行
+            SendJob job = emailSendJobService.resubmit(id);
+            logger.info("Email retry job {} queued for ID: {}", job.getJobId(), id);
+            return ResponseEntity.accepted().body(job);
+        } catch (BusinessException e) {
+            logger.warn("Email retry rejected for ID {}: {}", id, e.getMessage());
+            return ResponseEntity.status(e.getErrorCode()).body(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(404).body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
             logger.error("Error retrying email send: {}", e.getMessage(), e);
             return ResponseEntity.badRequest().body("Failed to retry email: " + e.getMessage());
@@ -446,7 +601,7 @@ public class EmailController {
             }
             
             // 转换为HTML
-            String htmlContent = com.citi.custody.util.JsonToHtmlConverter.convertJsonToHtml(template.getContent());
+            String htmlContent = templateRenderService.render(template);
             
             // 打印JSON和HTML以便调试
             logger.info("模板原始JSON:\n{}", template.getContent());
@@ -623,11 +778,8 @@ public class EmailController {
         
         // 生成一个简单的HTML内容，包含图片引用
         String imageName = imageFile.getName();
-        String contentId = imageName.replaceAll("[^a-zA-Z0-9.]", "_");
-        if (contentId.contains(".")) {
-            contentId = contentId.substring(0, contentId.lastIndexOf('.'));
-        }
-        contentId = contentId + "_img";
+        // 与模板渲染时生成的Content-ID一致
+        String contentId = InlineImage.forSource(imageName).getContentId();
         
         logger.info("测试邮件使用图片: {}, 生成的Content-ID: {}", imageName, contentId);
         
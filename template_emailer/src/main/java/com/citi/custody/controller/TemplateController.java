@@ -3,12 +3,12 @@ package com.citi.custody.controller;
 import com.citi.custody.entity.FilterParams;
 import com.citi.custody.entity.TemplateInfo;
 import com.citi.custody.entity.User;
+import com.citi.custody.service.TemplateRenderService;
 import com.citi.custody.service.TemplateService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.InputStreamResource;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
@@ -19,6 +19,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/template")
@@ -28,6 +29,9 @@ public class TemplateController {
     @Autowired
     private TemplateService templateService;
 
+    @Autowired
+    private TemplateRenderService templateRenderService;
+
     @PostMapping("/upload")
     public ResponseEntity<String> upload(@RequestParam("file") MultipartFile file, @RequestParam(value = "objectId", required = false) String objectId) {
         try {
@@ -51,10 +55,57 @@ public class TemplateController {
         }
     }
 
+    /**
+     * 模板列表. name按文件名前缀匹配(不区分大小写), 例如"daily"匹配"Daily report", 不匹配"My daily report";
+     * 以前是包含匹配. cursor不为null时为keyset分页, size最大为{@link TemplateService#MAX_CURSOR_PAGE_SIZE}.
+     */
     @PostMapping("/templatesList")
-    public Page<TemplateInfo> getTemplates(@RequestBody FilterParams params) {
+    public ResponseEntity<?> getTemplates(@RequestBody FilterParams params) {
+        if (params.getCursor() != null) {
+            // keyset分页: 返回nextCursor, 不做总数统计
+            if (params.getSize() <= 0) {
+                return ResponseEntity.badRequest().body("Page size must be greater than 0");
+            }
+            try {
+                return ResponseEntity.ok(templateService.getTemplatesAfter(params.getName(), params.getCursor(), params.getSize()));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body(e.getMessage());
+            }
+        }
         Pageable pageable = PageRequest.of(params.getPage(), params.getSize());
-        return templateService.getTemplates(params.getName(), pageable);
+        return ResponseEntity.ok(templateService.getTemplates(params.getName(), pageable, params.isIncludeContent()));
+    }
+
+    @GetMapping("/render-cache/stats")
+    public Map<String, Object> getRenderCacheStats() {
+        return templateRenderService.getStats();
+    }
+
+    /**
+     * 编辑器实时预览: 请求体为模板JSON(不需要先保存), 返回渲染后的HTML; 未改动的行直接使用缓存
+     */
+    @PostMapping(value = "/preview", produces = MediaType.TEXT_HTML_VALUE)
+    public ResponseEntity<String> preview(@RequestBody(required = false) String content) {
+        if (content == null || content.trim().isEmpty()) {
+            return ResponseEntity.badRequest().body("Template content cannot be empty");
+        }
+        try {
+            return ResponseEntity.ok(templateRenderService.preview(content));
+        } catch (Exception e) {
+            log.error("Failed to render template preview: {}", e.getMessage(), e);
+            return ResponseEntity.status(500).body("Preview failed: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/render-cache/minify")
+    public List<Map<String, Object>> getMinifyReports() {
+        return templateRenderService.getMinifyReports();
+    }
+
+    @GetMapping("/render-cache/minify/{id}")
+    public ResponseEntity<Map<String, Object>> getMinifyReport(@PathVariable String id) {
+        Map<String, Object> report = templateRenderService.getMinifyReport(id);
+        return report != null ? ResponseEntity.ok(report) : ResponseEntity.notFound().build();
     }
 
     @GetMapping("/{id}")
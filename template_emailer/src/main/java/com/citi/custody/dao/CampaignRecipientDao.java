@@ -0,0 +1,127 @@
+package com.citi.custody.dao;
+
+import com.citi.custody.entity.CampaignRecipient;
+import com.citi.custody.entity.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+@Component
+public class CampaignRecipientDao {
+    private static final Logger logger = LoggerFactory.getLogger(CampaignRecipientDao.class);
+
+    @Autowired
+    MongoTemplate mongoTemplate;
+
+    /**
+     * Inserts the recipients in one unordered bulk write, skipping addresses already on the campaign.
+     *
+     * @return number of recipients actually inserted
+     */
+    public int insertRecipients(List<CampaignRecipient> recipients) {
+        if (recipients.isEmpty()) {
+            return 0;
+        }
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CampaignRecipient.class);
+        bulkOps.insert(recipients);
+        try {
+            return bulkOps.execute().getInsertedCount();
+        } catch (BulkOperationException e) {
+            // Duplicate addresses violate the (emailId, address) unique index; the rest are still inserted
+            logger.debug("Skipped {} duplicate campaign recipients", e.getErrors().size());
+            return e.getResult().getInsertedCount();
+        }
+    }
+
+    /**
+     * Streams users with an email address so the whole user collection never sits in heap.
+     */
+    public CloseableIterator<User> streamUsersWithEmail() {
+        Query query = new Query(Criteria.where("email").exists(true).nin(null, ""));
+        return mongoTemplate.stream(query, User.class);
+    }
+
+    /**
+     * Streams recipients of a campaign in the given status, in insertion order.
+     */
+    public CloseableIterator<CampaignRecipient> streamByStatus(String emailId, String status) {
+        Query query = new Query(Criteria.where("emailId").is(emailId).and("status").is(status))
+                .with(Sort.by(Sort.Direction.ASC, "_id"));
+        return mongoTemplate.stream(query, CampaignRecipient.class);
+    }
+
+    public Page<CampaignRecipient> findByEmailId(String emailId, String status, Pageable pageable) {
+        Query query = new Query(Criteria.where("emailId").is(emailId));
+        if (status != null && !status.isEmpty()) {
+            query.addCriteria(Criteria.where("status").is(status));
+        }
+        long count = mongoTemplate.count(query, CampaignRecipient.class);
+        List<CampaignRecipient> recipients = mongoTemplate.find(query.with(pageable), CampaignRecipient.class);
+        return new PageImpl<>(recipients, pageable, count);
+    }
+
+    /**
+     * Writes the delivery outcome of a group of recipients in one bulk operation.
+     */
+    public void bulkUpdateStatus(List<CampaignRecipient> recipients) {
+        if (recipients.isEmpty()) {
+            return;
+        }
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, CampaignRecipient.class);
+        for (CampaignRecipient recipient : recipients) {
+            Update update = new Update()
+                    .set("status", recipient.getStatus())
+                    .set("sentTime", recipient.getSentTime())
+                    .set("errorMessage", recipient.getErrorMessage());
+            bulkOps.updateOne(new Query(Criteria.where("_id").is(recipient.getId())), update);
+        }
+        bulkOps.execute();
+    }
+
+    /**
+     * Puts FAILED recipients of a campaign back to QUEUED.
+     *
+     * @return number of recipients requeued
+     */
+    public long requeueFailed(String emailId) {
+        Query query = new Query(Criteria.where("emailId").is(emailId).and("status").is("FAILED"));
+        Update update = new Update().set("status", "QUEUED").unset("errorMessage");
+        return mongoTemplate.updateMulti(query, update, CampaignRecipient.class).getModifiedCount();
+    }
+
+    public static CampaignRecipient newRecipient(String emailId, String address, String soeId) {
+        CampaignRecipient recipient = new CampaignRecipient();
+        recipient.setEmailId(emailId);
+        recipient.setAddress(address.trim());
+        recipient.setSoeId(soeId);
+        recipient.setStatus("QUEUED");
+        recipient.setCreateTime(new Date());
+        return recipient;
+    }
+
+    public static List<CampaignRecipient> newRecipients(String emailId, List<String> addresses) {
+        List<CampaignRecipient> recipients = new ArrayList<>();
+        for (String address : addresses) {
+            if (address != null && !address.trim().isEmpty()) {
+                recipients.add(newRecipient(emailId, address, null));
+            }
+        }
+        return recipients;
+    }
+}
@@ -14,7 +14,7 @@ import java.util.List;
 import java.util.Optional;
 
 @Repository
-public interface EmailDao extends MongoRepository<Email, String> {
+public interface EmailDao extends MongoRepository<Email, String>, EmailDaoCustom {
     Logger logger = LoggerFactory.getLogger(EmailDao.class);
     
     @Query("{ 'emailName': { $regex: ?0, $options: 'i' } }")
@@ -0,0 +1,106 @@
+package com.citi.custody.dao;
+
+import com.citi.custody.entity.Email;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Email operations that need MongoTemplate directly (bulk writes, atomic updates), mixed into {@link EmailDao}.
+ */
+public interface EmailDaoCustom {
+
+    /**
+     * Writes status, sentTime and errorMessage of all given emails in one unordered bulk operation.
+     */
+    void bulkUpdateStatus(List<Email> emails);
+
+    /**
+     * Atomically adjusts the campaign counters of an email with $inc.
+     */
+    void incrementCampaignCounters(String emailId, int queuedDelta, int sentDelta, int failedDelta);
+
+    /**
+     * Atomically claims the email for sending (findAndModify to SENDING with a lease owned by {@code owner}).
+     * Only DRAFT, SCHEDULED and the resendable failure statuses can be claimed outright; a QUEUED email only by the
+     * owner that queued it or once its lease has expired, and a SENDING email only once its lease has expired.
+     * Assigns an idempotency key (sendAttemptId) if the email has none yet.
+     *
+     * @return the claimed email, or null if it does not exist or another sender holds it
+     */
+    Email claimForSend(String emailId, String owner, long leaseMillis);
+
+    /**
+     * Streams id and sentTime of up to {@code limit} SCHEDULED emails due before {@code dueBefore}, oldest first,
+     * through a Mongo cursor so a large backlog is never loaded into heap at once.
+     */
+    CloseableIterator<Email> streamDueScheduled(Date dueBefore, int limit);
+
+    /**
+     * Claims the given SCHEDULED emails for this node in one updateMany: they move to QUEUED with owner and lease,
+     * so other nodes' sweeps and timers skip them.
+     *
+     * @return the ids this call actually claimed
+     */
+    List<String> claimScheduled(List<String> emailIds, String owner, long leaseMillis);
+
+    /**
+     * Claims one SCHEDULED email (SCHEDULED -> QUEUED with owner and lease). False if another node got it first.
+     */
+    boolean claimScheduled(String emailId, String owner, long leaseMillis);
+
+    /**
+     * The ids among {@code emailIds} that belong to campaigns; these are sent per recipient by the campaign path.
+     */
+    List<String> findCampaignIds(Collection<String> emailIds);
+
+    /**
+     * RECURRING emails whose precomputed nextFireAt is due, oldest first; served by the status_nextFireAt index.
+     */
+    List<Email> findDueRecurring(Date now, int limit);
+
+    /**
+     * Atomically moves a RECURRING email from the occurrence {@code firedFor} to {@code nextFireAt}
+     * (ENDED when null). Only one node wins a given occurrence.
+     */
+    boolean advanceRecurring(String emailId, Date firedFor, Date nextFireAt);
+
+    /**
+     * Moves a still SCHEDULED email to MISFIRED (skipped by the misfire policy) with the reason as error message.
+     */
+    boolean markMisfired(String emailId, String reason);
+
+    /**
+     * Hands QUEUED emails this node claimed but could not submit back to SCHEDULED.
+     */
+    void releaseToScheduled(List<String> emailIds, String owner);
+
+    /**
+     * Extends the SENDING lease held by {@code owner}; false if the claim was lost (e.g. recovered after expiry).
+     */
+    boolean renewLease(String emailId, String owner, long leaseMillis);
+
+    /**
+     * Turns SENDING or QUEUED claims whose lease expired (crashed or hung sender) into due transient failures for the retrier.
+     *
+     * @return number of recovered emails
+     */
+    long recoverExpiredLeases(Date now);
+
+    /**
+     * Transient failures whose nextAttemptAt has passed, oldest first; served by the nextAttemptAt index.
+     */
+    List<Email> findDueRetries(Date now, int limit);
+
+    /**
+     * Moves a due retry from FAILED (or PARTIALLY_SENT) to QUEUED. Returns false when another worker (or a manual retry) got there first.
+     */
+    boolean claimRetry(String emailId, Date now, String owner, long leaseMillis);
+
+    /**
+     * Puts a claimed retry back to its previous status with a new nextAttemptAt, e.g. when the send queue was full.
+     */
+    void rescheduleRetry(String emailId, String status, Date nextAttemptAt);
+}
@@ -0,0 +1,243 @@
+package com.citi.custody.dao;
+
+import com.citi.custody.entity.Email;
+import com.mongodb.bulk.BulkWriteResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+public class EmailDaoCustomImpl implements EmailDaoCustom {
+    private static final Logger logger = LoggerFactory.getLogger(EmailDaoCustomImpl.class);
+    private static final int DUE_CURSOR_BATCH_SIZE = 500;
+    private static final List<String> CLAIMABLE_STATUSES = Arrays.asList(
+            "DRAFT", "SCHEDULED", "FAILED", "PARTIALLY_SENT", "DEAD_LETTER", "MISFIRED", null);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public void bulkUpdateStatus(List<Email> emails) {
+        if (emails == null || emails.isEmpty()) {
+            return;
+        }
+
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Email.class);
+        for (Email email : emails) {
+            Update update = new Update()
+                    .set("status", email.getStatus())
+                    .set("sentTime", email.getSentTime())
+                    .set("errorMessage", email.getErrorMessage())
+                    .set("retryCount", email.getRetryCount())
+                    .set("nextAttemptAt", email.getNextAttemptAt())
+                    .set("failureClass", email.getFailureClass())
+                    .set("sendAttemptId", email.getSendAttemptId());
+            bulkOps.updateOne(new Query(Criteria.where("_id").is(email.getId())), update);
+        }
+        BulkWriteResult result = bulkOps.execute();
+        logger.debug("Bulk status update: requested={}, matched={}, modified={}",
+                emails.size(), result.getMatchedCount(), result.getModifiedCount());
+    }
+
+    @Override
+    public void incrementCampaignCounters(String emailId, int queuedDelta, int sentDelta, int failedDelta) {
+        Update update = new Update()
+                .inc("queuedCount", queuedDelta)
+                .inc("sentCount", sentDelta)
+                .inc("failedCount", failedDelta);
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(emailId)), update, Email.class);
+    }
+
+    @Override
+    public Email claimForSend(String emailId, String owner, long leaseMillis) {
+        Date now = new Date();
+        Query query = new Query(Criteria.where("_id").is(emailId))
+                .addCriteria(new Criteria().orOperator(
+                        // 白名单: 周期邮件的定义(RECURRING/ENDED)只通过执行记录发送; null为没有status的旧数据
+                        Criteria.where("status").in(CLAIMABLE_STATUSES),
+                        // QUEUED已由调度/重试抢占: 只有持有者本身或租约过期后才能接手
+                        Criteria.where("status").is("QUEUED").orOperator(
+                                Criteria.where("sendingOwner").is(owner),
+                                Criteria.where("sendingLeaseUntil").lt(now)),
+                        Criteria.where("status").is("SENDING").and("sendingLeaseUntil").lt(now)));
+        Update update = new Update()
+                .set("status", "SENDING")
+                .set("sendingOwner", owner)
+                .set("sendingLeaseUntil", new Date(now.getTime() + leaseMillis));
+        Email claimed = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Email.class);
+        if (claimed != null && claimed.getSendAttemptId() == null) {
+            // 首次发送时生成幂等键; 租约超时后重发沿用同一个键, Message-ID保持不变
+            String sendAttemptId = UUID.randomUUID().toString();
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(emailId).and("sendAttemptId").is(null)),
+                    new Update().set("sendAttemptId", sendAttemptId), Email.class);
+            claimed.setSendAttemptId(sendAttemptId);
+        }
+        return claimed;
+    }
+
+    @Override
+    public long recoverExpiredLeases(Date now) {
+        Query query = new Query(Criteria.where("sendingLeaseUntil").lt(now).and("status").in("SENDING", "QUEUED"));
+        Update update = new Update()
+                .set("status", "FAILED")
+                .set("failureClass", "TRANSIENT")
+                .set("nextAttemptAt", now)
+                .set("errorMessage", "Send lease expired before the sender reported a result");
+        return mongoTemplate.updateMulti(query, update, Email.class).getModifiedCount();
+    }
+
+    @Override
+    public List<Email> findDueRetries(Date now, int limit) {
+        Query query = new Query(Criteria.where("nextAttemptAt").lte(now)
+                .and("status").in("FAILED", "PARTIALLY_SENT")
+                .and("failureClass").is("TRANSIENT"))
+                .with(Sort.by(Sort.Direction.ASC, "nextAttemptAt"))
+                .limit(limit);
+        return mongoTemplate.find(query, Email.class);
+    }
+
+    @Override
+    public boolean claimRetry(String emailId, Date now, String owner, long leaseMillis) {
+        Query query = new Query(Criteria.where("_id").is(emailId)
+                .and("status").in("FAILED", "PARTIALLY_SENT")
+                .and("nextAttemptAt").lte(now));
+        Update update = new Update()
+                .set("status", "QUEUED")
+                .set("sendingOwner", owner)
+                .set("sendingLeaseUntil", new Date(now.getTime() + leaseMillis))
+                .unset("nextAttemptAt");
+        return mongoTemplate.updateFirst(query, update, Email.class).getModifiedCount() == 1;
+    }
+
+    @Override
+    public CloseableIterator<Email> streamDueScheduled(Date dueBefore, int limit) {
+        // 走status_sentTime复合索引, 只取_id, 游标按批拉取
+        Query query = new Query(Criteria.where("status").is("SCHEDULED").and("sentTime").lte(dueBefore))
+                .with(Sort.by(Sort.Direction.ASC, "sentTime"))
+                .limit(limit)
+                .cursorBatchSize(DUE_CURSOR_BATCH_SIZE);
+        query.fields().include("_id").include("sentTime");
+        return mongoTemplate.stream(query, Email.class);
+    }
+
+    @Override
+    public List<String> claimScheduled(List<String> emailIds, String owner, long leaseMillis) {
+        if (emailIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 只有仍为SCHEDULED的文档会被更新; 用本次的claimToken找回真正抢到的那部分
+        String claimToken = UUID.randomUUID().toString();
+        Query claimable = new Query(Criteria.where("_id").in(emailIds).and("status").is("SCHEDULED"));
+        Update update = new Update()
+                .set("status", "QUEUED")
+                .set("sendingOwner", owner)
+                .set("sendingLeaseUntil", new Date(System.currentTimeMillis() + leaseMillis))
+                .set("claimToken", claimToken);
+        long claimed = mongoTemplate.updateMulti(claimable, update, Email.class).getModifiedCount();
+        if (claimed == 0) {
+            return Collections.emptyList();
+        }
+        Query mine = new Query(Criteria.where("claimToken").is(claimToken)).with(Sort.by(Sort.Direction.ASC, "sentTime"));
+        mine.fields().include("_id");
+        List<String> ids = new ArrayList<>();
+        for (Email email : mongoTemplate.find(mine, Email.class)) {
+            ids.add(email.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public List<String> findCampaignIds(Collection<String> emailIds) {
+        if (emailIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Query query = new Query(Criteria.where("_id").in(emailIds).and("campaign").is(true));
+        query.fields().include("_id");
+        List<String> ids = new ArrayList<>();
+        for (Email email : mongoTemplate.find(query, Email.class)) {
+            ids.add(email.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public boolean claimScheduled(String emailId, String owner, long leaseMillis) {
+        Query query = new Query(Criteria.where("_id").is(emailId).and("status").is("SCHEDULED"));
+        Update update = new Update()
+                .set("status", "QUEUED")
+                .set("sendingOwner", owner)
+                .set("sendingLeaseUntil", new Date(System.currentTimeMillis() + leaseMillis));
+        return mongoTemplate.updateFirst(query, update, Email.class).getModifiedCount() == 1;
+    }
+
+    @Override
+    public List<Email> findDueRecurring(Date now, int limit) {
+        Query query = new Query(Criteria.where("status").is("RECURRING").and("nextFireAt").lte(now))
+                .with(Sort.by(Sort.Direction.ASC, "nextFireAt"))
+                .limit(limit);
+        return mongoTemplate.find(query, Email.class);
+    }
+
+    @Override
+    public boolean advanceRecurring(String emailId, Date firedFor, Date nextFireAt) {
+        Query query = new Query(Criteria.where("_id").is(emailId).and("status").is("RECURRING").and("nextFireAt").is(firedFor));
+        Update update = new Update()
+                .set("lastFiredAt", new Date())
+                .inc("fireCount", 1);
+        if (nextFireAt != null) {
+            update.set("nextFireAt", nextFireAt);
+        } else {
+            update.set("status", "ENDED").unset("nextFireAt");
+        }
+        return mongoTemplate.updateFirst(query, update, Email.class).getModifiedCount() == 1;
+    }
+
+    @Override
+    public boolean markMisfired(String emailId, String reason) {
+        Query query = new Query(Criteria.where("_id").is(emailId).and("status").is("SCHEDULED"));
+        Update update = new Update().set("status", "MISFIRED").set("errorMessage", reason);
+        return mongoTemplate.updateFirst(query, update, Email.class).getModifiedCount() == 1;
+    }
+
+    @Override
+    public void releaseToScheduled(List<String> emailIds, String owner) {
+        if (emailIds.isEmpty()) {
+            return;
+        }
+        Query query = new Query(Criteria.where("_id").in(emailIds).and("status").is("QUEUED").and("sendingOwner").is(owner));
+        Update update = new Update()
+                .set("status", "SCHEDULED")
+                .unset("sendingLeaseUntil");
+        mongoTemplate.updateMulti(query, update, Email.class);
+    }
+
+    @Override
+    public boolean renewLease(String emailId, String owner, long leaseMillis) {
+        Query query = new Query(Criteria.where("_id").is(emailId).and("status").is("SENDING").and("sendingOwner").is(owner));
+        Update update = new Update().set("sendingLeaseUntil", new Date(System.currentTimeMillis() + leaseMillis));
+        return mongoTemplate.updateFirst(query, update, Email.class).getModifiedCount() == 1;
+    }
+
+    @Override
+    public void rescheduleRetry(String emailId, String status, Date nextAttemptAt) {
+        Update update = new Update()
+                .set("status", status)
+                .set("nextAttemptAt", nextAttemptAt);
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(emailId)), update, Email.class);
+    }
+}
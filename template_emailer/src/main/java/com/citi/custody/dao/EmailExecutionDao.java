@@ -0,0 +1,13 @@
+package com.citi.custody.dao;
+
+import com.citi.custody.entity.EmailExecution;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface EmailExecutionDao extends MongoRepository<EmailExecution, String> {
+
+    Page<EmailExecution> findByEmailIdOrderByScheduledForDesc(String emailId, Pageable pageable);
+}
@@ -10,6 +10,9 @@ import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Component;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 @Component
@@ -36,6 +39,25 @@ public class UserDao {
         return new PageImpl<>(users, pageable, count);
     }
     
+    /**
+     * Batch lookup for campaign personalization: users matching any of the soeIds or email addresses.
+     */
+    public List<User> findUsersBySoeIdsOrEmails(Collection<String> soeIds, Collection<String> emails) {
+        List<Criteria> criteria = new ArrayList<>(2);
+        if (!soeIds.isEmpty()) {
+            criteria.add(Criteria.where("soeId").in(soeIds));
+        }
+        if (!emails.isEmpty()) {
+            criteria.add(Criteria.where("email").in(emails));
+        }
+        if (criteria.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Query query = new Query(new Criteria().orOperator(criteria.toArray(new Criteria[0])));
+        query.fields().include("soeId").include("firstName").include("lastName").include("email");
+        return mongoTemplate.find(query, User.class);
+    }
+    
     public void deleteUser(String id) {
         Query query = new Query(Criteria.where("soeId").is(id));
         mongoTemplate.remove(query, User.class);
@@ -0,0 +1,106 @@
+package com.citi.custody.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * One recipient of a campaign Email, with its own delivery record.
+ */
+@Document(collection = "campaign_recipient")
+@CompoundIndexes({
+        @CompoundIndex(name = "email_address_unique", def = "{'emailId': 1, 'address': 1}", unique = true),
+        @CompoundIndex(name = "email_status", def = "{'emailId': 1, 'status': 1}")
+})
+public class CampaignRecipient {
+    @Id
+    private String id;
+    private String emailId; // Reference to the parent Email
+    private String address;
+    private String soeId; // Set when imported from the user collection
+    private String status; // QUEUED, SENT, FAILED
+    private String errorMessage;
+    private Date createTime;
+    private Date sentTime;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getEmailId() {
+        return emailId;
+    }
+
+    public void setEmailId(String emailId) {
+        this.emailId = emailId;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public void setAddress(String address) {
+        this.address = address;
+    }
+
+    public String getSoeId() {
+        return soeId;
+    }
+
+    public void setSoeId(String soeId) {
+        this.soeId = soeId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public Date getCreateTime() {
+        return createTime;
+    }
+
+    public void setCreateTime(Date createTime) {
+        this.createTime = createTime;
+    }
+
+    public Date getSentTime() {
+        return sentTime;
+    }
+
+    public void setSentTime(Date sentTime) {
+        this.sentTime = sentTime;
+    }
+
+    @Override
+    public String toString() {
+        return "CampaignRecipient{" +
+                "id='" + id + '\'' +
+                ", emailId='" + emailId + '\'' +
+                ", address='" + address + '\'' +
+                ", soeId='" + soeId + '\'' +
+                ", status='" + status + '\'' +
+                ", errorMessage='" + errorMessage + '\'' +
+                ", createTime=" + createTime +
+                ", sentTime=" + sentTime +
+                '}';
+    }
+}
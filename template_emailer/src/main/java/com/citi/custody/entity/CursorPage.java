@@ -0,0 +1,44 @@
+package com.citi.custody.entity;
+
+import java.util.List;
+
+/**
+ * One page of a keyset (seek) listing. There is no total count: pass {@code nextCursor} back to get the following
+ * page; it is null on the last page.
+ */
+public class CursorPage<T> {
+    private List<T> content;
+    private int size;
+    private String nextCursor;
+
+    public CursorPage(List<T> content, int size, String nextCursor) {
+        this.content = content;
+        this.size = size;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isHasNext() {
+        return nextCursor != null;
+    }
+
+    @Override
+    public String toString() {
+        return "CursorPage{" +
+                "content=" + (content != null ? content.size() + " items" : "null") +
+                ", size=" + size +
+                ", nextCursor='" + nextCursor + '\'' +
+                '}';
+    }
+}
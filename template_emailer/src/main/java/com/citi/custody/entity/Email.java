@@ -1,12 +1,21 @@
 package com.citi.custody.entity;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 @Document(collection = "email")
+@CompoundIndexes({
+        @CompoundIndex(name = "status_sentTime", def = "{'status': 1, 'sentTime': 1}"),
+        @CompoundIndex(name = "status_nextFireAt", def = "{'status': 1, 'nextFireAt': 1}", sparse = true)
+})
 public class Email {
     @Id
     private String id;
@@ -18,9 +27,34 @@ public class Email {
     private String createdBy;
     private List<String> to;
     private List<String> cc;
-    private String status; // DRAFT, SCHEDULED, SENT, FAILED
+    private String status; // DRAFT, SCHEDULED, SENDING, SENT, PARTIALLY_SENT, FAILED, DEAD_LETTER, MISFIRED, RECURRING, ENDED
     private String errorMessage;
     private List<String> attachments;
+    private Boolean campaign; // true: recipients live in campaign_recipient, one message per recipient
+    private Integer queuedCount;
+    private Integer sentCount;
+    private Integer failedCount;
+    private Integer retryCount; // automatic retries already scheduled
+    @Indexed(sparse = true)
+    private Date nextAttemptAt; // set while a transient failure is waiting for the retrier
+    private String failureClass; // TRANSIENT, PERMANENT
+    // only for recipient lists larger than one envelope; progress is kept by the sender, clients cannot set it
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private List<RecipientChunk> recipientChunks;
+    private String sendAttemptId; // idempotency key of the current delivery, reused in Message-ID until SENT
+    private String sendingOwner; // instance holding the SENDING claim
+    @Indexed(sparse = true)
+    private Date sendingLeaseUntil; // SENDING/QUEUED claims past this time are recovered
+    @Indexed(sparse = true)
+    private String claimToken; // batch claim that moved the email from SCHEDULED to QUEUED
+    private String cronExpression; // recurring schedule (Spring cron, 6 fields), active while status is RECURRING
+    private String timeZone; // zone the cron expression is evaluated in, e.g. Asia/Shanghai; server zone when empty
+    private Date recurrenceEndAt; // no firings after this time; the schedule then moves to ENDED
+    private Date nextFireAt; // precomputed next firing of a RECURRING email
+    private Date lastFiredAt;
+    private Integer fireCount;
+    private Map<String, String> variables; // values for {{name}} placeholders; campaign recipients add their User fields on top
+    private Map<String, String> dataSources; // table block source name -> where its rows are fetched from at send time, e.g. rod:<releaseId>
 
     public String getId() {
         return id;
@@ -122,6 +156,166 @@ public class Email {
         this.attachments = attachments;
     }
 
+    public Boolean getCampaign() {
+        return campaign;
+    }
+
+    public void setCampaign(Boolean campaign) {
+        this.campaign = campaign;
+    }
+
+    public Integer getQueuedCount() {
+        return queuedCount;
+    }
+
+    public void setQueuedCount(Integer queuedCount) {
+        this.queuedCount = queuedCount;
+    }
+
+    public Integer getSentCount() {
+        return sentCount;
+    }
+
+    public void setSentCount(Integer sentCount) {
+        this.sentCount = sentCount;
+    }
+
+    public Integer getFailedCount() {
+        return failedCount;
+    }
+
+    public void setFailedCount(Integer failedCount) {
+        this.failedCount = failedCount;
+    }
+
+    public Integer getRetryCount() {
+        return retryCount;
+    }
+
+    public void setRetryCount(Integer retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    public Date getNextAttemptAt() {
+        return nextAttemptAt;
+    }
+
+    public void setNextAttemptAt(Date nextAttemptAt) {
+        this.nextAttemptAt = nextAttemptAt;
+    }
+
+    public String getFailureClass() {
+        return failureClass;
+    }
+
+    public void setFailureClass(String failureClass) {
+        this.failureClass = failureClass;
+    }
+
+    public List<RecipientChunk> getRecipientChunks() {
+        return recipientChunks;
+    }
+
+    public void setRecipientChunks(List<RecipientChunk> recipientChunks) {
+        this.recipientChunks = recipientChunks;
+    }
+
+    public String getSendAttemptId() {
+        return sendAttemptId;
+    }
+
+    public void setSendAttemptId(String sendAttemptId) {
+        this.sendAttemptId = sendAttemptId;
+    }
+
+    public String getSendingOwner() {
+        return sendingOwner;
+    }
+
+    public void setSendingOwner(String sendingOwner) {
+        this.sendingOwner = sendingOwner;
+    }
+
+    public Date getSendingLeaseUntil() {
+        return sendingLeaseUntil;
+    }
+
+    public void setSendingLeaseUntil(Date sendingLeaseUntil) {
+        this.sendingLeaseUntil = sendingLeaseUntil;
+    }
+
+    public String getClaimToken() {
+        return claimToken;
+    }
+
+    public void setClaimToken(String claimToken) {
+        this.claimToken = claimToken;
+    }
+
+    public String getCronExpression() {
+        return cronExpression;
+    }
+
+    public void setCronExpression(String cronExpression) {
+        this.cronExpression = cronExpression;
+    }
+
+    public String getTimeZone() {
+        return timeZone;
+    }
+
+    public void setTimeZone(String timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    public Date getRecurrenceEndAt() {
+        return recurrenceEndAt;
+    }
+
+    public void setRecurrenceEndAt(Date recurrenceEndAt) {
+        this.recurrenceEndAt = recurrenceEndAt;
+    }
+
+    public Date getNextFireAt() {
+        return nextFireAt;
+    }
+
+    public void setNextFireAt(Date nextFireAt) {
+        this.nextFireAt = nextFireAt;
+    }
+
+    public Date getLastFiredAt() {
+        return lastFiredAt;
+    }
+
+    public void setLastFiredAt(Date lastFiredAt) {
+        this.lastFiredAt = lastFiredAt;
+    }
+
+    public Integer getFireCount() {
+        return fireCount;
+    }
+
+    public void setFireCount(Integer fireCount) {
+        this.fireCount = fireCount;
+    }
+
+    public Map<String, String> getVariables() {
+        return variables;
+    }
+
+    public void setVariables(Map<String, String> variables) {
+        this.variables = variables;
+    }
+
+    public Map<String, String> getDataSources() {
+        return dataSources;
+    }
+
+    public void setDataSources(Map<String, String> dataSources) {
+        this.dataSources = dataSources;
+    }
+
     @Override
     public String toString() {
         return "Email{" +
@@ -137,6 +331,26 @@ public class Email {
                 ", status='" + status + '\'' +
                 ", errorMessage='" + errorMessage + '\'' +
                 ", attachments=" + attachments +
+                ", campaign=" + campaign +
+                ", queuedCount=" + queuedCount +
+                ", sentCount=" + sentCount +
+                ", failedCount=" + failedCount +
+                ", retryCount=" + retryCount +
+                ", nextAttemptAt=" + nextAttemptAt +
+                ", failureClass='" + failureClass + '\'' +
+                ", recipientChunks=" + (recipientChunks == null ? 0 : recipientChunks.size()) +
+                ", sendAttemptId='" + sendAttemptId + '\'' +
+                ", sendingOwner='" + sendingOwner + '\'' +
+                ", sendingLeaseUntil=" + sendingLeaseUntil +
+                ", claimToken='" + claimToken + '\'' +
+                ", cronExpression='" + cronExpression + '\'' +
+                ", timeZone='" + timeZone + '\'' +
+                ", recurrenceEndAt=" + recurrenceEndAt +
+                ", nextFireAt=" + nextFireAt +
+                ", lastFiredAt=" + lastFiredAt +
+                ", fireCount=" + fireCount +
+                ", variables=" + variables +
+                ", dataSources=" + dataSources +
                 '}';
     }
 }
@@ -0,0 +1,115 @@
+package com.citi.custody.entity;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * One firing of a recurring Email. The content and recipients stay on the Email; this only records the delivery.
+ */
+@Document(collection = "email_execution")
+@CompoundIndex(name = "email_scheduledFor_unique", def = "{'emailId': 1, 'scheduledFor': -1}", unique = true)
+public class EmailExecution {
+    @Id
+    private String id; // also the idempotency key used in the Message-ID of this firing
+    private String emailId; // Reference to the recurring Email
+    private Date scheduledFor; // occurrence of the cron schedule this firing belongs to
+    private Date firedAt;
+    private Date finishTime;
+    private String owner; // instance that fired it
+    private String status; // QUEUED, SENDING, SENT, PARTIALLY_SENT, FAILED, MISFIRED
+    private Integer sentChunks;
+    private Integer failedChunks;
+    private String errorMessage;
+    private String failureClass; // TRANSIENT, PERMANENT
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getEmailId() {
+        return emailId;
+    }
+
+    public void setEmailId(String emailId) {
+        this.emailId = emailId;
+    }
+
+    public Date getScheduledFor() {
+        return scheduledFor;
+    }
+
+    public void setScheduledFor(Date scheduledFor) {
+        this.scheduledFor = scheduledFor;
+    }
+
+    public Date getFiredAt() {
+        return firedAt;
+    }
+
+    public void setFiredAt(Date firedAt) {
+        this.firedAt = firedAt;
+    }
+
+    public Date getFinishTime() {
+        return finishTime;
+    }
+
+    public void setFinishTime(Date finishTime) {
+        this.finishTime = finishTime;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Integer getSentChunks() {
+        return sentChunks;
+    }
+
+    public void setSentChunks(Integer sentChunks) {
+        this.sentChunks = sentChunks;
+    }
+
+    public Integer getFailedChunks() {
+        return failedChunks;
+    }
+
+    public void setFailedChunks(Integer failedChunks) {
+        this.failedChunks = failedChunks;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public String getFailureClass() {
+        return failureClass;
+    }
+
+    public void setFailureClass(String failureClass) {
+        this.failureClass = failureClass;
+    }
+}
@@ -3,7 +3,12 @@ package com.citi.custody.entity;
 public class FilterParams {
     private int page;
     private int size;
+    // 文件名前缀, 不区分大小写; 不是包含匹配
     private String name;
+    // 列表默认只返回元数据, 需要模板内容时才设为true
+    private boolean includeContent;
+    // 不为null时按(updateTime, _id)做keyset分页, 空字符串表示第一页; 此时忽略page
+    private String cursor;
 
     public int getPage() {
         return page;
@@ -29,12 +34,30 @@ public class FilterParams {
         this.name = name;
     }
 
+    public boolean isIncludeContent() {
+        return includeContent;
+    }
+
+    public void setIncludeContent(boolean includeContent) {
+        this.includeContent = includeContent;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
     @Override
     public String toString() {
         return "FilterParams{" +
                 "page=" + page +
                 ", size=" + size +
                 ", name='" + name + '\'' +
+                ", includeContent=" + includeContent +
+                ", cursor='" + cursor + '\'' +
                 '}';
     }
 }
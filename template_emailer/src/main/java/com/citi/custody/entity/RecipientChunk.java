@@ -0,0 +1,86 @@
+package com.citi.custody.entity;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * One SMTP envelope of an email whose recipient list was split into chunks; embedded in {@link Email}.
+ */
+public class RecipientChunk {
+    private int index;
+    private List<String> to;
+    private List<String> cc;
+    private String status; // PENDING, SENT, FAILED
+    private String errorMessage;
+    private String failureClass; // TRANSIENT, PERMANENT
+    private Date sentTime;
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public List<String> getTo() {
+        return to;
+    }
+
+    public void setTo(List<String> to) {
+        this.to = to;
+    }
+
+    public List<String> getCc() {
+        return cc;
+    }
+
+    public void setCc(List<String> cc) {
+        this.cc = cc;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public String getFailureClass() {
+        return failureClass;
+    }
+
+    public void setFailureClass(String failureClass) {
+        this.failureClass = failureClass;
+    }
+
+    public Date getSentTime() {
+        return sentTime;
+    }
+
+    public void setSentTime(Date sentTime) {
+        this.sentTime = sentTime;
+    }
+
+    @Override
+    public String toString() {
+        return "RecipientChunk{" +
+                "index=" + index +
+                ", to=" + (to == null ? 0 : to.size()) +
+                ", cc=" + (cc == null ? 0 : cc.size()) +
+                ", status='" + status + '\'' +
+                ", errorMessage='" + errorMessage + '\'' +
+                ", failureClass='" + failureClass + '\'' +
+                ", sentTime=" + sentTime +
+                '}';
+    }
+}
@@ -0,0 +1,129 @@
+package com.citi.custody.entity;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * In-memory record of an asynchronous send request submitted through POST /email/send/{id}.
+ * <p>
+ * The send worker and the deferral thread update a job while GET /email/send-jobs/{jobId} reads it, so the
+ * fields that change after submission are volatile. The identifying fields are set before the job is queued.
+ * {@code result} is always replaced by a new map, never modified in place.
+ */
+public class SendJob {
+    private String jobId;
+    private String emailId;
+    private int emailCount;
+    private volatile String status; // QUEUED, RUNNING, DEFERRED, COMPLETED, FAILED, SKIPPED (not claimed, nothing sent)
+    private volatile String emailStatus;
+    private volatile String errorMessage;
+    private volatile int deferCount;
+    private Date submitTime;
+    private volatile Date startTime;
+    private volatile Date finishTime;
+    private volatile Map<String, Object> result; // batch summary, see EmailSenderService.sendBatch
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getEmailId() {
+        return emailId;
+    }
+
+    public void setEmailId(String emailId) {
+        this.emailId = emailId;
+    }
+
+    public int getEmailCount() {
+        return emailCount;
+    }
+
+    public void setEmailCount(int emailCount) {
+        this.emailCount = emailCount;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getEmailStatus() {
+        return emailStatus;
+    }
+
+    public void setEmailStatus(String emailStatus) {
+        this.emailStatus = emailStatus;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public int getDeferCount() {
+        return deferCount;
+    }
+
+    public void setDeferCount(int deferCount) {
+        this.deferCount = deferCount;
+    }
+
+    public Date getSubmitTime() {
+        return submitTime;
+    }
+
+    public void setSubmitTime(Date submitTime) {
+        this.submitTime = submitTime;
+    }
+
+    public Date getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(Date startTime) {
+        this.startTime = startTime;
+    }
+
+    public Date getFinishTime() {
+        return finishTime;
+    }
+
+    public void setFinishTime(Date finishTime) {
+        this.finishTime = finishTime;
+    }
+
+    public Map<String, Object> getResult() {
+        return result;
+    }
+
+    public void setResult(Map<String, Object> result) {
+        this.result = result;
+    }
+
+    @Override
+    public String toString() {
+        return "SendJob{" +
+                "jobId='" + jobId + '\'' +
+                ", emailId='" + emailId + '\'' +
+                ", emailCount=" + emailCount +
+                ", status='" + status + '\'' +
+                ", emailStatus='" + emailStatus + '\'' +
+                ", errorMessage='" + errorMessage + '\'' +
+                ", deferCount=" + deferCount +
+                ", submitTime=" + submitTime +
+                ", startTime=" + startTime +
+                ", finishTime=" + finishTime +
+                '}';
+    }
+}
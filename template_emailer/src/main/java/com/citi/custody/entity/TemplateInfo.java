@@ -9,6 +9,7 @@ public class TemplateInfo {
     private String filename;
     private String updateBy;
     private Date updateTime;
+    private Long size;
     private String content;
 
     public String getId() {
@@ -43,6 +44,17 @@ public class TemplateInfo {
         this.updateTime = updateTime;
     }
 
+    /**
+     * Length of the template JSON in bytes, as stored in GridFS.
+     */
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
     public String getContent() {
         return content;
     }
@@ -67,6 +79,7 @@ public class TemplateInfo {
                 ", filename='" + filename + '\'' +
                 ", updateBy='" + updateBy + '\'' +
                 ", updateTime=" + updateTime +
+                ", size=" + size +
                 ", content='" + (content != null ? "[CONTENT]" : "null") + '\'' +
                 '}';
     }
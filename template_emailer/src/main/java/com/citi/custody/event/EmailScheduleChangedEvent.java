@@ -0,0 +1,30 @@
+package com.citi.custody.event;
+
+import java.util.Date;
+
+/**
+ * Published after an email was saved with a new status or send time, so the in-memory schedule can follow.
+ */
+public class EmailScheduleChangedEvent {
+    private final String emailId;
+    private final String status;
+    private final Date sentTime;
+
+    public EmailScheduleChangedEvent(String emailId, String status, Date sentTime) {
+        this.emailId = emailId;
+        this.status = status;
+        this.sentTime = sentTime;
+    }
+
+    public String getEmailId() {
+        return emailId;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public Date getSentTime() {
+        return sentTime;
+    }
+}
@@ -0,0 +1,123 @@
+package com.citi.custody.mail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Non-blocking token bucket whose refill rate adapts to the relay: additive increase after each
+ * accepted message, multiplicative decrease when the relay answers with a temporary (4xx) failure.
+ */
+public class AdaptiveRateLimiter {
+    private final String name;
+    private final double minRate;
+    private final double maxRate;
+    private final double burst;
+    private final double increaseStep;
+    private final double decreaseFactor;
+
+    private double rate;
+    private double tokens;
+    private long lastRefillNanos;
+
+    private long acquired;
+    private long rejected;
+    private long throttled;
+    private long lastThrottleTime;
+
+    public AdaptiveRateLimiter(String name, double initialRate, double minRate, double maxRate, double burst,
+                               double increaseStep, double decreaseFactor) {
+        this.name = name;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.burst = Math.max(1, burst);
+        this.increaseStep = increaseStep;
+        this.decreaseFactor = decreaseFactor;
+        this.rate = Math.max(minRate, Math.min(maxRate, initialRate));
+        this.tokens = this.burst;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * Takes the given number of tokens if they are available right now; never waits.
+     */
+    public synchronized boolean tryAcquire(int permits) {
+        refill();
+        if (tokens >= permits) {
+            tokens -= permits;
+            acquired += permits;
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Takes as many whole tokens as are available right now, up to the given maximum.
+     *
+     * @return number of tokens granted, possibly 0
+     */
+    public synchronized int tryAcquireUpTo(int maxPermits) {
+        refill();
+        int granted = (int) Math.min(maxPermits, Math.floor(tokens));
+        if (granted > 0) {
+            tokens -= granted;
+            acquired += granted;
+        } else {
+            rejected++;
+        }
+        return granted;
+    }
+
+    /**
+     * Milliseconds until the given number of tokens will be available at the current rate.
+     */
+    public synchronized long millisUntilAvailable(int permits) {
+        refill();
+        double missing = Math.min(permits, burst) - tokens;
+        if (missing <= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(missing / rate * 1000);
+    }
+
+    public synchronized void onSuccess() {
+        rate = Math.min(maxRate, rate + increaseStep);
+    }
+
+    /**
+     * The relay deferred a message: cut the rate and drain the bucket so the next sends back off.
+     */
+    public synchronized void onThrottle() {
+        refill();
+        rate = Math.max(minRate, rate * decreaseFactor);
+        tokens = 0;
+        throttled++;
+        lastThrottleTime = System.currentTimeMillis();
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        refill();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("name", name);
+        stats.put("ratePerSecond", Math.round(rate * 100) / 100.0);
+        stats.put("minRatePerSecond", minRate);
+        stats.put("maxRatePerSecond", maxRate);
+        stats.put("burst", burst);
+        stats.put("availableTokens", Math.round(tokens * 100) / 100.0);
+        stats.put("acquired", acquired);
+        stats.put("rejected", rejected);
+        stats.put("throttled", throttled);
+        stats.put("lastThrottleTime", lastThrottleTime == 0 ? null : lastThrottleTime);
+        return stats;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - lastRefillNanos) / 1_000_000_000.0 * rate);
+        lastRefillNanos = now;
+    }
+}
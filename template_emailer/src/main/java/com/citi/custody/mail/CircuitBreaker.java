@@ -0,0 +1,166 @@
+package com.citi.custody.mail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Count-based circuit breaker for one SMTP relay. The last {@code windowSize} calls are kept in a ring;
+ * once at least {@code minimumCalls} have been recorded, the breaker opens when either the failure rate
+ * or the slow-call rate reaches its threshold. After {@code openDurationMillis} a single probe call is
+ * let through (HALF_OPEN): success closes the breaker, failure opens it again.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int windowSize;
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallMillis;
+    private final long openDurationMillis;
+
+    private final boolean[] failures;
+    private final boolean[] slowCalls;
+    private int next;
+    private int recorded;
+    private int failureCount;
+    private int slowCount;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long timesOpened;
+
+    public CircuitBreaker(String name, int windowSize, int minimumCalls, double failureRateThreshold,
+                          double slowCallRateThreshold, long slowCallMillis, long openDurationMillis) {
+        this.name = name;
+        this.windowSize = Math.max(1, windowSize);
+        this.minimumCalls = Math.max(1, Math.min(minimumCalls, this.windowSize));
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.slowCallMillis = slowCallMillis;
+        this.openDurationMillis = openDurationMillis;
+        this.failures = new boolean[this.windowSize];
+        this.slowCalls = new boolean[this.windowSize];
+    }
+
+    /**
+     * True if a call may go to this relay now. In HALF_OPEN only one probe is admitted at a time.
+     */
+    public synchronized boolean tryAcquirePermission() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() - openedAt < openDurationMillis) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                return false;
+            }
+            probeInFlight = true;
+        }
+        return true;
+    }
+
+    /**
+     * Like {@link #tryAcquirePermission()} but without taking the HALF_OPEN probe; used to pick a relay ahead of the call.
+     */
+    public synchronized boolean isCallPermitted() {
+        if (state == State.OPEN) {
+            return System.currentTimeMillis() - openedAt >= openDurationMillis;
+        }
+        return state != State.HALF_OPEN || !probeInFlight;
+    }
+
+    public synchronized void onSuccess(long elapsedMillis) {
+        boolean slow = elapsedMillis >= slowCallMillis;
+        if (state == State.HALF_OPEN) {
+            if (slow) {
+                open();
+            } else {
+                close();
+            }
+            return;
+        }
+        record(false, slow);
+    }
+
+    public synchronized void onFailure(long elapsedMillis) {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        record(true, elapsedMillis >= slowCallMillis);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("name", name);
+        stats.put("state", state.name());
+        stats.put("windowCalls", recorded);
+        stats.put("failureRate", recorded == 0 ? 0 : Math.round(failureCount * 1000.0 / recorded) / 1000.0);
+        stats.put("slowCallRate", recorded == 0 ? 0 : Math.round(slowCount * 1000.0 / recorded) / 1000.0);
+        stats.put("timesOpened", timesOpened);
+        stats.put("openedAt", openedAt == 0 ? null : openedAt);
+        return stats;
+    }
+
+    private void record(boolean failed, boolean slow) {
+        if (recorded == windowSize) {
+            if (failures[next]) {
+                failureCount--;
+            }
+            if (slowCalls[next]) {
+                slowCount--;
+            }
+        } else {
+            recorded++;
+        }
+        failures[next] = failed;
+        slowCalls[next] = slow;
+        if (failed) {
+            failureCount++;
+        }
+        if (slow) {
+            slowCount++;
+        }
+        next = (next + 1) % windowSize;
+
+        if (state == State.CLOSED && recorded >= minimumCalls
+                && ((double) failureCount / recorded >= failureRateThreshold
+                || (double) slowCount / recorded >= slowCallRateThreshold)) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        probeInFlight = false;
+        timesOpened++;
+        resetWindow();
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        probeInFlight = false;
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        next = 0;
+        recorded = 0;
+        failureCount = 0;
+        slowCount = 0;
+        Arrays.fill(failures, false);
+        Arrays.fill(slowCalls, false);
+    }
+}
@@ -0,0 +1,12 @@
+package com.citi.custody.mail;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes the HTML of a template for one set of variables, e.g. a render plan or a prepared streaming render.
+ */
+public interface HtmlWriter {
+    void write(Writer out, Map<String, ?> variables) throws IOException;
+}
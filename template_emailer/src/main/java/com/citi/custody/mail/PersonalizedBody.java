@@ -0,0 +1,84 @@
+package com.citi.custody.mail;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeUtility;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Encoded message body for templates with placeholders. Everything except the HTML part (headers,
+ * inline images, attachments, multipart boundaries) is encoded once; filling one recipient only renders
+ * the HTML with their variables and quoted-printable encodes it between the two pre-encoded halves.
+ */
+public class PersonalizedBody {
+    public static final String TRANSFER_ENCODING = "quoted-printable";
+
+    private final byte[] prefix;
+    private final byte[] suffix;
+    private final HtmlWriter html;
+    private volatile int expectedHtmlBytes;
+
+    /**
+     * @param skeleton encoded message whose HTML part is {@code marker}, encoded with {@link #TRANSFER_ENCODING}
+     */
+    public PersonalizedBody(byte[] skeleton, String marker, HtmlWriter html) throws MessagingException {
+        byte[] markerBytes = marker.getBytes(StandardCharsets.US_ASCII);
+        int at = indexOf(skeleton, markerBytes);
+        if (at < 0 || indexOf(skeleton, markerBytes, at + 1) >= 0) {
+            throw new MessagingException("Personalized body marker not found exactly once in the encoded message");
+        }
+        this.prefix = Arrays.copyOfRange(skeleton, 0, at);
+        this.suffix = Arrays.copyOfRange(skeleton, at + markerBytes.length, skeleton.length);
+        this.html = html;
+    }
+
+    /**
+     * Encoded message for one recipient.
+     */
+    public byte[] fill(Map<String, ?> variables) throws MessagingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(prefix.length + suffix.length + expectedHtmlBytes);
+        try {
+            out.write(prefix);
+            OutputStream encoded = MimeUtility.encode(out, TRANSFER_ENCODING);
+            Writer writer = new OutputStreamWriter(encoded, StandardCharsets.UTF_8);
+            html.write(writer, variables);
+            writer.flush();
+            out.write(suffix);
+        } catch (IOException e) {
+            throw new MessagingException("Failed to render personalized body: " + e.getMessage(), e);
+        }
+        // 下一位收件人的缓冲区按本次大小预分配, 避免反复扩容
+        expectedHtmlBytes = out.size() - prefix.length - suffix.length;
+        return out.toByteArray();
+    }
+
+    /**
+     * Bytes held by the encoded halves, used to weigh the body in the cache.
+     */
+    public int getEncodedLength() {
+        return prefix.length + suffix.length;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        return indexOf(data, pattern, 0);
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
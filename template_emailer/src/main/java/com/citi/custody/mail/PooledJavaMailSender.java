@@ -0,0 +1,123 @@
+package com.citi.custody.mail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.lang.Nullable;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@link JavaMailSenderImpl} that sends over pooled, persistent SMTP connections instead of opening
+ * and closing a transport for every {@code send} call. Callers keep using the plain
+ * {@link org.springframework.mail.javamail.JavaMailSender} interface.
+ */
+public class PooledJavaMailSender extends JavaMailSenderImpl implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(PooledJavaMailSender.class);
+
+    private static final String HEADER_MESSAGE_ID = "Message-ID";
+
+    private SmtpTransportPool pool;
+
+    /**
+     * Creates the connection pool; must be called after host, port and credentials are set.
+     */
+    public void initPool(int maxTotal, long maxWaitMillis, long idleTimeoutMillis, long keepAliveIntervalMillis,
+                         int maxMessagesPerConnection) {
+        this.pool = new SmtpTransportPool(getHost() + ":" + getPort(), this::connectTransport, maxTotal,
+                maxWaitMillis, idleTimeoutMillis, keepAliveIntervalMillis, maxMessagesPerConnection);
+    }
+
+    public SmtpTransportPool getPool() {
+        return pool;
+    }
+
+    @Override
+    protected void doSend(MimeMessage[] mimeMessages, @Nullable Object[] originalMessages) throws MailException {
+        if (pool == null) {
+            super.doSend(mimeMessages, originalMessages);
+            return;
+        }
+
+        Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        SmtpTransportPool.PooledTransport pooled = null;
+        try {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                if (pooled == null) {
+                    try {
+                        pooled = pool.borrow();
+                    } catch (AuthenticationFailedException ex) {
+                        throw new MailAuthenticationException(ex);
+                    } catch (Exception ex) {
+                        // Effectively, all remaining messages failed
+                        for (int j = i; j < mimeMessages.length; j++) {
+                            Object original = (originalMessages != null ? originalMessages[j] : mimeMessages[j]);
+                            failedMessages.put(original, ex);
+                        }
+                        throw new MailSendException("Mail server connection failed", ex, failedMessages);
+                    }
+                }
+
+                MimeMessage mimeMessage = mimeMessages[i];
+                try {
+                    if (mimeMessage.getSentDate() == null) {
+                        mimeMessage.setSentDate(new Date());
+                    }
+                    String messageId = mimeMessage.getMessageID();
+                    mimeMessage.saveChanges();
+                    if (messageId != null) {
+                        // Preserve explicitly specified message id
+                        mimeMessage.setHeader(HEADER_MESSAGE_ID, messageId);
+                    }
+                    Address[] addresses = mimeMessage.getAllRecipients();
+                    pooled.getTransport().sendMessage(mimeMessage, (addresses != null ? addresses : new Address[0]));
+                    pool.recordSent(pooled);
+                } catch (Exception ex) {
+                    Object original = (originalMessages != null ? originalMessages[i] : mimeMessage);
+                    failedMessages.put(original, ex);
+                    // A rejected message leaves the session usable; a dropped connection does not
+                    if (!pooled.getTransport().isConnected()) {
+                        pool.invalidate(pooled);
+                        pooled = null;
+                    }
+                }
+            }
+        } finally {
+            if (pooled != null) {
+                pool.release(pooled);
+            }
+        }
+
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    @Override
+    public void testConnection() throws MessagingException {
+        if (pool == null) {
+            super.testConnection();
+            return;
+        }
+        SmtpTransportPool.PooledTransport pooled = pool.borrow();
+        pool.release(pooled);
+    }
+
+    @Override
+    public void destroy() {
+        if (pool != null) {
+            logger.info("Closing SMTP connection pool for {}:{}", getHost(), getPort());
+            pool.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.citi.custody.mail;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Capped exponential backoff with jitter for automatic send retries.
+ * The n-th retry waits a random time between half and all of min(maxDelay, baseDelay * 2^n),
+ * so a burst of failures from one relay outage does not come back as a burst.
+ */
+@Component
+public class RetryPolicy {
+
+    @Value("${email.retry.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${email.retry.base-delay-ms:30000}")
+    private long baseDelayMillis;
+
+    @Value("${email.retry.max-delay-ms:1800000}")
+    private long maxDelayMillis;
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * True while the email still has automatic retries left.
+     */
+    public boolean canRetry(int retryCount) {
+        return retryCount < maxAttempts;
+    }
+
+    public long delayMillis(int retryCount) {
+        int shift = Math.min(retryCount, 30);
+        long capped = Math.min(maxDelayMillis, baseDelayMillis * (1L << shift));
+        long half = capped / 2;
+        return half + ThreadLocalRandom.current().nextLong(capped - half + 1);
+    }
+
+    public Date nextAttemptAt(int retryCount) {
+        return new Date(System.currentTimeMillis() + delayMillis(retryCount));
+    }
+}
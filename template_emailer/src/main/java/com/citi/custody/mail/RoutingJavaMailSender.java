@@ -0,0 +1,242 @@
+package com.citi.custody.mail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.lang.Nullable;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link JavaMailSenderImpl} front for several SMTP relays. Each send picks a relay at random in
+ * proportion to its weight, skipping relays whose circuit breaker is open. Messages that fail on a
+ * relay for a transient reason (connection, timeout, 4xx) are tried once more on each remaining relay;
+ * permanent rejections (5xx) are returned to the caller straight away.
+ * <p>
+ * Rate limits are per relay. Callers that pace themselves pick the relay first with {@link #selectRelay()}, take
+ * permits from its limiter and send with {@link #send(SmtpRelay, MimeMessage...)}; a failover to another relay
+ * takes that relay's permits here. Every relay's limiter learns from the results of the calls made on it.
+ */
+public class RoutingJavaMailSender extends JavaMailSenderImpl implements DisposableBean {
+    private static final Logger logger = LoggerFactory.getLogger(RoutingJavaMailSender.class);
+
+    private final List<SmtpRelay> relays;
+    private final SmtpRateLimiterRegistry rateLimiterRegistry;
+
+    public RoutingJavaMailSender(List<SmtpRelay> relays, SmtpRateLimiterRegistry rateLimiterRegistry) {
+        this.relays = Collections.unmodifiableList(new ArrayList<>(relays));
+        this.rateLimiterRegistry = rateLimiterRegistry;
+    }
+
+    public List<SmtpRelay> getRelays() {
+        return relays;
+    }
+
+    public List<Map<String, Object>> getRelayStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (SmtpRelay relay : relays) {
+            stats.add(relay.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * The relay the next send should use, weighted like the routing itself; null if every breaker is open.
+     * Does not take a breaker permission, so a relay that is then left unused is not blocked.
+     */
+    @Nullable
+    public SmtpRelay selectRelay() {
+        List<SmtpRelay> candidates = new ArrayList<>();
+        for (SmtpRelay relay : relays) {
+            if (relay.getCircuitBreaker().isCallPermitted()) {
+                candidates.add(relay);
+            }
+        }
+        return candidates.isEmpty() ? null : pickWeighted(candidates);
+    }
+
+    public AdaptiveRateLimiter getRateLimiter(SmtpRelay relay) {
+        return rateLimiterRegistry.forRelay(relay);
+    }
+
+    /**
+     * Sends on the given relay, whose permits the caller already holds. Messages that fail there for a transient
+     * reason go to the other relays like any send, but only to relays whose limiter has permits for them.
+     */
+    public void send(SmtpRelay relay, MimeMessage... mimeMessages) throws MailException {
+        doSend(relay, mimeMessages, null);
+    }
+
+    @Override
+    protected void doSend(MimeMessage[] mimeMessages, @Nullable Object[] originalMessages) throws MailException {
+        doSend(null, mimeMessages, originalMessages);
+    }
+
+    private void doSend(@Nullable SmtpRelay first, MimeMessage[] mimeMessages, @Nullable Object[] originalMessages)
+            throws MailException {
+        Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        Map<Integer, Exception> lastFailures = new HashMap<>();
+        Set<SmtpRelay> tried = new HashSet<>();
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < mimeMessages.length; i++) {
+            pending.add(i);
+        }
+
+        while (!pending.isEmpty()) {
+            SmtpRelay relay;
+            if (first != null && tried.add(first) && first.getCircuitBreaker().tryAcquirePermission()) {
+                relay = first;
+            } else {
+                // 调用方自行限流时, 故障转移到的中继也要先拿到它自己的令牌
+                relay = chooseRelay(tried, first != null ? pending.size() : 0);
+            }
+            if (relay == null) {
+                for (int index : pending) {
+                    Exception failure = lastFailures.get(index);
+                    failedMessages.put(original(mimeMessages, originalMessages, index),
+                            failure != null ? failure : new MessagingException("No SMTP relay available"));
+                }
+                break;
+            }
+            tried.add(relay);
+
+            MimeMessage[] batch = new MimeMessage[pending.size()];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = mimeMessages[pending.get(i)];
+            }
+
+            Map<Object, Exception> relayFailures = Collections.emptyMap();
+            Exception relayFailure = null;
+            long start = System.currentTimeMillis();
+            try {
+                relay.getSender().send(batch);
+            } catch (MailAuthenticationException e) {
+                // Wrong credentials on this relay is the relay's problem; another relay may accept them
+                relayFailure = e;
+            } catch (MailSendException e) {
+                relayFailures = e.getFailedMessages();
+                if (relayFailures.isEmpty()) {
+                    relayFailure = e;
+                }
+            } catch (MailException e) {
+                relayFailure = e;
+            }
+            long latency = (System.currentTimeMillis() - start) / batch.length;
+
+            AdaptiveRateLimiter limiter = rateLimiterRegistry.forRelay(relay);
+            boolean throttled = false;
+            List<Integer> retry = new ArrayList<>();
+            for (int i = 0; i < batch.length; i++) {
+                int index = pending.get(i);
+                Exception failure = relayFailure != null ? relayFailure : relayFailures.get(batch[i]);
+                if (failure == null) {
+                    relay.recordSent(latency);
+                    limiter.onSuccess();
+                    continue;
+                }
+                throttled |= SmtpFailures.isThrottled(failure);
+                if (relayFailure != null || SmtpFailures.TRANSIENT.equals(SmtpFailures.classify(failure))) {
+                    relay.recordFailed(latency);
+                    lastFailures.put(index, failure);
+                    retry.add(index);
+                } else {
+                    relay.recordRejected(latency);
+                    failedMessages.put(original(mimeMessages, originalMessages, index), failure);
+                }
+            }
+            if (throttled) {
+                limiter.onThrottle();
+            }
+            if (!retry.isEmpty()) {
+                logger.warn("{} of {} messages failed on relay {}, trying another relay", retry.size(), batch.length,
+                        relay.getName());
+            }
+            pending = retry;
+        }
+
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    @Override
+    public void testConnection() throws MessagingException {
+        MessagingException lastFailure = null;
+        for (SmtpRelay relay : relays) {
+            try {
+                relay.getSender().testConnection();
+                return;
+            } catch (MessagingException e) {
+                lastFailure = e;
+            }
+        }
+        if (lastFailure != null) {
+            throw lastFailure;
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        for (SmtpRelay relay : relays) {
+            if (relay.getSender() instanceof DisposableBean) {
+                ((DisposableBean) relay.getSender()).destroy();
+            }
+        }
+    }
+
+    /**
+     * Weighted random choice among relays not tried yet whose breaker admits a call, or null if none does.
+     * With {@code permits > 0} the relay must also grant that many permits from its rate limiter.
+     */
+    private SmtpRelay chooseRelay(Set<SmtpRelay> tried, int permits) {
+        List<SmtpRelay> candidates = new ArrayList<>();
+        for (SmtpRelay relay : relays) {
+            if (!tried.contains(relay)) {
+                candidates.add(relay);
+            }
+        }
+        while (!candidates.isEmpty()) {
+            SmtpRelay chosen = pickWeighted(candidates);
+            // 先取令牌再取熔断许可: 令牌不足时不会占住HALF_OPEN的探测名额
+            if ((permits == 0 || rateLimiterRegistry.forRelay(chosen).tryAcquire(permits))
+                    && chosen.getCircuitBreaker().tryAcquirePermission()) {
+                return chosen;
+            }
+            candidates.remove(chosen);
+        }
+        return null;
+    }
+
+    private SmtpRelay pickWeighted(List<SmtpRelay> candidates) {
+        int totalWeight = 0;
+        for (SmtpRelay relay : candidates) {
+            totalWeight += relay.getWeight();
+        }
+        int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (SmtpRelay relay : candidates) {
+            pick -= relay.getWeight();
+            if (pick < 0) {
+                return relay;
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    private Object original(MimeMessage[] mimeMessages, @Nullable Object[] originalMessages, int index) {
+        return originalMessages != null ? originalMessages[index] : mimeMessages[index];
+    }
+}
@@ -0,0 +1,108 @@
+package com.citi.custody.mail;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+import com.sun.mail.util.MailConnectException;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+import org.springframework.mail.MailSendException;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.internet.AddressException;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Helpers for reading SMTP reply codes out of JavaMail / Spring mail exceptions.
+ */
+public class SmtpFailures {
+    public static final String TRANSIENT = "TRANSIENT";
+    public static final String PERMANENT = "PERMANENT";
+
+    private static final Pattern REPLY_CODE = Pattern.compile("^\\s*([2-5]\\d\\d)[\\s-]");
+
+    private SmtpFailures() {
+    }
+
+    /**
+     * Finds the SMTP reply code carried by the exception or any of its causes, or -1 if there is none.
+     */
+    public static int replyCode(Throwable throwable) {
+        int depth = 0;
+        Throwable current = throwable;
+        while (current != null && depth++ < 10) {
+            if (current instanceof SMTPSendFailedException) {
+                return ((SMTPSendFailedException) current).getReturnCode();
+            }
+            if (current instanceof SMTPAddressFailedException) {
+                return ((SMTPAddressFailedException) current).getReturnCode();
+            }
+            if (current instanceof SMTPSenderFailedException) {
+                return ((SMTPSenderFailedException) current).getReturnCode();
+            }
+            if (current instanceof MailSendException) {
+                for (Exception nested : ((MailSendException) current).getMessageExceptions()) {
+                    int code = replyCode(nested);
+                    if (code > 0) {
+                        return code;
+                    }
+                }
+            }
+            if (current.getMessage() != null) {
+                Matcher matcher = REPLY_CODE.matcher(current.getMessage());
+                if (matcher.find()) {
+                    return Integer.parseInt(matcher.group(1));
+                }
+            }
+            Throwable next = current instanceof MessagingException ? ((MessagingException) current).getNextException() : null;
+            current = next != null ? next : current.getCause();
+        }
+        return -1;
+    }
+
+    /**
+     * True when the relay answered with a 4xx temporary failure, i.e. it is throttling or deferring us.
+     */
+    public static boolean isThrottled(Throwable throwable) {
+        int code = replyCode(throwable);
+        return code >= 400 && code < 500;
+    }
+
+    /**
+     * Decides whether a send failure is worth retrying automatically.
+     * 4xx replies, connection problems and I/O errors are TRANSIENT; 5xx replies, bad addresses,
+     * authentication failures and messages that could not be built are PERMANENT.
+     * Anything unrecognised is treated as TRANSIENT, the retry limit keeps it bounded.
+     */
+    public static String classify(Throwable throwable) {
+        int code = replyCode(throwable);
+        if (code >= 500) {
+            return PERMANENT;
+        }
+        if (code >= 400) {
+            return TRANSIENT;
+        }
+        int depth = 0;
+        Throwable current = throwable;
+        while (current != null && depth++ < 10) {
+            if (current instanceof MailAuthenticationException || current instanceof AuthenticationFailedException
+                    || current instanceof MailParseException || current instanceof MailPreparationException
+                    || current instanceof AddressException) {
+                return PERMANENT;
+            }
+            if (current instanceof MailConnectException || current instanceof IOException) {
+                return TRANSIENT;
+            }
+            if (current instanceof MailSendException && ((MailSendException) current).getMessageExceptions().length > 0) {
+                return classify(((MailSendException) current).getMessageExceptions()[0]);
+            }
+            Throwable next = current instanceof MessagingException ? ((MessagingException) current).getNextException() : null;
+            current = next != null ? next : current.getCause();
+        }
+        return TRANSIENT;
+    }
+}
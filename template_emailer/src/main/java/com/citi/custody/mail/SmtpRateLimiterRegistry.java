@@ -0,0 +1,53 @@
+package com.citi.custody.mail;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One {@link AdaptiveRateLimiter} per SMTP relay (host:port), created on first use with the configured limits.
+ */
+@Component
+public class SmtpRateLimiterRegistry {
+
+    @Value("${email.smtp.rate.initial-per-second:5}")
+    private double initialRate;
+
+    @Value("${email.smtp.rate.min-per-second:0.2}")
+    private double minRate;
+
+    @Value("${email.smtp.rate.max-per-second:20}")
+    private double maxRate;
+
+    @Value("${email.smtp.rate.burst:10}")
+    private double burst;
+
+    @Value("${email.smtp.rate.increase-step:0.05}")
+    private double increaseStep;
+
+    @Value("${email.smtp.rate.decrease-factor:0.5}")
+    private double decreaseFactor;
+
+    private final Map<String, AdaptiveRateLimiter> limiters = new ConcurrentHashMap<>();
+
+    public AdaptiveRateLimiter forRelay(SmtpRelay relay) {
+        return forHost(relay.getName());
+    }
+
+    public AdaptiveRateLimiter forHost(String host) {
+        return limiters.computeIfAbsent(host, key ->
+                new AdaptiveRateLimiter(key, initialRate, minRate, maxRate, burst, increaseStep, decreaseFactor));
+    }
+
+    public List<Map<String, Object>> getStats() {
+        List<Map<String, Object>> stats = new ArrayList<>();
+        for (AdaptiveRateLimiter limiter : limiters.values()) {
+            stats.add(limiter.getStats());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,115 @@
+package com.citi.custody.mail;
+
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One configured SMTP relay: its own sender (and connection pool), routing weight, circuit breaker
+ * and delivery counters.
+ */
+public class SmtpRelay {
+    private static final int THROUGHPUT_WINDOW_SECONDS = 60;
+
+    private final String name;
+    private final int weight;
+    private final JavaMailSenderImpl sender;
+    private final CircuitBreaker circuitBreaker;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalLatencyMillis = new AtomicLong();
+
+    // messages accepted per second over the last minute, indexed by epoch second
+    private final long[] secondBuckets = new long[THROUGHPUT_WINDOW_SECONDS];
+    private final long[] bucketSeconds = new long[THROUGHPUT_WINDOW_SECONDS];
+
+    public SmtpRelay(String name, int weight, JavaMailSenderImpl sender, CircuitBreaker circuitBreaker) {
+        this.name = name;
+        this.weight = Math.max(1, weight);
+        this.sender = sender;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public JavaMailSenderImpl getSender() {
+        return sender;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public void recordSent(long latencyMillis) {
+        sent.incrementAndGet();
+        totalLatencyMillis.addAndGet(latencyMillis);
+        circuitBreaker.onSuccess(latencyMillis);
+        countThroughput();
+    }
+
+    /**
+     * The relay failed the message itself (connection lost, 4xx, timeout): counts against the breaker.
+     */
+    public void recordFailed(long latencyMillis) {
+        failed.incrementAndGet();
+        totalLatencyMillis.addAndGet(latencyMillis);
+        circuitBreaker.onFailure(latencyMillis);
+    }
+
+    /**
+     * The relay answered but refused the message permanently (bad recipient etc.); the relay itself is healthy.
+     */
+    public void recordRejected(long latencyMillis) {
+        rejected.incrementAndGet();
+        totalLatencyMillis.addAndGet(latencyMillis);
+        circuitBreaker.onSuccess(latencyMillis);
+    }
+
+    public Map<String, Object> getStats() {
+        long calls = sent.get() + failed.get() + rejected.get();
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("name", name);
+        stats.put("weight", weight);
+        stats.put("circuitBreaker", circuitBreaker.getStats());
+        stats.put("sent", sent.get());
+        stats.put("failed", failed.get());
+        stats.put("rejected", rejected.get());
+        stats.put("avgLatencyMs", calls == 0 ? 0 : totalLatencyMillis.get() / calls);
+        stats.put("sentLastMinute", sentLastMinute());
+        if (sender instanceof PooledJavaMailSender && ((PooledJavaMailSender) sender).getPool() != null) {
+            stats.put("pool", ((PooledJavaMailSender) sender).getPool().getStats());
+        }
+        return stats;
+    }
+
+    private synchronized void countThroughput() {
+        long second = System.currentTimeMillis() / 1000;
+        int index = (int) (second % THROUGHPUT_WINDOW_SECONDS);
+        if (bucketSeconds[index] != second) {
+            bucketSeconds[index] = second;
+            secondBuckets[index] = 0;
+        }
+        secondBuckets[index]++;
+    }
+
+    private synchronized long sentLastMinute() {
+        long now = System.currentTimeMillis() / 1000;
+        long total = 0;
+        for (int i = 0; i < THROUGHPUT_WINDOW_SECONDS; i++) {
+            if (now - bucketSeconds[i] < THROUGHPUT_WINDOW_SECONDS) {
+                total += secondBuckets[i];
+            }
+        }
+        return total;
+    }
+}
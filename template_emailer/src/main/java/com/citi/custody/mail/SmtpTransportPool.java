@@ -0,0 +1,251 @@
+package com.citi.custody.mail;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.mail.MessagingException;
+import javax.mail.Transport;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of connected SMTP transports so that the TCP, STARTTLS and AUTH handshake is paid once per
+ * connection instead of once per message.
+ * <p>
+ * Idle connections are validated with NOOP (via {@link Transport#isConnected()}) before reuse once they
+ * have been idle longer than the keep-alive interval, evicted after the idle timeout, and retired after
+ * carrying the configured number of messages.
+ */
+public class SmtpTransportPool {
+    private static final Logger logger = LoggerFactory.getLogger(SmtpTransportPool.class);
+
+    /**
+     * Opens a new connected transport.
+     */
+    public interface TransportFactory {
+        Transport connect() throws MessagingException;
+    }
+
+    private final String name;
+    private final TransportFactory factory;
+    private final int maxTotal;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+    private final long keepAliveIntervalMillis;
+    private final int maxMessagesPerConnection;
+
+    private final LinkedBlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService maintenance;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong borrowed = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+
+    public SmtpTransportPool(String name, TransportFactory factory, int maxTotal, long maxWaitMillis,
+                             long idleTimeoutMillis, long keepAliveIntervalMillis, int maxMessagesPerConnection) {
+        this.name = name;
+        this.factory = factory;
+        this.maxTotal = maxTotal;
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.keepAliveIntervalMillis = keepAliveIntervalMillis;
+        this.maxMessagesPerConnection = maxMessagesPerConnection;
+        this.permits = new Semaphore(maxTotal, true);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-pool-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000L, Math.min(idleTimeoutMillis, keepAliveIntervalMillis) / 2);
+        this.maintenance.scheduleWithFixedDelay(this::maintainIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public PooledTransport borrow() throws MessagingException {
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new MessagingException("Timed out after " + maxWaitMillis + "ms waiting for an SMTP connection from pool " + name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Interrupted while waiting for an SMTP connection", e);
+        }
+
+        try {
+            PooledTransport pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (pooled.idleMillis() < keepAliveIntervalMillis || pooled.getTransport().isConnected()) {
+                    borrowed.incrementAndGet();
+                    return pooled;
+                }
+                logger.debug("Discarding stale SMTP connection from pool {}", name);
+                destroy(pooled);
+            }
+            pooled = create();
+            borrowed.incrementAndGet();
+            return pooled;
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a healthy connection to the pool, retiring it if it reached its message cap.
+     */
+    public void release(PooledTransport pooled) {
+        try {
+            if (pooled.getMessageCount() >= maxMessagesPerConnection) {
+                logger.debug("Retiring SMTP connection from pool {} after {} messages", name, pooled.getMessageCount());
+                destroy(pooled);
+            } else {
+                pooled.touch();
+                idle.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Drops a connection that failed mid-conversation.
+     */
+    public void invalidate(PooledTransport pooled) {
+        try {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public void recordSent(PooledTransport pooled) {
+        pooled.incrementMessageCount();
+        messagesSent.incrementAndGet();
+    }
+
+    /**
+     * Opens connections in the background so the first sends do not pay the handshake.
+     */
+    public void prewarmAsync(int connections) {
+        int target = Math.min(connections, maxTotal);
+        if (target <= 0) {
+            return;
+        }
+        maintenance.execute(() -> {
+            for (int i = idle.size(); i < target; i++) {
+                if (!permits.tryAcquire()) {
+                    return;
+                }
+                try {
+                    PooledTransport pooled = create();
+                    pooled.touch();
+                    idle.offerLast(pooled);
+                } catch (Exception e) {
+                    logger.warn("Failed to pre-warm SMTP connection for pool {}: {}", name, e.getMessage());
+                    return;
+                } finally {
+                    permits.release();
+                }
+            }
+            logger.info("SMTP pool {} pre-warmed with {} connections", name, idle.size());
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("name", name);
+        stats.put("maxTotal", maxTotal);
+        stats.put("idle", idle.size());
+        stats.put("active", maxTotal - permits.availablePermits());
+        stats.put("created", created.get());
+        stats.put("destroyed", destroyed.get());
+        stats.put("borrowed", borrowed.get());
+        stats.put("messagesSent", messagesSent.get());
+        return stats;
+    }
+
+    public void close() {
+        maintenance.shutdownNow();
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+        logger.info("SMTP pool {} closed", name);
+    }
+
+    private void maintainIdle() {
+        Iterator<PooledTransport> iterator = idle.iterator();
+        while (iterator.hasNext()) {
+            PooledTransport pooled = iterator.next();
+            long idleMillis = pooled.idleMillis();
+            if (idleMillis >= idleTimeoutMillis) {
+                if (idle.remove(pooled)) {
+                    logger.debug("Evicting SMTP connection idle for {}ms from pool {}", idleMillis, name);
+                    destroy(pooled);
+                }
+            } else if (idleMillis >= keepAliveIntervalMillis && idle.remove(pooled)) {
+                // NOOP keeps the session alive on the server side and detects dropped connections
+                if (pooled.getTransport().isConnected()) {
+                    pooled.touch();
+                    idle.offerLast(pooled);
+                } else {
+                    destroy(pooled);
+                }
+            }
+        }
+    }
+
+    private PooledTransport create() throws MessagingException {
+        Transport transport = factory.connect();
+        created.incrementAndGet();
+        logger.debug("Opened new SMTP connection for pool {}", name);
+        return new PooledTransport(transport);
+    }
+
+    private void destroy(PooledTransport pooled) {
+        destroyed.incrementAndGet();
+        try {
+            pooled.getTransport().close();
+        } catch (Exception e) {
+            logger.debug("Error closing SMTP connection for pool {}: {}", name, e.getMessage());
+        }
+    }
+
+    public static class PooledTransport {
+        private final Transport transport;
+        private volatile long lastUsed = System.currentTimeMillis();
+        private int messageCount;
+
+        PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+
+        public Transport getTransport() {
+            return transport;
+        }
+
+        public int getMessageCount() {
+            return messageCount;
+        }
+
+        void incrementMessageCount() {
+            messageCount++;
+        }
+
+        void touch() {
+            lastUsed = System.currentTimeMillis();
+        }
+
+        long idleMillis() {
+            return System.currentTimeMillis() - lastUsed;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.citi.custody.mail;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * HTML body part content rendered while JavaMail writes the message: large templates straight from their JSON,
+ * data tables row by row from their data source.
+ * The part must carry an explicit Content-Transfer-Encoding, otherwise JavaMail reads the
+ * whole content once just to pick an encoding.
+ */
+public class StreamingHtmlDataHandler extends DataHandler {
+    public static final String CONTENT_TYPE = "text/html; charset=UTF-8";
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final HtmlWriter html;
+    private final Map<String, ?> variables;
+
+    public StreamingHtmlDataHandler(HtmlWriter html, Map<String, ?> variables) {
+        super(new RenderedSource(html, variables));
+        this.html = html;
+        this.variables = variables;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        write(html, variables, out);
+    }
+
+    private static void write(HtmlWriter html, Map<String, ?> variables, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+        html.write(writer, variables);
+        writer.flush();
+    }
+
+    /**
+     * Fallback for callers that read the content instead of writing it; this renders into memory.
+     */
+    private static final class RenderedSource implements DataSource {
+        private final HtmlWriter html;
+        private final Map<String, ?> variables;
+
+        RenderedSource(HtmlWriter html, Map<String, ?> variables) {
+            this.html = html;
+            this.variables = variables;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            write(html, variables, out);
+            return new ByteArrayInputStream(out.toByteArray());
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("Rendered template HTML is read-only");
+        }
+
+        @Override
+        public String getContentType() {
+            return CONTENT_TYPE;
+        }
+
+        @Override
+        public String getName() {
+            return "template.html";
+        }
+    }
+}
@@ -0,0 +1,467 @@
+package com.citi.custody.service;
+
+import com.citi.custody.dao.CampaignRecipientDao;
+import com.citi.custody.dao.EmailDao;
+import com.citi.custody.dao.UserDao;
+import com.citi.custody.entity.CampaignRecipient;
+import com.citi.custody.entity.Email;
+import com.citi.custody.entity.User;
+import com.citi.custody.mail.PersonalizedBody;
+import com.citi.custody.mail.RoutingJavaMailSender;
+import com.citi.custody.mail.SmtpFailures;
+import com.citi.custody.mail.SmtpRelay;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.mail.MailSendException;
+import org.springframework.stereotype.Service;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Campaign mode: one Email fanned out to a recipient list kept in its own collection, one message and
+ * one delivery record per recipient. Recipients are streamed from a Mongo cursor and the parent
+ * email only carries aggregate counters.
+ */
+@Service
+public class CampaignService {
+    private static final Logger logger = LoggerFactory.getLogger(CampaignService.class);
+
+    @Autowired
+    private EmailDao emailDao;
+
+    @Autowired
+    private CampaignRecipientDao campaignRecipientDao;
+
+    @Autowired
+    private EmailSenderService emailSenderService;
+
+    @Autowired
+    private UserDao userDao;
+
+    @Autowired
+    private RoutingJavaMailSender mailSender;
+
+    @Value("${email.test.mode:false}")
+    private boolean testMode;
+
+    @Value("${email.send.batch-size:50}")
+    private int batchSize;
+
+    @Value("${email.campaign.import-chunk-size:1000}")
+    private int importChunkSize;
+
+    public int addRecipients(String emailId, List<String> addresses) {
+        Email email = requireCampaign(emailId);
+        int inserted = campaignRecipientDao.insertRecipients(CampaignRecipientDao.newRecipients(email.getId(), addresses));
+        emailDao.incrementCampaignCounters(email.getId(), inserted, 0, 0);
+        logger.info("Added {} recipients to campaign {}", inserted, emailId);
+        return inserted;
+    }
+
+    /**
+     * Adds every user with an email address, reading the user collection through a cursor in chunks.
+     */
+    public int importAllUsers(String emailId) {
+        Email email = requireCampaign(emailId);
+        int inserted = 0;
+        List<CampaignRecipient> chunk = new ArrayList<>(importChunkSize);
+        try (CloseableIterator<User> users = campaignRecipientDao.streamUsersWithEmail()) {
+            while (users.hasNext()) {
+                User user = users.next();
+                chunk.add(CampaignRecipientDao.newRecipient(email.getId(), user.getEmail(), user.getSoeId()));
+                if (chunk.size() >= importChunkSize) {
+                    inserted += flushImport(email.getId(), chunk);
+                }
+            }
+        }
+        inserted += flushImport(email.getId(), chunk);
+        logger.info("Imported {} users as recipients of campaign {}", inserted, emailId);
+        return inserted;
+    }
+
+    private int flushImport(String emailId, List<CampaignRecipient> chunk) {
+        int inserted = campaignRecipientDao.insertRecipients(chunk);
+        emailDao.incrementCampaignCounters(emailId, inserted, 0, 0);
+        chunk.clear();
+        return inserted;
+    }
+
+    public Page<CampaignRecipient> getRecipients(String emailId, String status, Pageable pageable) {
+        return campaignRecipientDao.findByEmailId(emailId, status, pageable);
+    }
+
+    /**
+     * Sends one message per QUEUED recipient, in groups that share an SMTP session. Each group goes to
+     * one relay and its size follows that relay's rate limiter; when it runs dry or the relay defers, the run stops with "deferred" set
+     * and the remaining recipients stay QUEUED for the next run.
+     *
+     * @return summary of this run
+     */
+    public Map<String, Object> sendCampaign(String emailId) {
+        requireCampaign(emailId);
+        Email email = emailSenderService.claimForSend(emailId);
+        if (email == null) {
+            logger.warn("Campaign {} is already sent or being sent by another worker, skipping", emailId);
+            Map<String, Object> result = new HashMap<>();
+            result.put("sent", 0);
+            result.put("failed", 0);
+            result.put("deferred", false);
+            result.put("skipped", true);
+            return result;
+        }
+
+        // Permits belong to the relay they were taken from; the group is sent on that relay
+        SmtpRelay relay = null;
+        GroupOutcome total = new GroupOutcome();
+        boolean deferred = false;
+        boolean leaseLost = false;
+        int permits = 0;
+        List<CampaignRecipient> group = new ArrayList<>(batchSize);
+        CampaignBody body = new CampaignBody(email);
+        try (CloseableIterator<CampaignRecipient> recipients = campaignRecipientDao.streamByStatus(email.getId(), "QUEUED")) {
+            if (recipients.hasNext()) {
+                try {
+                    body.load();
+                } catch (Exception e) {
+                    return bodyLoadFailed(email, e);
+                }
+            }
+            while (recipients.hasNext()) {
+                if (permits == 0 && !testMode) {
+                    relay = mailSender.selectRelay();
+                    permits = relay == null ? 0 : mailSender.getRateLimiter(relay).tryAcquireUpTo(batchSize);
+                    if (permits == 0) {
+                        deferred = true;
+                        break;
+                    }
+                }
+
+                group.add(recipients.next());
+                permits = Math.max(0, permits - 1);
+
+                if (group.size() >= batchSize || (!testMode && permits == 0)) {
+                    GroupOutcome outcome = sendGroup(email, group, body, relay);
+                    total.add(outcome);
+                    group.clear();
+                    if (outcome.deferred > 0) {
+                        deferred = true;
+                        break;
+                    }
+                    // Long runs keep extending the SENDING lease so lease recovery does not take the campaign away
+                    if (!emailSenderService.renewClaim(email.getId())) {
+                        leaseLost = true;
+                        break;
+                    }
+                }
+            }
+        }
+        if (!group.isEmpty()) {
+            GroupOutcome outcome = sendGroup(email, group, body, relay);
+            total.add(outcome);
+            deferred = deferred || outcome.deferred > 0;
+        }
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("sent", total.sent);
+        result.put("failed", total.failed);
+        result.put("deferred", deferred);
+        if (leaseLost) {
+            logger.warn("Campaign {} lost its send lease, stopping this run: sent={}, failed={}", emailId, total.sent, total.failed);
+            result.put("status", "LEASE_LOST");
+            return result;
+        }
+        if (deferred) {
+            // Release the claim; the job is requeued once the relay has capacity again
+            emailDao.bulkUpdateStatus(Collections.singletonList(withStatus(email, "QUEUED", null)));
+            logger.info("Campaign {} paused by rate limiting: sent={}, failed={}", emailId, total.sent, total.failed);
+            result.put("status", "QUEUED");
+            return result;
+        }
+
+        Email refreshed = emailDao.findEmailById(email.getId());
+        int totalSent = refreshed != null && refreshed.getSentCount() != null ? refreshed.getSentCount() : total.sent;
+        int totalFailed = refreshed != null && refreshed.getFailedCount() != null ? refreshed.getFailedCount() : total.failed;
+        String status = totalFailed == 0 ? "SENT" : (totalSent > 0 ? "PARTIALLY_SENT" : "FAILED");
+        String errorMessage = totalFailed == 0 ? null : totalFailed + " recipient(s) failed";
+        emailDao.bulkUpdateStatus(Collections.singletonList(withStatus(email, status, errorMessage)));
+        logger.info("Campaign {} finished: sent={}, failed={}, status={}", emailId, total.sent, total.failed, status);
+
+        result.put("status", status);
+        return result;
+    }
+
+    /**
+     * The template or a data source could not be loaded. That is not the recipients' fault: they stay QUEUED and
+     * the whole campaign is failed once as TRANSIENT, so the retrier sends it again later.
+     */
+    private Map<String, Object> bodyLoadFailed(Email email, Exception e) {
+        logger.error("Campaign {} body could not be loaded: {}", email.getId(), e.getMessage(), e);
+        emailSenderService.markFailed(email, "Failed to load campaign body: " + e.getMessage(), SmtpFailures.TRANSIENT);
+        emailDao.bulkUpdateStatus(Collections.singletonList(email));
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("sent", 0);
+        result.put("failed", 0);
+        result.put("deferred", false);
+        result.put("status", email.getStatus());
+        result.put("error", email.getErrorMessage());
+        return result;
+    }
+
+    /**
+     * Puts failed recipients back in the queue so the next send retries only them.
+     */
+    public long requeueFailed(String emailId) {
+        Email email = requireCampaign(emailId);
+        long requeued = campaignRecipientDao.requeueFailed(email.getId());
+        emailDao.incrementCampaignCounters(email.getId(), (int) requeued, 0, (int) -requeued);
+        return requeued;
+    }
+
+    private GroupOutcome sendGroup(Email email, List<CampaignRecipient> group, CampaignBody body,
+                                   SmtpRelay relay) {
+        String emailId = email.getId();
+        GroupOutcome outcome = new GroupOutcome();
+        List<MimeMessage> messages = buildMessages(email, group, body, outcome);
+        MimeMessage[] groupMessages = messages.toArray(new MimeMessage[0]);
+        Map<Object, Exception> failedMessages = Collections.emptyMap();
+        if (testMode) {
+            logger.info("TEST MODE: Campaign {} would send {} messages", emailId, groupMessages.length);
+        } else {
+            try {
+                mailSender.send(relay, groupMessages);
+            } catch (MailSendException e) {
+                failedMessages = e.getFailedMessages();
+            } catch (Exception e) {
+                logger.error("Campaign {} group send failed: {}", emailId, e.getMessage(), e);
+                failedMessages = new IdentityHashMap<>();
+                for (MimeMessage message : groupMessages) {
+                    failedMessages.put(message, e);
+                }
+            }
+        }
+
+        Date now = new Date();
+        for (int i = 0; i < groupMessages.length; i++) {
+            CampaignRecipient recipient = group.get(i);
+            Exception failure = failedMessages.get(groupMessages[i]);
+            if (failure == null) {
+                recipient.setStatus("SENT");
+                recipient.setSentTime(now);
+                recipient.setErrorMessage(null);
+                outcome.sent++;
+            } else if (SmtpFailures.isThrottled(failure)) {
+                // Temporary relay failure: the recipient stays QUEUED for the next run
+                recipient.setErrorMessage("Deferred by relay: " + failure.getMessage());
+                outcome.deferred++;
+            } else {
+                recipient.setStatus("FAILED");
+                recipient.setErrorMessage(failure.getMessage());
+                outcome.failed++;
+            }
+        }
+        if (!group.isEmpty()) {
+            campaignRecipientDao.bulkUpdateStatus(group);
+        }
+        int failed = outcome.failed - outcome.buildFailed;
+        emailDao.incrementCampaignCounters(emailId, -(outcome.sent + failed), outcome.sent, failed);
+        return outcome;
+    }
+
+    /**
+     * Builds one message per recipient so no one sees the rest of the list. Recipients whose message
+     * cannot be built are marked FAILED and removed from the group.
+     */
+    private List<MimeMessage> buildMessages(Email email, List<CampaignRecipient> group, CampaignBody body,
+                                            GroupOutcome outcome) {
+        List<MimeMessage> messages = new ArrayList<>(group.size());
+        Map<String, User> users = null;
+        List<CampaignRecipient> failed = new ArrayList<>();
+        for (Iterator<CampaignRecipient> it = group.iterator(); it.hasNext(); ) {
+            CampaignRecipient recipient = it.next();
+            try {
+                MessageBody message;
+                if (body.personalized() == null && !body.shared().hasVariables()) {
+                    // the body is shared and only the headers differ
+                    message = body.shared();
+                } else {
+                    // 同一组收件人的User一次查出, 不逐个查库
+                    if (users == null) {
+                        users = findUsers(group);
+                    }
+                    if (body.personalized() != null) {
+                        message = MessageBody.encoded(
+                                body.personalized().fill(recipientVariables(body.variables(), recipient, users)));
+                    } else {
+                        // 大模板按收件人流式渲染, 不在内存中生成每个人的正文
+                        message = body.shared().withVariables(
+                                recipientVariables(body.shared().getVariables(), recipient, users));
+                    }
+                }
+                messages.add(emailSenderService.buildMessage(email, message,
+                        Collections.singletonList(recipient.getAddress()), null, "r" + recipient.getId()));
+            } catch (Exception e) {
+                logger.warn("Failed to build campaign message for {}: {}", recipient.getAddress(), e.getMessage());
+                recipient.setStatus("FAILED");
+                recipient.setErrorMessage(e.getMessage());
+                failed.add(recipient);
+                it.remove();
+            }
+        }
+        if (!failed.isEmpty()) {
+            campaignRecipientDao.bulkUpdateStatus(failed);
+            emailDao.incrementCampaignCounters(email.getId(), -failed.size(), 0, failed.size());
+            outcome.failed += failed.size();
+            outcome.buildFailed += failed.size();
+        }
+        return messages;
+    }
+
+    private Map<String, User> findUsers(List<CampaignRecipient> group) {
+        Set<String> soeIds = new HashSet<>();
+        Set<String> addresses = new HashSet<>();
+        for (CampaignRecipient recipient : group) {
+            if (recipient.getSoeId() != null) {
+                soeIds.add(recipient.getSoeId());
+            }
+            addresses.add(recipient.getAddress());
+        }
+        Map<String, User> users = new HashMap<>();
+        for (User user : userDao.findUsersBySoeIdsOrEmails(soeIds, addresses)) {
+            if (user.getSoeId() != null) {
+                users.put(user.getSoeId(), user);
+            }
+            if (user.getEmail() != null) {
+                users.putIfAbsent(user.getEmail().toLowerCase(), user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Email variables plus the recipient's User fields; {@code email} is always the recipient address.
+     */
+    private Map<String, Object> recipientVariables(Map<String, ?> emailVariables, CampaignRecipient recipient,
+                                                   Map<String, User> users) {
+        Map<String, Object> variables = new HashMap<>(emailVariables);
+        User user = recipient.getSoeId() != null ? users.get(recipient.getSoeId()) : null;
+        if (user == null && recipient.getAddress() != null) {
+            user = users.get(recipient.getAddress().toLowerCase());
+        }
+        if (user != null) {
+            putIfNotNull(variables, "soeId", user.getSoeId());
+            putIfNotNull(variables, "firstName", user.getFirstName());
+            putIfNotNull(variables, "lastName", user.getLastName());
+            String fullName = ((user.getFirstName() != null ? user.getFirstName() : "") + " "
+                    + (user.getLastName() != null ? user.getLastName() : "")).trim();
+            if (!fullName.isEmpty()) {
+                variables.put("fullName", fullName);
+            }
+        }
+        variables.put("email", recipient.getAddress());
+        return variables;
+    }
+
+    private static void putIfNotNull(Map<String, Object> variables, String name, String value) {
+        if (value != null) {
+            variables.put(name, value);
+        }
+    }
+
+    /**
+     * Encoded body of a campaign, loaded on first use: a shared body, or a personalized one when the
+     * template has placeholders.
+     */
+    private class CampaignBody {
+        private final Email email;
+        private boolean loaded;
+        private MessageBody shared;
+        private PersonalizedBody personalized;
+        private Map<String, Object> variables;
+
+        CampaignBody(Email email) {
+            this.email = email;
+        }
+
+        PersonalizedBody personalized() throws MessagingException {
+            load();
+            return personalized;
+        }
+
+        MessageBody shared() throws MessagingException {
+            load();
+            return shared;
+        }
+
+        // 邮件级变量和表格数据源, 整个发送过程只获取一次
+        Map<String, Object> variables() throws MessagingException {
+            load();
+            return variables;
+        }
+
+        // sendCampaign loads once before the first group; a failure ends the run there
+        private void load() throws MessagingException {
+            if (loaded) {
+                return;
+            }
+            personalized = emailSenderService.loadPersonalizedBody(email);
+            if (personalized == null) {
+                shared = emailSenderService.loadMessageBody(email);
+            } else {
+                variables = emailSenderService.renderVariables(email);
+            }
+            loaded = true;
+        }
+    }
+
+    private static class GroupOutcome {
+        int sent;
+        int failed;
+        int deferred;
+        // already counted when the message failed to build
+        int buildFailed;
+
+        void add(GroupOutcome other) {
+            sent += other.sent;
+            failed += other.failed;
+            deferred += other.deferred;
+        }
+    }
+
+    private Email withStatus(Email email, String status, String errorMessage) {
+        email.setStatus(status);
+        email.setErrorMessage(errorMessage);
+        if (!"QUEUED".equals(status)) {
+            email.setSentTime(new Date());
+            email.setSendAttemptId(null);
+        }
+        return email;
+    }
+
+    private Email requireCampaign(String emailId) {
+        Email email = emailDao.findEmailById(emailId);
+        if (email == null) {
+            throw new IllegalArgumentException("Email not found with ID: " + emailId);
+        }
+        if (!Boolean.TRUE.equals(email.getCampaign())) {
+            throw new IllegalArgumentException("Email is not a campaign: " + emailId);
+        }
+        return email;
+    }
+}
@@ -0,0 +1,82 @@
+package com.citi.custody.service;
+
+import com.citi.custody.dao.EmailDao;
+import com.citi.custody.entity.Email;
+import com.citi.custody.exception.BusinessException;
+import com.citi.custody.util.InstanceIdUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 自动重试: 定时查找到期的临时失败邮件(按nextAttemptAt索引), 抢占后放回发送队列
+ */
+@Service
+public class EmailRetryService {
+    private static final Logger logger = LoggerFactory.getLogger(EmailRetryService.class);
+
+    @Autowired
+    private EmailDao emailDao;
+
+    @Autowired
+    private EmailSendJobService emailSendJobService;
+
+    @Value("${email.retry.enabled:true}")
+    private boolean enabled;
+
+    @Value("${email.retry.poll-batch-size:100}")
+    private int pollBatchSize;
+
+    @Value("${email.retry.poll-interval-ms:30000}")
+    private long pollIntervalMillis;
+
+    @Value("${email.send.lease-ms:900000}")
+    private long sendLeaseMillis;
+
+    /**
+     * 回收超时的SENDING租约(发送实例崩溃或卡死), 转为到期的临时失败, 由下面的重试任务重新发送
+     */
+    @Scheduled(fixedDelayString = "${email.send.lease-recovery-interval-ms:60000}")
+    public void recoverExpiredLeases() {
+        long recovered = emailDao.recoverExpiredLeases(new Date());
+        if (recovered > 0) {
+            logger.warn("Recovered {} emails whose SENDING lease expired", recovered);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${email.retry.poll-interval-ms:30000}")
+    public void retryDueEmails() {
+        if (!enabled) {
+            return;
+        }
+        Date now = new Date();
+        List<Email> due = emailDao.findDueRetries(now, pollBatchSize);
+        if (due.isEmpty()) {
+            return;
+        }
+
+        int submitted = 0;
+        for (Email email : due) {
+            // 条件更新 FAILED/PARTIALLY_SENT -> QUEUED, 避免与人工重试或其他实例重复发送
+            if (!emailDao.claimRetry(email.getId(), now, InstanceIdUtil.getInstanceId(), sendLeaseMillis)) {
+                continue;
+            }
+            try {
+                emailSendJobService.submit(email.getId());
+                submitted++;
+            } catch (BusinessException e) {
+                // 发送队列已满: 放回原状态, 下一轮再试, 不消耗重试次数
+                emailDao.rescheduleRetry(email.getId(), email.getStatus(), new Date(now.getTime() + pollIntervalMillis));
+                logger.warn("Send queue is full, postponing remaining retries");
+                break;
+            }
+        }
+        logger.info("Retrier found {} due emails, submitted {}", due.size(), submitted);
+    }
+}
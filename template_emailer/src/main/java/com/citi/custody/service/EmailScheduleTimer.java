@@ -0,0 +1,173 @@
+package com.citi.custody.service;
+
+import com.citi.custody.dao.EmailDao;
+import com.citi.custody.entity.Email;
+import com.citi.custody.event.EmailScheduleChangedEvent;
+import com.citi.custody.util.HashedTimingWheel;
+import com.citi.custody.util.InstanceIdUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 定时邮件的内存时间轮: 启动时加载前瞻窗口内的SCHEDULED邮件, 邮件保存或改期时通过事件同步,
+ * 到点后约一秒内提交到发送队列. Mongo轮询(EmailSchedulerService)只保留为低频兜底
+ */
+@Service
+public class EmailScheduleTimer {
+    private static final Logger logger = LoggerFactory.getLogger(EmailScheduleTimer.class);
+
+    @Autowired
+    private EmailDao emailDao;
+
+    @Autowired
+    private ScheduledEmailDispatcher scheduledEmailDispatcher;
+
+    @Autowired
+    private ScheduleMisfireHandler misfireHandler;
+
+    @Value("${email.scheduler.tick-ms:200}")
+    private long tickMillis;
+
+    @Value("${email.scheduler.wheel-size:512}")
+    private int wheelSize;
+
+    @Value("${email.scheduler.lookahead-ms:3600000}")
+    private long lookaheadMillis;
+
+    @Value("${email.scheduler.window-max-emails:20000}")
+    private int windowMaxEmails;
+
+    @Value("${email.scheduler.queue-full-retry-ms:5000}")
+    private long queueFullRetryMillis;
+
+    @Value("${email.send.lease-ms:900000}")
+    private long sendLeaseMillis;
+
+    private HashedTimingWheel wheel;
+
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "email-schedule-dispatch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    public void init() {
+        wheel = new HashedTimingWheel("email-schedule", tickMillis, wheelSize, this::dispatch, dispatcher);
+        wheel.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wheel.stop();
+        dispatcher.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        loadWindow();
+    }
+
+    /**
+     * 每半个前瞻窗口加载一次即将到期的邮件, 使窗口外的定时邮件在到期前进入时间轮
+     */
+    @Scheduled(fixedDelayString = "${email.scheduler.window-refresh-ms:1800000}",
+            initialDelayString = "${email.scheduler.window-refresh-ms:1800000}")
+    public void loadWindow() {
+        long now = System.currentTimeMillis();
+        Date horizon = new Date(now + lookaheadMillis);
+        int loaded = 0;
+        // 只投影_id/sentTime并按游标读取, 不把完整的邮件文档加载进堆
+        try (CloseableIterator<Email> upcoming = emailDao.streamDueScheduled(horizon, windowMaxEmails)) {
+            while (upcoming.hasNext()) {
+                Email email = upcoming.next();
+                track(email.getId(), email.getSentTime().getTime(), now);
+                loaded++;
+            }
+        }
+        if (loaded >= windowMaxEmails) {
+            logger.warn("Timing wheel window is capped at {} emails; later ones are loaded on the next refresh", windowMaxEmails);
+        }
+        logger.info("Loaded {} scheduled emails due before {} into the timing wheel", loaded, horizon);
+    }
+
+    @EventListener
+    public void onScheduleChanged(EmailScheduleChangedEvent event) {
+        if (event.getEmailId() == null) {
+            return;
+        }
+        if ("SCHEDULED".equals(event.getStatus()) && event.getSentTime() != null
+                && event.getSentTime().getTime() <= System.currentTimeMillis() + lookaheadMillis) {
+            // 改期后按新的sentTime重新判断是否misfire
+            misfireHandler.forget(event.getEmailId());
+            track(event.getEmailId(), event.getSentTime().getTime(), System.currentTimeMillis());
+            logger.debug("Email {} scheduled in timing wheel for {}", event.getEmailId(), event.getSentTime());
+        } else {
+            wheel.cancel(event.getEmailId());
+            misfireHandler.forget(event.getEmailId());
+        }
+    }
+
+    /**
+     * 把邮件放进时间轮, 在指定时间(已按misfire策略计算过的释放时间)触发
+     */
+    public void scheduleAt(String emailId, long releaseAt) {
+        wheel.schedule(emailId, releaseAt);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = wheel.getStats();
+        stats.put("lookaheadMillis", lookaheadMillis);
+        stats.put("dispatcher", scheduledEmailDispatcher.getStats());
+        stats.put("misfire", misfireHandler.getStats());
+        return stats;
+    }
+
+    private void track(String emailId, long sentTime, long now) {
+        long releaseAt = misfireHandler.releaseAt(emailId, sentTime, now);
+        if (releaseAt == ScheduleMisfireHandler.SKIP) {
+            wheel.cancel(emailId);
+            emailDao.markMisfired(emailId, "Skipped by misfire policy: sentTime was " + (now - sentTime) / 1000 + "s in the past");
+        } else {
+            wheel.schedule(emailId, releaseAt);
+        }
+    }
+
+    private void dispatch(String emailId) {
+        String owner = InstanceIdUtil.getInstanceId();
+        try {
+            // 多节点时每个节点的时间轮都持有同一封邮件, 先抢到SCHEDULED -> QUEUED租约的节点负责发送
+            if (!emailDao.claimScheduled(emailId, owner, sendLeaseMillis)) {
+                logger.debug("Scheduled email {} was already claimed elsewhere or rescheduled", emailId);
+                misfireHandler.forget(emailId);
+                return;
+            }
+            // 时间轮线程不能阻塞, 发送池在途已满时退回SCHEDULED稍后再试
+            if (!scheduledEmailDispatcher.tryDispatch(emailId)) {
+                logger.warn("Scheduled dispatch is saturated, retrying scheduled email {} in {}ms", emailId, queueFullRetryMillis);
+                emailDao.releaseToScheduled(Collections.singletonList(emailId), owner);
+                wheel.schedule(emailId, System.currentTimeMillis() + queueFullRetryMillis);
+                return;
+            }
+            misfireHandler.onReleased(emailId);
+            logger.info("Scheduled email {} is due, dispatched for sending", emailId);
+        } catch (Exception e) {
+            logger.error("Failed to dispatch scheduled email {}: {}", emailId, e.getMessage(), e);
+        }
+    }
+}
@@ -2,13 +2,17 @@ package com.citi.custody.service;
 
 import com.citi.custody.dao.EmailDao;
 import com.citi.custody.entity.Email;
+import com.citi.custody.util.InstanceIdUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.data.util.CloseableIterator;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -21,27 +25,75 @@ public class EmailSchedulerService {
     private EmailDao emailDao;
     
     @Autowired
-    private EmailSenderService emailSenderService;
+    private ScheduledEmailDispatcher scheduledEmailDispatcher;
     
-    @Scheduled(fixedRate = 60000) // 每分钟检查一次
+    @Autowired
+    private ScheduleMisfireHandler misfireHandler;
+    
+    @Autowired
+    private EmailScheduleTimer emailScheduleTimer;
+    
+    @Value("${email.scheduler.claim-batch-size:100}")
+    private int claimBatchSize;
+    
+    @Value("${email.scheduler.max-per-tick:2000}")
+    private int maxPerTick;
+    
+    @Value("${email.scheduler.dispatch-wait-ms:30000}")
+    private long dispatchWaitMillis;
+    
+    @Value("${email.send.lease-ms:900000}")
+    private long sendLeaseMillis;
+    
+    // 定时邮件由EmailScheduleTimer按时触发, 这里只是低频兜底, 处理时间轮漏掉的邮件(如窗口加载失败)
+    @Scheduled(fixedDelayString = "${email.scheduler.sweep-interval-ms:600000}")
     public void sendScheduledEmails() {
-        logger.info("Checking for scheduled emails...");
-        Date now = new Date();
-        
-        // 找出状态为 SCHEDULED 且发送时间已到或过去的邮件
-        List<Email> emailsToSend = emailDao.findByStatusAndSentTimeBefore("SCHEDULED", now);
+        logger.info("Safety sweep: checking for overdue scheduled emails...");
+        String owner = InstanceIdUtil.getInstanceId();
+        int dispatched = 0;
         
-        logger.info("Found {} emails to send", emailsToSend.size());
-        
-        for (Email email : emailsToSend) {
-            try {
-                emailSenderService.sendEmail(email.getId());
-            } catch (Exception e) {
-                logger.error("Error sending scheduled email {}: {}", email.getId(), e.getMessage(), e);
-                email.setStatus("FAILED");
-                email.setErrorMessage(e.getMessage());
-                emailDao.saveEmail(email);
+        // 游标流式读取到期邮件(每轮最多max-per-tick封), 按批抢占(SCHEDULED -> QUEUED, 带owner和租约, 其他节点不会再取到)
+        // 后交给并行发送池; 在途数满时在这里等待, 不会一次全部加载或提交
+        long now = System.currentTimeMillis();
+        try (CloseableIterator<Email> due = emailDao.streamDueScheduled(new Date(now), maxPerTick)) {
+            List<String> batch = new ArrayList<>(claimBatchSize);
+            while (due.hasNext()) {
+                Email email = due.next();
+                // 超过misfire阈值的积压按策略跳过, 或交给时间轮按目标速率/时间窗口平滑释放
+                long releaseAt = misfireHandler.releaseAt(email.getId(), email.getSentTime().getTime(), now);
+                if (releaseAt == ScheduleMisfireHandler.SKIP) {
+                    emailDao.markMisfired(email.getId(), "Skipped by misfire policy: sentTime was "
+                            + (now - email.getSentTime().getTime()) / 1000 + "s in the past");
+                } else if (releaseAt > now) {
+                    emailScheduleTimer.scheduleAt(email.getId(), releaseAt);
+                } else {
+                    batch.add(email.getId());
+                }
+                if (batch.isEmpty() || (batch.size() < claimBatchSize && due.hasNext())) {
+                    continue;
+                }
+                List<String> claimed = emailDao.claimScheduled(batch, owner, sendLeaseMillis);
+                batch.clear();
+                int accepted = 0;
+                try {
+                    while (accepted < claimed.size() && scheduledEmailDispatcher.dispatch(claimed.get(accepted), dispatchWaitMillis)) {
+                        misfireHandler.onReleased(claimed.get(accepted));
+                        accepted++;
+                    }
+                } finally {
+                    // 没能提交的邮件退回SCHEDULED, 由时间轮或下一轮兜底处理
+                    emailDao.releaseToScheduled(claimed.subList(accepted, claimed.size()), owner);
+                }
+                dispatched += accepted;
+                if (accepted < claimed.size()) {
+                    logger.warn("Scheduled dispatch is saturated, {} overdue emails wait for the next sweep", claimed.size() - accepted);
+                    break;
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        
+        logger.info("Safety sweep dispatched {} overdue emails", dispatched);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,290 @@
+package com.citi.custody.service;
+
+import com.citi.custody.constant.ErrorCodeConstants;
+import com.citi.custody.dao.EmailDao;
+import com.citi.custody.entity.Email;
+import com.citi.custody.entity.SendJob;
+import com.citi.custody.exception.BusinessException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Service
+public class EmailSendJobService {
+    private static final Logger logger = LoggerFactory.getLogger(EmailSendJobService.class);
+
+    @Autowired
+    private ThreadPoolExecutor emailSendExecutor;
+
+    @Autowired
+    private EmailSenderService emailSenderService;
+
+    @Autowired
+    private CampaignService campaignService;
+
+    @Autowired
+    private EmailDao emailDao;
+
+    @Value("${email.send.job-retention-minutes:60}")
+    private long jobRetentionMinutes;
+
+    private final Map<String, SendJob> jobs = new ConcurrentHashMap<>();
+
+    // Holds deferred jobs until the relay has capacity again, without occupying a send worker
+    private final ScheduledExecutorService deferExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "email-send-defer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Queues the email for sending and returns immediately.
+     *
+     * @throws BusinessException with TOO_MANY_REQUESTS when the send queue is full
+     */
+    public SendJob submit(String emailId) {
+        SendJob job = newJob();
+        job.setEmailId(emailId);
+        job.setEmailCount(1);
+        enqueue(job, () -> runJob(job));
+        logger.info("Send job {} queued for email {}", job.getJobId(), emailId);
+        return job;
+    }
+
+    /**
+     * Manual retry of a failed email: resets its retry state and queues it like {@link #submit(String)}.
+     *
+     * @throws IllegalArgumentException if the email does not exist
+     * @throws IllegalStateException if the email is not in a retryable status
+     * @throws BusinessException with TOO_MANY_REQUESTS when the send queue is full
+     */
+    public SendJob resubmit(String emailId) {
+        Email email = emailSenderService.prepareResend(emailId);
+        if (Boolean.TRUE.equals(email.getCampaign())) {
+            // 活动邮件: 失败的收件人回到QUEUED, runJob再走sendCampaign只补发这些收件人
+            long requeued = campaignService.requeueFailed(emailId);
+            logger.info("Requeued {} failed recipient(s) of campaign {} for retry", requeued, emailId);
+        }
+        return submit(emailId);
+    }
+
+    /**
+     * Queues a batch of emails as a single job; see {@link EmailSenderService#sendBatch(List)}.
+     * Campaign emails in the batch are sent through {@link CampaignService#sendCampaign(String)}.
+     */
+    public SendJob submitBatch(List<String> emailIds) {
+        SendJob job = newJob();
+        job.setEmailCount(emailIds.size());
+        List<String> ids = new ArrayList<>(emailIds);
+        enqueue(job, () -> runBatchJob(job, ids));
+        logger.info("Batch send job {} queued for {} emails", job.getJobId(), ids.size());
+        return job;
+    }
+
+    /**
+     * Sends an already claimed email on the calling thread (the scheduled dispatch pool), tracking it like a queued job.
+     * Deferrals still go back through the send queue.
+     */
+    public SendJob runNow(String emailId) {
+        SendJob job = newJob();
+        job.setEmailId(emailId);
+        job.setEmailCount(1);
+        jobs.put(job.getJobId(), job);
+        runJob(job);
+        return job;
+    }
+
+    public SendJob getJob(String jobId) {
+        return jobs.get(jobId);
+    }
+
+    public Map<String, Object> getQueueStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("workerThreads", emailSendExecutor.getMaximumPoolSize());
+        stats.put("activeWorkers", emailSendExecutor.getActiveCount());
+        stats.put("queued", emailSendExecutor.getQueue().size());
+        stats.put("remainingCapacity", emailSendExecutor.getQueue().remainingCapacity());
+        stats.put("completedJobs", emailSendExecutor.getCompletedTaskCount());
+        stats.put("trackedJobs", jobs.size());
+        stats.put("deferredJobs", jobs.values().stream().filter(job -> "DEFERRED".equals(job.getStatus())).count());
+        return stats;
+    }
+
+    private SendJob newJob() {
+        SendJob job = new SendJob();
+        job.setJobId(UUID.randomUUID().toString());
+        job.setStatus("QUEUED");
+        job.setSubmitTime(new Date());
+        return job;
+    }
+
+    private void enqueue(SendJob job, Runnable task) {
+        jobs.put(job.getJobId(), job);
+        try {
+            emailSendExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getJobId());
+            logger.warn("Send queue is full, rejecting job {} (queued: {})", job.getJobId(), emailSendExecutor.getQueue().size());
+            throw new BusinessException(ErrorCodeConstants.TOO_MANY_REQUESTS,
+                    "Send queue is full, please try again later", true);
+        }
+    }
+
+    /**
+     * Parks the job until the rate limiter expects a free token, then puts it back on the send queue.
+     */
+    private void defer(SendJob job, Runnable task, String reason) {
+        long delay = emailSenderService.getDeferDelayMillis();
+        job.setStatus("DEFERRED");
+        job.setDeferCount(job.getDeferCount() + 1);
+        job.setErrorMessage(reason);
+        logger.info("Send job {} deferred for {}ms: {}", job.getJobId(), delay, reason);
+        deferExecutor.schedule(() -> {
+            job.setStatus("QUEUED");
+            try {
+                emailSendExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                defer(job, task, "Send queue is full");
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void runJob(SendJob job) {
+        job.setStatus("RUNNING");
+        if (job.getStartTime() == null) {
+            job.setStartTime(new Date());
+        }
+        try {
+            Email email = emailDao.findEmailById(job.getEmailId());
+            boolean claimed;
+            if (email != null && Boolean.TRUE.equals(email.getCampaign())) {
+                Map<String, Object> result = campaignService.sendCampaign(job.getEmailId());
+                job.setResult(mergeResults(job.getResult(), result));
+                if (Boolean.TRUE.equals(result.get("deferred"))) {
+                    defer(job, () -> runJob(job), "Campaign paused by relay rate limiting");
+                    return;
+                }
+                claimed = !Boolean.TRUE.equals(result.get("skipped"));
+            } else {
+                claimed = emailSenderService.sendEmail(job.getEmailId());
+            }
+
+            // sendEmail records delivery failures on the email itself rather than throwing
+            email = emailDao.findEmailById(job.getEmailId());
+            if (email == null) {
+                job.setStatus("FAILED");
+                job.setErrorMessage("Email not found with ID: " + job.getEmailId());
+            } else if (!claimed) {
+                // 已发送或正由其他线程/实例发送: 本任务什么也没做, 不能报告为COMPLETED
+                job.setEmailStatus(email.getStatus());
+                job.setStatus("SKIPPED");
+                job.setErrorMessage("Email is " + email.getStatus() + " and could not be claimed for sending");
+            } else {
+                job.setEmailStatus(email.getStatus());
+                if ("QUEUED".equals(email.getStatus())) {
+                    defer(job, () -> runJob(job), email.getErrorMessage());
+                    return;
+                } else if ("FAILED".equals(email.getStatus()) || "DEAD_LETTER".equals(email.getStatus())) {
+                    job.setStatus("FAILED");
+                    job.setErrorMessage(email.getErrorMessage());
+                } else {
+                    job.setStatus("COMPLETED");
+                    job.setErrorMessage(null);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Send job {} for email {} failed: {}", job.getJobId(), job.getEmailId(), e.getMessage(), e);
+            job.setStatus("FAILED");
+            job.setErrorMessage(e.getMessage());
+        }
+        job.setFinishTime(new Date());
+        logger.info("Send job {} finished with status {}", job.getJobId(), job.getStatus());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void runBatchJob(SendJob job, List<String> emailIds) {
+        job.setStatus("RUNNING");
+        if (job.getStartTime() == null) {
+            job.setStartTime(new Date());
+        }
+        try {
+            Map<String, Object> result = emailSenderService.sendBatch(emailIds);
+            List<String> remaining = new ArrayList<>((List<String>) result.get("deferred"));
+            // sendBatch不认领活动邮件; 逐个交给活动发送路径, 被限流暂停的活动随批次一起延后重跑
+            Map<String, Object> campaignResults = new LinkedHashMap<>();
+            for (String campaignId : (List<String>) result.get("campaigns")) {
+                Map<String, Object> campaignResult = campaignService.sendCampaign(campaignId);
+                campaignResults.put(campaignId, campaignResult);
+                if (Boolean.TRUE.equals(campaignResult.get("deferred"))) {
+                    remaining.add(campaignId);
+                }
+            }
+            result.put("campaigns", campaignResults);
+            job.setResult(mergeResults(job.getResult(), result));
+            if (!remaining.isEmpty()) {
+                defer(job, () -> runBatchJob(job, remaining), remaining.size() + " email(s) waiting for relay capacity");
+                return;
+            }
+            job.setStatus("COMPLETED");
+            job.setErrorMessage(null);
+        } catch (Exception e) {
+            logger.error("Batch send job {} failed: {}", job.getJobId(), e.getMessage(), e);
+            job.setStatus("FAILED");
+            job.setErrorMessage(e.getMessage());
+        }
+        job.setFinishTime(new Date());
+        logger.info("Batch send job {} finished with status {}", job.getJobId(), job.getStatus());
+    }
+
+    /**
+     * Accumulates counters across the runs of a deferred job; other entries reflect the latest run.
+     */
+    private Map<String, Object> mergeResults(Map<String, Object> previous, Map<String, Object> latest) {
+        if (previous == null) {
+            return latest;
+        }
+        Map<String, Object> merged = new LinkedHashMap<>(latest);
+        for (String counter : new String[]{"sent", "failed", "scheduled"}) {
+            if (previous.get(counter) instanceof Integer && latest.get(counter) instanceof Integer) {
+                merged.put(counter, (Integer) previous.get(counter) + (Integer) latest.get(counter));
+            }
+        }
+        return merged;
+    }
+
+    @Scheduled(fixedRate = 60000)
+    public void evictFinishedJobs() {
+        long cutoff = System.currentTimeMillis() - jobRetentionMinutes * 60 * 1000;
+        Iterator<SendJob> iterator = jobs.values().iterator();
+        while (iterator.hasNext()) {
+            SendJob job = iterator.next();
+            if (job.getFinishTime() != null && job.getFinishTime().getTime() < cutoff) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deferExecutor.shutdownNow();
+    }
+}
@@ -1,37 +1,66 @@
 package com.citi.custody.service;
 
-import com.citi.custody.util.JsonToHtmlConverter;
+import com.citi.custody.util.InstanceIdUtil;
+import com.citi.custody.util.LruCache;
 import com.citi.custody.dao.EmailDao;
+import com.citi.custody.dao.EmailExecutionDao;
 import com.citi.custody.entity.Email;
+import com.citi.custody.entity.EmailExecution;
+import com.citi.custody.entity.RecipientChunk;
+import com.citi.custody.event.EmailScheduleChangedEvent;
 import com.citi.custody.entity.TemplateInfo;
+import com.citi.custody.mail.AdaptiveRateLimiter;
+import com.citi.custody.mail.HtmlWriter;
+import com.citi.custody.mail.PersonalizedBody;
+import com.citi.custody.mail.RetryPolicy;
+import com.citi.custody.mail.SmtpFailures;
+import com.citi.custody.mail.RoutingJavaMailSender;
+import com.citi.custody.mail.SmtpRelay;
+import com.citi.custody.mail.StreamingHtmlDataHandler;
+import com.citi.custody.util.InlineImage;
+import com.citi.custody.util.RenderPlan;
+import com.citi.custody.util.StreamingHtmlRenderer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.FileSystemResource;
-import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.mail.MessagingException;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.UUID;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Service
 public class EmailSenderService {
     private static final Logger logger = LoggerFactory.getLogger(EmailSenderService.class);
     
     @Autowired
-    private JavaMailSender mailSender;
+    private RoutingJavaMailSender mailSender;
     
     @Autowired
     private TemplateService templateService;
@@ -48,11 +77,86 @@ public class EmailSenderService {
     @Value("${email.test.mode:false}")
     private boolean testMode;
     
-    public void sendEmail(String emailId) {
-        Email email = emailDao.findEmailById(emailId);
+    @Value("${email.send.batch-size:50}")
+    private int batchSize;
+    
+    @Value("${email.send.defer-min-delay-ms:1000}")
+    private long minDeferDelayMillis;
+    
+    @Autowired
+    private RetryPolicy retryPolicy;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Value("${email.send.lease-ms:900000}")
+    private long sendLeaseMillis;
+    
+    @Autowired
+    private EmailExecutionDao emailExecutionDao;
+    
+    @Autowired
+    private TemplateRenderService templateRenderService;
+
+    @Autowired
+    private RodService rodService;
+    
+    @Value("${email.recurring.rate-wait-ms:60000}")
+    private long executionRateWaitMillis;
+    
+    @Value("${email.send.recipient-chunk-size:50}")
+    private int recipientChunkSize;
+    
+    @Autowired
+    private ThreadPoolExecutor emailChunkExecutor;
+    
+    @Value("${email.mime-cache.enabled:true}")
+    private boolean mimeCacheEnabled;
+    
+    @Value("${email.mime-cache.max-entries:100}")
+    private int mimeCacheMaxEntries;
+    
+    @Value("${email.mime-cache.max-bytes:67108864}")
+    private long mimeCacheMaxBytes;
+    
+    private static final String HEADER_MESSAGE_ID = "Message-ID";
+    
+    private static final String HEADER_DATE = "Date";
+    
+    // Email.dataSources中由RodService.fetchData获取的数据源前缀, 后接releaseId
+    private static final String ROD_DATA_SOURCE = "rod:";
+    
+    // 所有中继的熔断器都打开时的延迟原因
+    static final String NO_RELAY_AVAILABLE = "No SMTP relay available";
+    
+    private LruCache<String, byte[]> mimeBodyCache;
+    
+    // 含占位符的模板: 缓存HTML部分以外已编码好的前后两段, 每个收件人只渲染并编码HTML
+    private LruCache<String, PersonalizedBody> personalizedBodyCache;
+    
+    @PostConstruct
+    public void initMimeCache() {
+        mimeBodyCache = new LruCache<>("mime-body", mimeCacheMaxEntries, mimeCacheMaxBytes, body -> body.length);
+        personalizedBodyCache = new LruCache<>("personalized-body", mimeCacheMaxEntries, mimeCacheMaxBytes,
+                PersonalizedBody::getEncodedLength);
+    }
+    
+    /**
+     * 发送单封邮件; 结果(包括失败)记录在邮件本身上
+     *
+     * @return false if the email could not be claimed (missing, already sent or being sent elsewhere) and nothing was done
+     */
+    public boolean sendEmail(String emailId) {
+        // 先抢占发送权(SENDING租约), 抢不到说明已发送或正由其他线程/实例发送
+        Email email = claimForSend(emailId);
         if (email == null) {
-            logger.error("Email not found with id: {}", emailId);
-            return;
+            Email current = emailDao.findEmailById(emailId);
+            if (current == null) {
+                logger.error("Email not found with id: {}", emailId);
+            } else {
+                logger.warn("Email {} is {} and cannot be claimed for sending, skipping", emailId, current.getStatus());
+            }
+            return false;
         }
         
         try {
@@ -62,141 +166,67 @@ public class EmailSenderService {
             if (email.getSentTime() != null && email.getSentTime().after(now)) {
                 email.setStatus("SCHEDULED");
                 emailDao.saveEmail(email);
+                eventPublisher.publishEvent(new EmailScheduleChangedEvent(email.getId(), email.getStatus(), email.getSentTime()));
                 logger.info("Email scheduled for future sending: {}", email.getId());
-                return;
+                return true;
             }
             
             // Test Mode: Do not send email, just update the status
             if (testMode) {
                 logger.info("TEST MODE: Email would be sent to: {} with subject: {}", email.getTo(), 
                         email.getEmailName());
-                email.setStatus("SENT");
-                email.setSentTime(now);
+                markSent(email, now);
                 emailDao.saveEmail(email);
                 logger.info("TEST MODE: Email marked as sent: {}", email.getId());
-                return;
-            }
-            
-            // Fetch template
-            TemplateInfo template = null;
-            if (email.getContentTemplateId() != null && !email.getContentTemplateId().isEmpty()) {
-                template = templateService.getTemplateById(email.getContentTemplateId());
+                return true;
             }
             
-            // Create mail message
-            MimeMessage message = mailSender.createMimeMessage();
-            // 使用第三个参数为true来启用multipart模式, 这对内嵌图片很重要
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-            
-            // 设置发件人地址, 确保地址格式正确
-            try {
-                // 清理邮件地址中的空格和控制字符
-                String cleanSender = sender.trim().replaceAll("\\s+", "");
-                helper.setFrom(cleanSender);
-                logger.debug("发件人地址设置为: {}", cleanSender);
-            } catch (MessagingException e) {
-                logger.error("设置发件人地址时出错: {}", e.getMessage(), e);
-                email.setStatus("FAILED");
-                email.setErrorMessage("无效的发件人地址: " + sender);
+            // 限流按中继计算: 先选出本次使用的中继, 再从它的限流器取令牌
+            SmtpRelay relay = mailSender.selectRelay();
+            if (relay == null) {
+                markDeferred(email, NO_RELAY_AVAILABLE);
                 emailDao.saveEmail(email);
-                throw e;
-            }
-            
-            helper.setSubject(email.getEmailName());
-            
-            // Set recipients
-            if (email.getTo() != null && !email.getTo().isEmpty()) {
-                helper.setTo(email.getTo().toArray(new String[0]));
-            } else {
-                logger.warn("No recipients specified for email: {}", email.getId());
-                throw new MessagingException("No recipients specified");
+                logger.info("Email {} deferred: {}", email.getId(), NO_RELAY_AVAILABLE);
+                return true;
             }
             
-            if (email.getCc() != null && !email.getCc().isEmpty()) {
-                helper.setCc(email.getCc().toArray(new String[0]));
-            }
-            
-            // 先处理模板中的内嵌图片, 确保图片在内容设置前已准备好
-            try {
-                if (template != null && template.getContent() != null) {
-                    // 解析JSON以找出可能的图片引用
-                    ObjectMapper objectMapper = new ObjectMapper();
-                    JsonNode rootNode = objectMapper.readTree(template.getContent());
-                    
-                    // 创建一个图片资源目录
-                    String imageResourcePath = attachmentPath + "/images";
-                    File imageDir = new File(imageResourcePath);
-                    if (!imageDir.exists()) {
-                        imageDir.mkdirs();
-                    }
-                    
-                    // 查找并处理所有图片节点
-                    processImagesInJsonNode(rootNode, helper, imageResourcePath);
-                }
-            } catch (Exception e) {
-                logger.warn("无法处理模板中的内嵌图片: {}", e.getMessage());
+            // 收件人过多时拆分为多个信封并行发送, 每个分片占用一个令牌, 结果按分片汇总到邮件状态
+            if (needsChunking(email)) {
+                sendChunked(email, relay);
+                emailDao.saveEmail(email);
+                logger.info("Chunked email {} finished with status {}", email.getId(), email.getStatus());
+                return true;
             }
             
-            // Set content from template or default content
-            String content = "This is an automated email.";
-            try {
-                if (template != null) {
-                    if (template.getContent() != null) {
-                        logger.debug("Converting template content to HTML for email: {}", email.getId());
-                        content = JsonToHtmlConverter.convertJsonToHtml(template.getContent());
-                        logger.debug("Template content converted successfully");
-                    } else {
-                        logger.warn("Template {} has null content, using default content for email: {}", 
-                                template.getId(), email.getId());
-                    }
-                } else {
-                    logger.warn("No template found for templateId: {}, using default content for email: {}", 
-                            email.getContentTemplateId(), email.getId());
-                }
-            } catch (Exception e) {
-                logger.error("Error converting template content to HTML for email {}: {}", 
-                        email.getId(), e.getMessage(), e);
-                content = "<html><body><p>Error parsing template: " + e.getMessage() + "</p></body></html>";
+            // 非阻塞限流: 没有可用令牌时不占用工作线程, 邮件回到队列等待
+            if (!mailSender.getRateLimiter(relay).tryAcquire()) {
+                markDeferred(email, "Rate limit reached for relay " + relay.getName());
+                emailDao.saveEmail(email);
+                logger.info("Email {} deferred by rate limiter for {}", email.getId(), relay.getName());
+                return true;
             }
             
-            // 设置邮件内容
-            String emailContent = content;
-            logger.debug("正在设置邮件内容: 长度={}", emailContent.length());
-            
-            // 简化设置, 只使用一次setText方法, 避免重复设置造成的问题
-            helper.setText(emailContent, true);
-            // 不要添加额外的头信息, 避免混淆邮件客户端
-            logger.debug("邮件内容设置完成");
-            
-            // Add attachments if any
-            if (email.getAttachments() != null && !email.getAttachments().isEmpty()) {
-                for (String attachment : email.getAttachments()) {
-                    File file = new File(attachmentPath + "/" + attachment);
-                    if (file.exists()) {
-                        FileSystemResource resource = new FileSystemResource(file);
-                        helper.addAttachment(file.getName(), resource);
-                        logger.info("Attachment added: {}", file.getName());
-                    } else {
-                        logger.warn("Attachment not found: {}", file.getAbsolutePath());
-                    }
-                }
-            }
+            MimeMessage message = buildMessage(email, email.getTo(), email.getCc());
             
             try {
                 // Send email
-                mailSender.send(message);
+                mailSender.send(relay, message);
                 
-                // Update email status
-                email.setStatus("SENT");
-                email.setSentTime(now);
-                email.setErrorMessage(null);
+                // Update email status; 清除本次投递的幂等键和重试状态, 之后重新发送会使用新的Message-ID
+                markSent(email, now);
                 emailDao.saveEmail(email);
                 
                 logger.info("Email sent successfully: {}", email.getId());
             } catch (Exception e) {
+                if (SmtpFailures.isThrottled(e)) {
+                    // 4xx临时失败: 中继的速率已由路由器调低, 邮件保持排队而不是标记失败
+                    markDeferred(email, "Deferred by relay: " + e.getMessage());
+                    emailDao.saveEmail(email);
+                    logger.warn("Email {} deferred by relay {}: {}", email.getId(), relay.getName(), e.getMessage());
+                    return true;
+                }
                 logger.error("Failed to create email message: {}", e.getMessage(), e);
-                email.setStatus("FAILED");
-                email.setErrorMessage(e.getMessage());
+                markFailed(email, e.getMessage(), SmtpFailures.classify(e));
                 emailDao.saveEmail(email);
                 
                 // 如果是身份验证错误, 给出更详细的提示
@@ -206,116 +236,876 @@ public class EmailSenderService {
                 }
             }
         } catch (MessagingException e) {
+            // 邮件本身无法组装(地址错误、没有收件人等), 重试也不会成功
             logger.error("Failed to create email message: {}", e.getMessage(), e);
-            email.setStatus("FAILED");
-            email.setErrorMessage(e.getMessage());
+            markFailed(email, e.getMessage(), SmtpFailures.PERMANENT);
             emailDao.saveEmail(email);
         } catch (Exception e) {
             logger.error("Unexpected error when sending email: {}", e.getMessage(), e);
-            email.setStatus("FAILED");
-            email.setErrorMessage("Unexpected error: " + e.getMessage());
+            markFailed(email, "Unexpected error: " + e.getMessage(), SmtpFailures.classify(e));
             emailDao.saveEmail(email);
         }
+        return true;
     }
     
-    public void resendFailedEmail(String emailId) {
-        Email email = emailDao.findEmailById(emailId);
-        if (email != null && "FAILED".equals(email.getStatus())) {
-            email.setErrorMessage(null);
-            emailDao.saveEmail(email);
-            sendEmail(emailId);
-        } else if (email == null) {
-            logger.error("Cannot resend - email not found with id: {}", emailId);
-        } else {
-            logger.warn("Cannot resend - email is not in FAILED status: {}", emailId);
+    /**
+     * 发送周期邮件的一次触发: 内容和收件人取自周期邮件定义, 结果只记录在执行记录上, 不改动邮件本身的状态.
+     * 执行记录id作为本次触发的幂等键写入Message-ID; 收件人较多时按信封分片依次发送
+     */
+    public void sendExecution(EmailExecution execution) {
+        Email email = emailDao.findEmailById(execution.getEmailId());
+        if (email == null) {
+            finishExecution(execution, "FAILED", "Email not found with ID: " + execution.getEmailId(), SmtpFailures.PERMANENT);
+            return;
+        }
+        execution.setStatus("SENDING");
+        emailExecutionDao.save(execution);
+        
+        if (testMode) {
+            logger.info("TEST MODE: Recurring email {} would be sent to: {}", email.getId(), email.getTo());
+            finishExecution(execution, "SENT", null, null);
+            return;
+        }
+        
+        SmtpRelay relay = mailSender.selectRelay();
+        if (relay == null) {
+            finishExecution(execution, "FAILED", NO_RELAY_AVAILABLE, SmtpFailures.TRANSIENT);
+            return;
+        }
+        AdaptiveRateLimiter limiter = mailSender.getRateLimiter(relay);
+        try {
+            // 在定时发送专用线程池上执行, 每个分片占用一个令牌; 令牌不足时短暂等待而不是回到发送队列
+            long waitUntil = System.currentTimeMillis() + executionRateWaitMillis;
+            if (!awaitPermit(limiter, waitUntil)) {
+                finishExecution(execution, "FAILED", "Rate limit reached for relay " + relay.getName(), SmtpFailures.TRANSIENT);
+                return;
+            }
+            
+            // 只修改内存中的副本: Message-ID使用本次执行的id
+            email.setSendAttemptId(execution.getId());
+            MessageBody body = loadMessageBody(email);
+            List<RecipientChunk> chunks = planChunks(email);
+            int sentChunks = 0;
+            Exception lastFailure = null;
+            String failureClass = null;
+            for (RecipientChunk chunk : chunks) {
+                if (chunk.getIndex() > 0 && !awaitPermit(limiter, waitUntil)) {
+                    // 剩余分片等不到令牌: 按临时失败记录, 本次执行为部分发送
+                    lastFailure = new MessagingException("Rate limit reached for relay " + relay.getName() + " after "
+                            + sentChunks + " of " + chunks.size() + " recipient chunks");
+                    failureClass = SmtpFailures.TRANSIENT;
+                    break;
+                }
+                try {
+                    String suffix = chunks.size() > 1 ? "c" + chunk.getIndex() : null;
+                    mailSender.send(relay, buildMessage(email, body, chunk.getTo(), chunk.getCc(), suffix));
+                    sentChunks++;
+                } catch (Exception e) {
+                    lastFailure = e;
+                    failureClass = e instanceof MessagingException ? SmtpFailures.PERMANENT : SmtpFailures.classify(e);
+                    logger.warn("Recurring email {} execution {} chunk {} failed: {}", email.getId(), execution.getId(),
+                            chunk.getIndex(), e.getMessage());
+                }
+            }
+            execution.setSentChunks(sentChunks);
+            execution.setFailedChunks(chunks.size() - sentChunks);
+            if (lastFailure == null) {
+                finishExecution(execution, "SENT", null, null);
+            } else {
+                finishExecution(execution, sentChunks > 0 ? "PARTIALLY_SENT" : "FAILED", lastFailure.getMessage(), failureClass);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            finishExecution(execution, "FAILED", "Interrupted while waiting for relay capacity", SmtpFailures.TRANSIENT);
+        } catch (Exception e) {
+            logger.error("Recurring email {} execution {} failed: {}", email.getId(), execution.getId(), e.getMessage(), e);
+            finishExecution(execution, "FAILED", e.getMessage(),
+                    e instanceof MessagingException ? SmtpFailures.PERMANENT : SmtpFailures.classify(e));
         }
     }
     
     /**
-     * 递归处理JSON节点中的所有图片
+     * 等待一个令牌, 最多等到waitUntil; 只用于定时发送专用线程池
      */
-    private void processImagesInJsonNode(JsonNode node, MimeMessageHelper helper, String imageResourcePath) throws Exception {
-        if (node == null) {
-            return;
+    private boolean awaitPermit(AdaptiveRateLimiter limiter, long waitUntil) throws InterruptedException {
+        while (!limiter.tryAcquire()) {
+            if (System.currentTimeMillis() >= waitUntil) {
+                return false;
+            }
+            Thread.sleep(getDeferDelayMillis());
+        }
+        return true;
+    }
+    
+    private void finishExecution(EmailExecution execution, String status, String errorMessage, String failureClass) {
+        execution.setStatus(status);
+        execution.setErrorMessage(errorMessage);
+        execution.setFailureClass(failureClass);
+        execution.setFinishTime(new Date());
+        emailExecutionDao.save(execution);
+        logger.info("Recurring email {} execution {} finished with status {}", execution.getEmailId(), execution.getId(), status);
+    }
+    
+    /**
+     * 批量发送: 将多封邮件分组后通过同一个SMTP会话发送, 每组的状态更新合并为一次Mongo批量写入.
+     * 活动邮件(campaign)不在这里认领或发送, 只在结果的campaigns中列出, 由调用方交给CampaignService逐收件人发送
+     */
+    public Map<String, Object> sendBatch(List<String> emailIds) {
+        Map<String, Object> result = new HashMap<>();
+        Map<String, String> failures = new LinkedHashMap<>();
+        List<String> notFound = new ArrayList<>();
+        List<String> skipped = new ArrayList<>();
+        int sent = 0;
+        int scheduled = 0;
+        
+        Date now = new Date();
+        List<Email> sendable = new ArrayList<>();
+        List<Email> updates = new ArrayList<>();
+        List<String> deferred = new ArrayList<>();
+        List<Email> chunked = new ArrayList<>();
+        List<Email> scheduledEmails = new ArrayList<>();
+        int partiallySent = 0;
+        
+        Set<String> uniqueIds = new LinkedHashSet<>(emailIds);
+        List<String> campaigns = emailDao.findCampaignIds(uniqueIds);
+        if (!campaigns.isEmpty()) {
+            logger.info("Batch send leaves {} campaign email(s) to the campaign path: {}", campaigns.size(), campaigns);
+            uniqueIds.removeAll(campaigns);
+        }
+        
+        for (String emailId : uniqueIds) {
+            Email email = claimForSend(emailId);
+            if (email == null) {
+                if (emailDao.existsById(emailId)) {
+                    logger.warn("Batch send skipped email {}: already sent or being sent", emailId);
+                    skipped.add(emailId);
+                } else {
+                    logger.warn("Batch send skipped missing email: {}", emailId);
+                    notFound.add(emailId);
+                }
+                continue;
+            }
+            
+            if (email.getSentTime() != null && email.getSentTime().after(now)) {
+                email.setStatus("SCHEDULED");
+                updates.add(email);
+                scheduledEmails.add(email);
+                scheduled++;
+                continue;
+            }
+            
+            if (testMode) {
+                logger.info("TEST MODE: Email would be sent to: {} with subject: {}", email.getTo(), email.getEmailName());
+                markSent(email, now);
+                updates.add(email);
+                sent++;
+                continue;
+            }
+            
+            if (needsChunking(email)) {
+                chunked.add(email);
+                continue;
+            }
+            
+            sendable.add(email);
         }
         
-        if (node.isObject()) {
-            String nodeType = node.path("type").asText();
+        int next = 0;
+        while (next < sendable.size()) {
+            // 每组选一个中继, 按它当前可用的令牌数决定本组大小; 令牌不足时剩余邮件回到队列, 不阻塞工作线程
+            SmtpRelay relay = mailSender.selectRelay();
+            int granted = relay == null ? 0 : mailSender.getRateLimiter(relay).tryAcquireUpTo(Math.min(batchSize, sendable.size() - next));
+            if (granted == 0) {
+                String reason = relay == null ? NO_RELAY_AVAILABLE : "Rate limit reached for relay " + relay.getName();
+                for (Email email : sendable.subList(next, sendable.size())) {
+                    markDeferred(email, reason);
+                    updates.add(email);
+                    deferred.add(email.getId());
+                }
+                break;
+            }
             
-            // 特殊处理HTML节点, 查找<img>标签
-            if ("html".equals(nodeType) && node.has("values") && node.path("values").has("html")) {
-                String htmlContent = node.path("values").path("html").asText();
-                processImagesInHtml(htmlContent, helper, imageResourcePath);
+            List<Email> groupEmails = new ArrayList<>();
+            List<MimeMessage> messages = new ArrayList<>();
+            for (Email email : sendable.subList(next, next + granted)) {
+                try {
+                    messages.add(buildMessage(email, email.getTo(), email.getCc()));
+                    groupEmails.add(email);
+                } catch (Exception e) {
+                    logger.error("Failed to create email message {}: {}", email.getId(), e.getMessage(), e);
+                    markFailed(email, e.getMessage(), SmtpFailures.PERMANENT);
+                    updates.add(email);
+                    failures.put(email.getId(), e.getMessage());
+                }
             }
+            next += granted;
             
-            // 处理图片节点
-            if ("image".equals(nodeType) && node.has("values") && node.path("values").has("src")) {
-                String imageUrl = node.path("values").path("src").asText();
-                
-                if (!imageUrl.startsWith("http://") && !imageUrl.startsWith("https://") && !imageUrl.startsWith("data:")) {
-                    String imgFileName = getFileNameFromPath(imageUrl);
-                    if (imgFileName != null && !imgFileName.isEmpty()) {
-                        String contentId = generateContentId(imgFileName);
-                        processImageFile(imgFileName, imageUrl, contentId, helper, imageResourcePath);
-                    }
+            MimeMessage[] groupMessages = messages.toArray(new MimeMessage[0]);
+            Map<Object, Exception> failedMessages = Collections.emptyMap();
+            try {
+                mailSender.send(relay, groupMessages);
+            } catch (MailSendException e) {
+                failedMessages = e.getFailedMessages();
+                logger.error("Batch group send had {} failures: {}", failedMessages.size(), e.getMessage());
+            } catch (Exception e) {
+                logger.error("Batch group send failed: {}", e.getMessage(), e);
+                failedMessages = new IdentityHashMap<>();
+                for (MimeMessage message : groupMessages) {
+                    failedMessages.put(message, e);
                 }
             }
             
-            // 递归处理所有字段
-            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
-            while (fields.hasNext()) {
-                Map.Entry<String, JsonNode> entry = fields.next();
-                processImagesInJsonNode(entry.getValue(), helper, imageResourcePath);
+            Date sentTime = new Date();
+            boolean throttled = false;
+            for (int i = 0; i < groupMessages.length; i++) {
+                Email email = groupEmails.get(i);
+                Exception failure = failedMessages.get(groupMessages[i]);
+                if (failure == null) {
+                    markSent(email, sentTime);
+                    sent++;
+                } else if (SmtpFailures.isThrottled(failure)) {
+                    throttled = true;
+                    markDeferred(email, "Deferred by relay: " + failure.getMessage());
+                    deferred.add(email.getId());
+                } else {
+                    markFailed(email, failure.getMessage(), SmtpFailures.classify(failure));
+                    failures.put(email.getId(), failure.getMessage());
+                }
+                updates.add(email);
             }
-        } else if (node.isArray()) {
-            for (JsonNode element : node) {
-                processImagesInJsonNode(element, helper, imageResourcePath);
+            
+            emailDao.bulkUpdateStatus(updates);
+            updates.clear();
+            logger.info("Batch group of {} emails processed", groupMessages.length);
+            
+            if (throttled) {
+                // 中继服务器返回4xx: 路由器已降低它的速率, 剩余邮件稍后重新排队
+                for (Email email : sendable.subList(next, sendable.size())) {
+                    markDeferred(email, "Relay " + relay.getName() + " is throttling");
+                    updates.add(email);
+                    deferred.add(email.getId());
+                }
+                break;
             }
         }
+        
+        // 大收件人列表的邮件逐封按分片发送
+        for (Email email : chunked) {
+            if (!deferred.isEmpty()) {
+                markDeferred(email, "Rate limit reached, earlier emails of this batch were deferred");
+                updates.add(email);
+                deferred.add(email.getId());
+                continue;
+            }
+            try {
+                SmtpRelay relay = mailSender.selectRelay();
+                if (relay == null) {
+                    markDeferred(email, NO_RELAY_AVAILABLE);
+                } else {
+                    sendChunked(email, relay);
+                }
+            } catch (Exception e) {
+                logger.error("Failed to send chunked email {}: {}", email.getId(), e.getMessage(), e);
+                markFailed(email, e.getMessage(), e instanceof MessagingException ? SmtpFailures.PERMANENT : SmtpFailures.classify(e));
+            }
+            emailDao.saveEmail(email);
+            if ("SENT".equals(email.getStatus())) {
+                sent++;
+            } else if ("QUEUED".equals(email.getStatus())) {
+                // 令牌不够发完所有分片, 剩余分片随邮件回到队列
+                deferred.add(email.getId());
+            } else {
+                if ("PARTIALLY_SENT".equals(email.getStatus())) {
+                    partiallySent++;
+                }
+                failures.put(email.getId(), email.getErrorMessage());
+            }
+        }
+        emailDao.bulkUpdateStatus(updates);
+        for (Email email : scheduledEmails) {
+            eventPublisher.publishEvent(new EmailScheduleChangedEvent(email.getId(), email.getStatus(), email.getSentTime()));
+        }
+        
+        result.put("requested", emailIds.size());
+        result.put("sent", sent);
+        result.put("partiallySent", partiallySent);
+        result.put("scheduled", scheduled);
+        result.put("failed", failures.size());
+        result.put("failures", failures);
+        result.put("notFound", notFound);
+        result.put("skipped", skipped);
+        result.put("deferred", deferred);
+        result.put("campaigns", campaigns);
+        return result;
+    }
+    
+    private boolean needsChunking(Email email) {
+        int recipients = (email.getTo() == null ? 0 : email.getTo().size()) + (email.getCc() == null ? 0 : email.getCc().size());
+        return recipients > recipientChunkSize;
     }
     
-    // 添加新方法: 处理HTML内容中的图片
-    private void processImagesInHtml(String htmlContent, MimeMessageHelper helper, String imageResourcePath) throws Exception {
-        if (htmlContent == null || htmlContent.isEmpty()) {
+    /**
+     * 按信封分片发送: To在前、Cc在后, 每片最多recipientChunkSize个RCPT, 拿到令牌的分片并行发送.
+     * 每个分片占用当前中继的一个令牌; 令牌不足时其余分片保持原状态, 邮件回到QUEUED.
+     * 之后的发送(包括重试)跳过已发送的分片, 已发送的收件人不会重复收到邮件
+     */
+    private void sendChunked(Email email, SmtpRelay relay) throws MessagingException {
+        List<RecipientChunk> chunks = email.getRecipientChunks();
+        if (chunks == null || chunks.isEmpty()) {
+            chunks = planChunks(email);
+            email.setRecipientChunks(chunks);
+        }
+        
+        List<RecipientChunk> unsent = new ArrayList<>();
+        for (RecipientChunk chunk : chunks) {
+            if (!"SENT".equals(chunk.getStatus())) {
+                unsent.add(chunk);
+            }
+        }
+        int granted = mailSender.getRateLimiter(relay).tryAcquireUpTo(unsent.size());
+        if (granted == 0) {
+            markDeferred(email, "Rate limit reached for relay " + relay.getName());
             return;
         }
         
-        // 使用正则表达式查找所有<img>标签的src属性
-        Pattern pattern = Pattern.compile("<img[^>]+src\\s*=\\s*['\"]([^'\"]+)['\"][^>]*>", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(htmlContent);
+        MessageBody body = loadMessageBody(email);
+        Map<RecipientChunk, Future<?>> futures = new LinkedHashMap<>();
+        for (RecipientChunk chunk : unsent.subList(0, granted)) {
+            try {
+                MimeMessage message = buildMessage(email, body, chunk.getTo(), chunk.getCc(), "c" + chunk.getIndex());
+                futures.put(chunk, emailChunkExecutor.submit(() -> mailSender.send(relay, message)));
+            } catch (MessagingException e) {
+                markChunkFailed(chunk, e, SmtpFailures.PERMANENT);
+            }
+        }
         
-        while (matcher.find()) {
-            String imageUrl = matcher.group(1);
-            
-            // 只处理本地图片 (非http/https/data:开头的URL)
-            if (!imageUrl.startsWith("http://") && !imageUrl.startsWith("https://") && !imageUrl.startsWith("data:")) {
-                String imgFileName = getFileNameFromPath(imageUrl);
-                if (imgFileName != null && !imgFileName.isEmpty()) {
-                    String contentId = generateContentId(imgFileName);
-                    logger.debug("Found image in HTML: {}, contentId: {}", imgFileName, contentId);
-                    processImageFile(imgFileName, imageUrl, contentId, helper, imageResourcePath);
+        for (Map.Entry<RecipientChunk, Future<?>> entry : futures.entrySet()) {
+            RecipientChunk chunk = entry.getKey();
+            try {
+                entry.getValue().get();
+                chunk.setStatus("SENT");
+                chunk.setSentTime(new Date());
+                chunk.setErrorMessage(null);
+                chunk.setFailureClass(null);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                markChunkFailed(chunk, cause, SmtpFailures.classify(cause));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                markChunkFailed(chunk, e, SmtpFailures.TRANSIENT);
+            }
+        }
+        if (granted < unsent.size()) {
+            markDeferred(email, "Rate limit reached for relay " + relay.getName() + ": " + (unsent.size() - granted)
+                    + " of " + chunks.size() + " recipient chunks waiting");
+            return;
+        }
+        rollUpChunks(email, chunks);
+    }
+    
+    private List<RecipientChunk> planChunks(Email email) {
+        List<String> to = email.getTo() == null ? Collections.emptyList() : email.getTo();
+        List<String> cc = email.getCc() == null ? Collections.emptyList() : email.getCc();
+        List<RecipientChunk> chunks = new ArrayList<>();
+        int total = to.size() + cc.size();
+        for (int start = 0; start < total; start += recipientChunkSize) {
+            int end = Math.min(total, start + recipientChunkSize);
+            RecipientChunk chunk = new RecipientChunk();
+            chunk.setIndex(chunks.size());
+            chunk.setTo(new ArrayList<>(to.subList(Math.min(start, to.size()), Math.min(end, to.size()))));
+            chunk.setCc(new ArrayList<>(cc.subList(Math.max(0, start - to.size()), Math.max(0, end - to.size()))));
+            chunk.setStatus("PENDING");
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+    
+    private void markChunkFailed(RecipientChunk chunk, Throwable failure, String failureClass) {
+        logger.warn("Recipient chunk {} failed ({}): {}", chunk.getIndex(), failureClass, failure.getMessage());
+        chunk.setStatus("FAILED");
+        chunk.setErrorMessage(failure.getMessage());
+        chunk.setFailureClass(failureClass);
+    }
+    
+    /**
+     * 汇总分片结果: 全部成功为SENT, 全部失败按普通失败处理, 部分成功为PARTIALLY_SENT(有临时失败的分片时安排重试)
+     */
+    private void rollUpChunks(Email email, List<RecipientChunk> chunks) {
+        int sentChunks = 0;
+        RecipientChunk firstFailed = null;
+        boolean transientFailure = false;
+        for (RecipientChunk chunk : chunks) {
+            if ("SENT".equals(chunk.getStatus())) {
+                sentChunks++;
+            } else {
+                if (firstFailed == null) {
+                    firstFailed = chunk;
                 }
+                transientFailure |= SmtpFailures.TRANSIENT.equals(chunk.getFailureClass());
             }
         }
+        
+        Date now = new Date();
+        if (firstFailed == null) {
+            markSent(email, now);
+            return;
+        }
+        String errorMessage = (chunks.size() - sentChunks) + " of " + chunks.size() + " recipient chunks failed: "
+                + firstFailed.getErrorMessage();
+        String failureClass = transientFailure ? SmtpFailures.TRANSIENT : SmtpFailures.PERMANENT;
+        if (sentChunks == 0) {
+            markFailed(email, errorMessage, failureClass);
+            return;
+        }
+        
+        int retryCount = email.getRetryCount() == null ? 0 : email.getRetryCount();
+        email.setStatus("PARTIALLY_SENT");
+        email.setSentTime(now);
+        email.setErrorMessage(errorMessage);
+        email.setFailureClass(failureClass);
+        if (transientFailure && retryPolicy.canRetry(retryCount)) {
+            email.setNextAttemptAt(retryPolicy.nextAttemptAt(retryCount));
+            email.setRetryCount(retryCount + 1);
+        } else {
+            email.setNextAttemptAt(null);
+        }
+    }
+    
+    /**
+     * 抢占邮件的发送权, 见 {@link com.citi.custody.dao.EmailDaoCustom#claimForSend}
+     */
+    Email claimForSend(String emailId) {
+        return emailDao.claimForSend(emailId, InstanceIdUtil.getInstanceId(), sendLeaseMillis);
+    }
+    
+    /**
+     * 延长本实例持有的SENDING租约; 返回false表示租约已丢失(已被回收)
+     */
+    boolean renewClaim(String emailId) {
+        return emailDao.renewLease(emailId, InstanceIdUtil.getInstanceId(), sendLeaseMillis);
+    }
+    
+    /**
+     * 最早有令牌的中继的等待时间: 被延迟的邮件在这之后重新排队
+     */
+    public long getDeferDelayMillis() {
+        long wait = Long.MAX_VALUE;
+        for (SmtpRelay relay : mailSender.getRelays()) {
+            wait = Math.min(wait, mailSender.getRateLimiter(relay).millisUntilAvailable(1));
+        }
+        return Math.max(minDeferDelayMillis, wait == Long.MAX_VALUE ? 0 : wait);
+    }
+    
+    private void markDeferred(Email email, String reason) {
+        email.setStatus("QUEUED");
+        email.setErrorMessage(reason);
+    }
+    
+    private void markSent(Email email, Date sentTime) {
+        email.setStatus("SENT");
+        email.setSentTime(sentTime);
+        email.setErrorMessage(null);
+        email.setNextAttemptAt(null);
+        email.setFailureClass(null);
+        email.setSendAttemptId(null);
+    }
+    
+    /**
+     * 记录发送失败: 临时失败在重试次数内按退避时间安排自动重试, 永久失败或重试用尽进入死信状态
+     */
+    void markFailed(Email email, String errorMessage, String failureClass) {
+        int retryCount = email.getRetryCount() == null ? 0 : email.getRetryCount();
+        email.setErrorMessage(errorMessage);
+        email.setFailureClass(failureClass);
+        if (SmtpFailures.TRANSIENT.equals(failureClass) && retryPolicy.canRetry(retryCount)) {
+            email.setStatus("FAILED");
+            email.setNextAttemptAt(retryPolicy.nextAttemptAt(retryCount));
+            email.setRetryCount(retryCount + 1);
+            logger.info("Email {} will be retried at {} (retry {}/{})", email.getId(), email.getNextAttemptAt(),
+                    retryCount + 1, retryPolicy.getMaxAttempts());
+        } else {
+            email.setStatus("DEAD_LETTER");
+            email.setNextAttemptAt(null);
+            logger.warn("Email {} moved to dead letter after {} retries ({}): {}", email.getId(), retryCount,
+                    failureClass, errorMessage);
+        }
+    }
+    
+    /**
+     * 组装邮件: 发件人、收件人、模板内容、内嵌图片和附件. 收件人单独传入, 以便活动邮件按收件人逐一组装.
+     * 正文(HTML、内嵌图片、附件)编码一次后缓存, 每封邮件只在缓存副本上设置收件人和主题
+     */
+    MimeMessage buildMessage(Email email, List<String> to, List<String> cc) throws MessagingException {
+        return buildMessage(email, loadMessageBody(email), to, cc, null);
+    }
+    
+    /**
+     * 在正文上设置收件人和主题; 活动邮件对所有收件人复用同一份正文.
+     * Message-ID由幂等键(加上分片/收件人后缀)生成, 同一次投递重发时保持不变, 便于接收端去重
+     */
+    MimeMessage buildMessage(Email email, MessageBody body, List<String> to, List<String> cc, String messageIdSuffix)
+            throws MessagingException {
+        if ((to == null || to.isEmpty()) && (cc == null || cc.isEmpty())) {
+            logger.warn("No recipients specified for email: {}", email.getId());
+            throw new MessagingException("No recipients specified");
+        }
+        
+        MimeMessage message;
+        if (body.isStreamed()) {
+            // 流式正文每封邮件重新组装, HTML在发送时直接写到传输连接
+            message = buildMessageBody(email, body.getTemplate(), null, body.getVariables());
+        } else {
+            // SharedByteArrayInputStream: 解析时各部分直接引用缓存的字节, 不复制也不重新编码
+            message = mailSender.createMimeMessage(new SharedByteArrayInputStream(body.getEncoded()));
+        }
+        MimeMessageHelper helper = new MimeMessageHelper(message, "UTF-8");
+        helper.setSubject(email.getEmailName());
+        if (to != null && !to.isEmpty()) {
+            helper.setTo(to.toArray(new String[0]));
+        }
+        if (cc != null && !cc.isEmpty()) {
+            helper.setCc(cc.toArray(new String[0]));
+        }
+        if (email.getSendAttemptId() != null) {
+            String domain = sender.contains("@") ? sender.substring(sender.lastIndexOf('@') + 1).trim() : "localhost";
+            String suffix = messageIdSuffix != null ? "." + messageIdSuffix : "";
+            message.setHeader(HEADER_MESSAGE_ID, "<" + email.getSendAttemptId() + suffix + "@" + domain + ">");
+        }
+        return message;
     }
     
-    // 从路径中提取文件名
-    private String getFileNameFromPath(String path) {
-        if (path == null || path.isEmpty()) {
+    public Map<String, Object> getMimeCacheStats() {
+        Map<String, Object> stats = mimeBodyCache.getStats();
+        stats.put("personalized", personalizedBodyCache.getStats());
+        return stats;
+    }
+    
+    /**
+     * 返回邮件正文. 缓存键包含发件人、模板版本和附件文件签名, 模板或附件变化后自然失效.
+     * 大模板和含数据表格的模板不编码成字节也不缓存, 返回流式正文, 内存占用不随模板大小和表格行数增长
+     */
+    MessageBody loadMessageBody(Email email) throws MessagingException {
+        // 表格数据源每次发送时重新获取, 这样的正文不缓存
+        String key = mimeCacheEnabled && !hasDataSources(email) ? bodyCacheKey(email) : null;
+        byte[] body = key != null ? mimeBodyCache.get(key) : null;
+        if (body != null) {
+            return MessageBody.encoded(body);
+        }
+        
+        TemplateInfo template = loadTemplate(email);
+        if (streamsBody(template)) {
+            boolean hasVariables = templateRenderService.shouldStream(template)
+                    ? prepareStreaming(template).hasVariables() : templateRenderService.getPlan(template).hasVariables();
+            return MessageBody.streamed(template, renderVariables(email), hasVariables);
+        }
+        body = encodeBody(buildMessageBody(email, template, null, renderVariables(email)));
+        if (key != null) {
+            mimeBodyCache.put(key, body);
+            logger.debug("Cached encoded body for email {} ({} bytes)", email.getId(), body.length);
+        }
+        return MessageBody.encoded(body);
+    }
+    
+    /**
+     * 模板含{{name}}占位符时返回按收件人填充的正文, 否则返回null, 调用方继续共用{@link #loadMessageBody}的正文.
+     * 填充时使用邮件级变量加上调用方提供的收件人变量. 大模板和含数据表格的模板也返回null: 填充会在内存中生成整个HTML,
+     * 这时由调用方用{@link MessageBody#withVariables}按收件人流式发送
+     */
+    PersonalizedBody loadPersonalizedBody(Email email) throws MessagingException {
+        String key = mimeCacheEnabled ? bodyCacheKey(email) : null;
+        PersonalizedBody body = key != null ? personalizedBodyCache.get(key) : null;
+        if (body != null) {
+            return body;
+        }
+        
+        TemplateInfo template = loadTemplate(email);
+        if (template == null || template.getContent() == null) {
+            return null;
+        }
+        if (streamsBody(template)) {
+            return null;
+        }
+        RenderPlan plan = templateRenderService.getPlan(template);
+        if (!plan.hasVariables()) {
             return null;
         }
         
-        int lastSlashIndex = path.lastIndexOf('/');
-        if (lastSlashIndex >= 0 && lastSlashIndex < path.length() - 1) {
-            return path.substring(lastSlashIndex + 1);
+        // 先用唯一标记代替HTML编码出整封邮件, 再按标记位置切成前后两段
+        String marker = "personalized" + UUID.randomUUID().toString().replace("-", "");
+        body = new PersonalizedBody(encodeBody(buildMessageBody(email, template, marker, Collections.emptyMap())),
+                marker, plan::writeTo);
+        if (key != null) {
+            personalizedBodyCache.put(key, body);
+            logger.debug("Cached personalized body for email {} ({} bytes around the HTML part)", email.getId(), body.getEncodedLength());
+        }
+        return body;
+    }
+    
+    /**
+     * Variables every message of the email is rendered with.
+     */
+    Map<String, String> emailVariables(Email email) {
+        return email.getVariables() != null ? email.getVariables() : Collections.emptyMap();
+    }
+    
+    /**
+     * Email variables plus every data source the email binds. A data source is opened each time the HTML is
+     * written and its table rows are parsed from the response stream as they arrive; nothing is fetched here.
+     */
+    Map<String, Object> renderVariables(Email email) throws MessagingException {
+        Map<String, Object> variables = new HashMap<>(emailVariables(email));
+        if (hasDataSources(email)) {
+            for (Map.Entry<String, String> source : email.getDataSources().entrySet()) {
+                variables.put(source.getKey(), fetchDataSource(source.getValue()));
+            }
+        }
+        return variables;
+    }
+    
+    private boolean hasDataSources(Email email) {
+        return email.getDataSources() != null && !email.getDataSources().isEmpty();
+    }
+    
+    private StreamingHtmlRenderer.JsonSource fetchDataSource(String source) throws MessagingException {
+        if (source == null || !source.startsWith(ROD_DATA_SOURCE)) {
+            throw new MessagingException("Unsupported data source: " + source);
+        }
+        String releaseId = source.substring(ROD_DATA_SOURCE.length());
+        // 请求失败时表现为写出邮件时的IOException, 由发送方按失败类型处理
+        return StreamingHtmlRenderer.JsonSource.of(() -> {
+            try {
+                return rodService.openData(releaseId);
+            } catch (Exception e) {
+                throw new IOException("Failed to fetch data source " + source + ": " + e.getMessage(), e);
+            }
+        });
+    }
+    
+    /**
+     * 大模板和含数据表格的模板不编码成字节, 每封邮件在写出时渲染
+     */
+    private boolean streamsBody(TemplateInfo template) {
+        if (template == null || template.getContent() == null) {
+            return false;
+        }
+        return templateRenderService.shouldStream(template)
+                || !templateRenderService.getPlan(template).getTableSources().isEmpty();
+    }
+    
+    private StreamingHtmlRenderer.Prepared prepareStreaming(TemplateInfo template) throws MessagingException {
+        try {
+            return templateRenderService.prepareStreaming(template);
+        } catch (IOException e) {
+            throw new MessagingException("Failed to read template " + template.getId() + ": " + e.getMessage(), e);
+        }
+    }
+    
+    private TemplateInfo loadTemplate(Email email) {
+        if (email.getContentTemplateId() != null && !email.getContentTemplateId().isEmpty()) {
+            return templateService.getTemplateById(email.getContentTemplateId());
+        }
+        return null;
+    }
+    
+    private byte[] encodeBody(MimeMessage base) throws MessagingException {
+        base.saveChanges();
+        // 每封邮件由发送方生成自己的Message-ID和发送时间
+        base.removeHeader(HEADER_MESSAGE_ID);
+        base.removeHeader(HEADER_DATE);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            base.writeTo(out);
+        } catch (IOException e) {
+            throw new MessagingException("Failed to encode message body: " + e.getMessage(), e);
+        }
+        return out.toByteArray();
+    }
+    
+    private String bodyCacheKey(Email email) {
+        StringBuilder key = new StringBuilder(sender).append('|');
+        String templateId = email.getContentTemplateId();
+        if (templateId != null && !templateId.isEmpty()) {
+            String version = templateService.getTemplateVersion(templateId);
+            key.append(version != null ? version : "missing:" + templateId);
+        }
+        key.append('|');
+        if (email.getAttachments() != null) {
+            for (String attachment : email.getAttachments()) {
+                File file = new File(attachmentPath + "/" + attachment);
+                key.append(attachment).append(':').append(file.length()).append(':').append(file.lastModified()).append(',');
+            }
+        }
+        if (email.getVariables() != null && !email.getVariables().isEmpty()) {
+            // 邮件级变量会渲染进共享正文, 按键排序后参与缓存键
+            key.append('|').append(new TreeMap<>(email.getVariables()));
+        }
+        return key.toString();
+    }
+    
+    /**
+     * 组装不含收件人和主题的邮件正文; personalizedMarker不为空时HTML部分只含该标记, 由PersonalizedBody按收件人替换.
+     * variables用于写出邮件时才渲染的HTML部分(大模板和数据表格)
+     */
+    private MimeMessage buildMessageBody(Email email, TemplateInfo template, String personalizedMarker,
+                                         Map<String, ?> variables) throws MessagingException {
+        // Create mail message
+        MimeMessage message = mailSender.createMimeMessage();
+        // 使用第三个参数为true来启用multipart模式, 这对内嵌图片很重要
+        MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
+        
+        // 设置发件人地址, 确保地址格式正确
+        try {
+            // 清理邮件地址中的空格和控制字符
+            String cleanSender = sender.trim().replaceAll("\\s+", "");
+            helper.setFrom(cleanSender);
+            logger.debug("发件人地址设置为: {}", cleanSender);
+        } catch (MessagingException e) {
+            logger.error("设置发件人地址时出错: {}", e.getMessage(), e);
+            throw new MessagingException("无效的发件人地址: " + sender, e);
+        }
+        
+        // 大模板: 不生成完整的HTML字符串, 写出邮件时再从模板JSON流式渲染
+        if (template != null && template.getContent() != null && templateRenderService.shouldStream(template)) {
+            StreamingHtmlRenderer.Prepared html = prepareStreaming(template);
+            addStreamingHtmlPart(helper, html::writeTo, variables);
+            addInlineImages(helper, html.getInlineImages());
+            addAttachments(email, helper);
+            return message;
         }
         
-        return path;
+        // 含数据表格的模板可能有几万行, 同样在写出邮件时渲染, 不生成完整的HTML字符串
+        if (personalizedMarker == null && template != null && template.getContent() != null) {
+            RenderPlan plan = templateRenderService.getPlan(template);
+            if (!plan.getTableSources().isEmpty()) {
+                addStreamingHtmlPart(helper, plan::writeTo, variables);
+                addInlineImages(helper, plan.getInlineImages());
+                addAttachments(email, helper);
+                return message;
+            }
+        }
+        
+        // Set content from template or default content
+        String content = "This is an automated email.";
+        // 渲染时一并得到内嵌图片清单, 模板只解析一次(渲染计划缓存命中时不解析)
+        List<InlineImage> inlineImages = Collections.emptyList();
+        try {
+            if (template != null) {
+                if (template.getContent() != null) {
+                    logger.debug("Converting template content to HTML for email: {}", email.getId());
+                    RenderPlan plan = templateRenderService.getPlan(template);
+                    content = personalizedMarker != null ? personalizedMarker : plan.render(emailVariables(email));
+                    inlineImages = plan.getInlineImages();
+                    logger.debug("Template content converted successfully, {} inline images", inlineImages.size());
+                } else {
+                    logger.warn("Template {} has null content, using default content for email: {}", 
+                            template.getId(), email.getId());
+                }
+            } else {
+                logger.warn("No template found for templateId: {}, using default content for email: {}", 
+                        email.getContentTemplateId(), email.getId());
+            }
+        } catch (Exception e) {
+            logger.error("Error converting template content to HTML for email {}: {}", 
+                    email.getId(), e.getMessage(), e);
+            content = "<html><body><p>Error parsing template: " + e.getMessage() + "</p></body></html>";
+        }
+        
+        // 设置邮件内容
+        String emailContent = content;
+        logger.debug("正在设置邮件内容: 长度={}", emailContent.length());
+        
+        // 简化设置, 只使用一次setText方法, 避免重复设置造成的问题
+        if (personalizedMarker != null && emailContent == personalizedMarker) {
+            addPersonalizedHtmlPart(helper, personalizedMarker);
+        } else {
+            helper.setText(emailContent, true);
+        }
+        // 不要添加额外的头信息, 避免混淆邮件客户端
+        logger.debug("邮件内容设置完成");
+        
+        // 内嵌图片在正文之后加入, Content-ID与HTML中的cid引用一致
+        addInlineImages(helper, inlineImages);
+        addAttachments(email, helper);
+        return message;
     }
     
-    // 生成ContentID
-    private String generateContentId(String fileName) {
-        return fileName.replaceAll("[^a-zA-Z0-9.-]", "_") + "@" + UUID.randomUUID().toString().substring(0, 8);
+    /**
+     * 把流式渲染的HTML作为related部分的第一个正文部分; 显式指定编码, 避免JavaMail为选择编码预先读取全部内容
+     */
+    private void addStreamingHtmlPart(MimeMessageHelper helper, HtmlWriter html,
+                                      Map<String, ?> variables) throws MessagingException {
+        MimeBodyPart htmlPart = new MimeBodyPart();
+        htmlPart.setDataHandler(new StreamingHtmlDataHandler(html, variables));
+        // setDataHandler会清除内容相关的头, 需在其后设置
+        htmlPart.setHeader("Content-Type", StreamingHtmlDataHandler.CONTENT_TYPE);
+        htmlPart.setHeader("Content-Transfer-Encoding", "quoted-printable");
+        helper.getMimeMultipart().addBodyPart(htmlPart, 0);
+    }
+    
+    /**
+     * HTML部分只放标记; 编码固定为quoted-printable, 与PersonalizedBody填充时的编码一致
+     */
+    private void addPersonalizedHtmlPart(MimeMessageHelper helper, String marker) throws MessagingException {
+        MimeBodyPart htmlPart = new MimeBodyPart();
+        htmlPart.setText(marker, "UTF-8", "html");
+        htmlPart.setHeader("Content-Transfer-Encoding", PersonalizedBody.TRANSFER_ENCODING);
+        helper.getMimeMultipart().addBodyPart(htmlPart, 0);
+    }
+    
+    private void addInlineImages(MimeMessageHelper helper, List<InlineImage> images) {
+        String imageResourcePath = attachmentPath + "/images";
+        for (InlineImage image : images) {
+            if (image.getKind() == InlineImage.Kind.DATA) {
+                try {
+                    helper.addInline(image.getContentId(), new ByteArrayResource(image.decodeData()), image.getMimeType());
+                    logger.debug("成功添加内联图片: {}", image.getContentId());
+                } catch (Exception e) {
+                    logger.error("处理图片时出错 {}: {}", image.getContentId(), e.getMessage());
+                }
+            } else {
+                processImageFile(image.getFileName(), image.getSource(), image.getContentId(), helper, imageResourcePath);
+            }
+        }
+    }
+    
+    private void addAttachments(Email email, MimeMessageHelper helper) throws MessagingException {
+        // Add attachments if any
+        if (email.getAttachments() != null && !email.getAttachments().isEmpty()) {
+            for (String attachment : email.getAttachments()) {
+                File file = new File(attachmentPath + "/" + attachment);
+                if (file.exists()) {
+                    FileSystemResource resource = new FileSystemResource(file);
+                    helper.addAttachment(file.getName(), resource);
+                    logger.info("Attachment added: {}", file.getName());
+                } else {
+                    logger.warn("Attachment not found: {}", file.getAbsolutePath());
+                }
+            }
+        }
+    }
+    
+    /**
+     * 人工重试前的准备: 重新开始自动重试计数; 实际发送由调用方提交到发送队列. 分片邮件只重发失败的分片
+     *
+     * @throws IllegalArgumentException if the email does not exist
+     * @throws IllegalStateException if the email is not FAILED, DEAD_LETTER, PARTIALLY_SENT or MISFIRED
+     */
+    public Email prepareResend(String emailId) {
+        Email email = emailDao.findEmailById(emailId);
+        if (email == null) {
+            throw new IllegalArgumentException("Email not found with ID: " + emailId);
+        }
+        if (!("FAILED".equals(email.getStatus()) || "DEAD_LETTER".equals(email.getStatus())
+                || "PARTIALLY_SENT".equals(email.getStatus()) || "MISFIRED".equals(email.getStatus()))) {
+            throw new IllegalStateException("Email " + emailId + " is " + email.getStatus()
+                    + "; only FAILED, DEAD_LETTER, PARTIALLY_SENT or MISFIRED emails can be retried");
+        }
+        email.setErrorMessage(null);
+        email.setRetryCount(0);
+        email.setNextAttemptAt(null);
+        email.setFailureClass(null);
+        emailDao.saveEmail(email);
+        return email;
     }
     
     /**
@@ -360,44 +1150,7 @@ public class EmailSenderService {
         }
     }
     
-    private String getFileExtension(String fileName) {
-        if (fileName == null) {
-            return null;
-        }
-        int dotIndex = fileName.lastIndexOf('.');
-        if (dotIndex == -1) {
-            return null;
-        }
-        return fileName.substring(dotIndex + 1);
-    }
-    
     public String determineMimeType(String fileName) {
-        String extension = getFileExtension(fileName);
-        if (extension == null) {
-            return "application/octet-stream";
-        }
-        
-        switch (extension.toLowerCase()) {
-            case "jpg":
-            case "jpeg":
-                return "image/jpeg";
-            case "png":
-                return "image/png";
-            case "gif":
-                return "image/gif";
-            case "bmp":
-                return "image/bmp";
-            case "webp":
-                return "image/webp";
-            case "svg":
-                return "image/svg+xml";
-            case "tiff":
-            case "tif":
-                return "image/tiff";
-            case "ico":
-                return "image/x-icon";
-            default:
-                return "application/octet-stream";
-        }
+        return InlineImage.mimeTypeOf(fileName);
     }
 }
@@ -2,17 +2,22 @@ package com.citi.custody.service;
 
 import com.citi.custody.dao.EmailDao;
 import com.citi.custody.entity.Email;
+import com.citi.custody.entity.RecipientChunk;
+import com.citi.custody.event.EmailScheduleChangedEvent;
 import com.citi.custody.util.SystemUserUtil;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Date;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 @Service
@@ -22,6 +27,12 @@ public class EmailService {
     @Autowired
     private EmailDao emailDao;
 
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private RecurringEmailService recurringEmailService;
+
     @Transactional
     public String saveEmail(Email email) {
         logger.info("Saving email: {}", email);
@@ -58,8 +69,12 @@ public class EmailService {
                 logger.debug("Creating new email with subject: {}", email.getEmailName());
             } else {
                 logger.debug("Updating existing email with ID: {}", email.getId());
+                preserveServerManagedFields(email);
             }
 
+            // 周期邮件: 校验cron表达式并预先计算下一次触发时间
+            recurringEmailService.prepare(email);
+
             logger.debug("Calling emailDao.saveEmail with email: {}", email);
             Email savedEmail = emailDao.save(email);
             logger.debug("Result from emailDao.saveEmail: {}", savedEmail);
@@ -68,6 +83,7 @@ public class EmailService {
                 String savedId = savedEmail.getId();
                 if (StringUtils.isNotBlank(savedId)) {
                     logger.info("Email saved successfully with ID: {}", savedId);
+                    eventPublisher.publishEvent(new EmailScheduleChangedEvent(savedId, savedEmail.getStatus(), savedEmail.getSentTime()));
                     return savedId;
                 } else {
                     logger.error("Failed to save email: MongoDB returned null or empty ID");
@@ -83,6 +99,50 @@ public class EmailService {
         }
     }
 
+    /**
+     * Campaign counters are maintained with atomic $inc updates; keep them when the client saves a stale copy.
+     * While a sender holds the send lease the status belongs to the sender as well. Recipient chunk progress is
+     * the sender's too: it is kept unless To/Cc change, and To/Cc cannot change once a chunk has been delivered.
+     */
+    private void preserveServerManagedFields(Email email) {
+        Email existing = emailDao.findEmailById(email.getId());
+        if (existing != null) {
+            if (existing.getSendingLeaseUntil() != null && existing.getSendingLeaseUntil().after(new Date())
+                    && ("SENDING".equals(existing.getStatus()) || "QUEUED".equals(existing.getStatus()))) {
+                // 客户端保存不能把发送中的邮件改回DRAFT/SCHEDULED, 否则会被再次抢占而重复发送
+                email.setStatus(existing.getStatus());
+            }
+            email.setQueuedCount(existing.getQueuedCount());
+            email.setSentCount(existing.getSentCount());
+            email.setFailedCount(existing.getFailedCount());
+            email.setRetryCount(existing.getRetryCount());
+            email.setNextAttemptAt(existing.getNextAttemptAt());
+            email.setFailureClass(existing.getFailureClass());
+            email.setSendAttemptId(existing.getSendAttemptId());
+            email.setSendingOwner(existing.getSendingOwner());
+            email.setSendingLeaseUntil(existing.getSendingLeaseUntil());
+            email.setLastFiredAt(existing.getLastFiredAt());
+            email.setFireCount(existing.getFireCount());
+            email.setRecipientChunks(preservedChunks(email, existing));
+        }
+    }
+
+    private List<RecipientChunk> preservedChunks(Email email, Email existing) {
+        List<RecipientChunk> chunks = existing.getRecipientChunks();
+        if (chunks == null || (Objects.equals(email.getTo(), existing.getTo()) && Objects.equals(email.getCc(), existing.getCc()))) {
+            return chunks;
+        }
+        for (RecipientChunk chunk : chunks) {
+            if ("SENT".equals(chunk.getStatus())) {
+                // 已有分片送达: 改收件人后无法判断哪些人已经收到, 重试会漏发或重复发送
+                throw new IllegalArgumentException("Recipients cannot be changed after part of the email was delivered; "
+                        + "create a new email for the changed recipients");
+            }
+        }
+        // 还没有分片送达: 丢弃旧的分片计划, 下次发送按新的收件人重新拆分
+        return null;
+    }
+
     public Page<Email> getEmailsList(String name, Pageable pageable) {
         logger.debug("Getting emails list with name filter: {}, page: {}, size: {}", 
             name, pageable.getPageNumber(), pageable.getPageSize());
@@ -0,0 +1,63 @@
+package com.citi.custody.service;
+
+import com.citi.custody.entity.TemplateInfo;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Message body shared by the messages of one send: either the encoded MIME bytes, cached and reused for every
+ * recipient, or a streamed body for templates that must not be held in memory. A streamed body is assembled again
+ * for every message and its HTML is rendered while JavaMail writes the message to the transport.
+ */
+final class MessageBody {
+    private final byte[] encoded;
+    private final TemplateInfo template;
+    private final Map<String, ?> variables;
+    private final boolean hasVariables;
+
+    private MessageBody(byte[] encoded, TemplateInfo template, Map<String, ?> variables, boolean hasVariables) {
+        this.encoded = encoded;
+        this.template = template;
+        this.variables = variables;
+        this.hasVariables = hasVariables;
+    }
+
+    static MessageBody encoded(byte[] encoded) {
+        return new MessageBody(encoded, null, Collections.emptyMap(), false);
+    }
+
+    /**
+     * @param hasVariables whether the template has placeholders, i.e. messages differ per recipient
+     */
+    static MessageBody streamed(TemplateInfo template, Map<String, ?> variables, boolean hasVariables) {
+        return new MessageBody(null, template, variables, hasVariables);
+    }
+
+    /**
+     * The same streamed body rendered with other variables, e.g. one campaign recipient's.
+     */
+    MessageBody withVariables(Map<String, ?> variables) {
+        return new MessageBody(null, template, variables, hasVariables);
+    }
+
+    boolean isStreamed() {
+        return encoded == null;
+    }
+
+    byte[] getEncoded() {
+        return encoded;
+    }
+
+    TemplateInfo getTemplate() {
+        return template;
+    }
+
+    Map<String, ?> getVariables() {
+        return variables;
+    }
+
+    boolean hasVariables() {
+        return hasVariables;
+    }
+}
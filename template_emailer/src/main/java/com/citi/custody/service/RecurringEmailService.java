@@ -0,0 +1,164 @@
+package com.citi.custody.service;
+
+import com.citi.custody.dao.EmailDao;
+import com.citi.custody.dao.EmailExecutionDao;
+import com.citi.custody.entity.Email;
+import com.citi.custody.entity.EmailExecution;
+import com.citi.custody.util.InstanceIdUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.support.CronExpression;
+import org.springframework.stereotype.Service;
+
+import java.time.DateTimeException;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * 周期邮件: 状态为RECURRING的邮件按cron表达式(在指定时区)反复发送. 下一次触发时间nextFireAt预先计算并建索引,
+ * 轮询只查询已到期的邮件; 每次触发只写一条email_execution执行记录, 不复制邮件文档
+ */
+@Service
+public class RecurringEmailService {
+    private static final Logger logger = LoggerFactory.getLogger(RecurringEmailService.class);
+
+    @Autowired
+    private EmailDao emailDao;
+
+    @Autowired
+    private EmailExecutionDao emailExecutionDao;
+
+    @Autowired
+    private ScheduledEmailDispatcher scheduledEmailDispatcher;
+
+    @Autowired
+    private ScheduleMisfireHandler misfireHandler;
+
+    @Value("${email.recurring.enabled:true}")
+    private boolean enabled;
+
+    @Value("${email.recurring.poll-batch-size:100}")
+    private int pollBatchSize;
+
+    @Value("${email.scheduler.dispatch-wait-ms:30000}")
+    private long dispatchWaitMillis;
+
+    /**
+     * Validates the recurrence of an email being saved and precomputes its nextFireAt.
+     * Only RECURRING emails carry a nextFireAt; any other status clears it, which pauses the schedule.
+     *
+     * @throws IllegalArgumentException when the cron expression or time zone is invalid or never fires again
+     */
+    public void prepare(Email email) {
+        if (!"RECURRING".equals(email.getStatus())) {
+            email.setNextFireAt(null);
+            return;
+        }
+        if (StringUtils.isBlank(email.getCronExpression())) {
+            throw new IllegalArgumentException("Cron expression is required for a recurring email");
+        }
+        if (Boolean.TRUE.equals(email.getCampaign())) {
+            throw new IllegalArgumentException("Campaign emails cannot be recurring");
+        }
+        if (!CronExpression.isValidExpression(email.getCronExpression())) {
+            throw new IllegalArgumentException("Invalid cron expression: " + email.getCronExpression());
+        }
+        Date next = nextFireAt(email, new Date());
+        if (next == null) {
+            throw new IllegalArgumentException("Recurring schedule has no firing before its end time");
+        }
+        email.setNextFireAt(next);
+    }
+
+    /**
+     * First occurrence of the email's cron schedule after {@code after}, or null once the recurrence has ended.
+     */
+    public Date nextFireAt(Email email, Date after) {
+        ZoneId zone;
+        try {
+            zone = StringUtils.isBlank(email.getTimeZone()) ? ZoneId.systemDefault() : ZoneId.of(email.getTimeZone());
+        } catch (DateTimeException e) {
+            throw new IllegalArgumentException("Invalid time zone: " + email.getTimeZone(), e);
+        }
+        ZonedDateTime next = CronExpression.parse(email.getCronExpression()).next(after.toInstant().atZone(zone));
+        if (next == null) {
+            return null;
+        }
+        Date nextFireAt = Date.from(next.toInstant());
+        if (email.getRecurrenceEndAt() != null && nextFireAt.after(email.getRecurrenceEndAt())) {
+            return null;
+        }
+        return nextFireAt;
+    }
+
+    @Scheduled(fixedDelayString = "${email.recurring.poll-interval-ms:15000}")
+    public void fireDueRecurring() {
+        if (!enabled) {
+            return;
+        }
+        Date now = new Date();
+        List<Email> due = emailDao.findDueRecurring(now, pollBatchSize);
+        for (Email email : due) {
+            Date firedFor = email.getNextFireAt();
+            Date next;
+            try {
+                // 停机期间错过的多次触发合并为一次, 下一次从当前时间往后计算
+                next = nextFireAt(email, now);
+            } catch (IllegalArgumentException e) {
+                logger.error("Ending recurring email {} with an invalid schedule: {}", email.getId(), e.getMessage());
+                emailDao.advanceRecurring(email.getId(), firedFor, null);
+                continue;
+            }
+            // 多节点时只有一个节点能把nextFireAt从本次触发推进到下一次
+            if (!emailDao.advanceRecurring(email.getId(), firedFor, next)) {
+                continue;
+            }
+
+            EmailExecution execution = new EmailExecution();
+            execution.setEmailId(email.getId());
+            execution.setScheduledFor(firedFor);
+            execution.setFiredAt(now);
+            execution.setOwner(InstanceIdUtil.getInstanceId());
+            execution.setStatus("QUEUED");
+            try {
+                execution = emailExecutionDao.insert(execution);
+            } catch (DuplicateKeyException e) {
+                logger.debug("Recurring email {} already fired for {}", email.getId(), firedFor);
+                continue;
+            }
+
+            if (misfireHandler.isStale(firedFor.getTime(), now.getTime())) {
+                execution.setStatus("MISFIRED");
+                execution.setErrorMessage("Skipped by misfire policy: occurrence was "
+                        + (now.getTime() - firedFor.getTime()) / 1000 + "s in the past");
+                emailExecutionDao.save(execution);
+                continue;
+            }
+            try {
+                if (!scheduledEmailDispatcher.dispatchExecution(execution, dispatchWaitMillis)) {
+                    execution.setStatus("FAILED");
+                    execution.setErrorMessage("Scheduled dispatch is saturated");
+                    execution.setFinishTime(new Date());
+                    emailExecutionDao.save(execution);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            logger.info("Recurring email {} fired for {}, next firing at {}", email.getId(), firedFor, next);
+        }
+    }
+
+    public Page<EmailExecution> getExecutions(String emailId, Pageable pageable) {
+        return emailExecutionDao.findByEmailIdOrderByScheduledForDesc(emailId, pageable);
+    }
+}
@@ -6,11 +6,15 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 
 
@@ -50,17 +54,7 @@ public class RodService {
     }
 
     public String fetchData(String releaseId) throws NoSuchAlgorithmException, KeyManagementException, IOException, InterruptedException {
-        // 获取当前日期并格式化
-        LocalDate currentDate = LocalDate.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        String formattedEndDate = currentDate.format(formatter);
-        
-        // 获取一个月前的日期并格式化
-        LocalDate startDate = currentDate.minusMonths(1).with(TemporalAdjusters.firstDayOfMonth());
-        String formattedStartDate = startDate.format(formatter);
-        
-        // 构建 URL
-        String url = "https://release-on-demand-svc.ls.dyn.nsroot.net/api/external/v1/release-summaries/c1-1570l&startDate=" + formattedStartDate + "&endDate=" + formattedEndDate;
+        String url = releaseSummariesUrl();
         // 示例 URL
         //url = "https://release-on-demand-svc.ls.dyn.nsroot.net/api/external/v1/release-summaries/c1-1570l&startDate=2023-01-01&endDate=2023-01-30";
         RestTemplate restTemplate = createRestTemplatewithTrustingHttpClient();
@@ -89,6 +83,45 @@ public class RodService {
             return null;
         }
     }
+
+    /**
+     * Same request as {@link #fetchData}, but the response body is returned as an open stream instead of a String,
+     * so large responses can be parsed while they arrive. Closing the stream releases the connection.
+     */
+    public InputStream openData(String releaseId) throws NoSuchAlgorithmException, KeyManagementException, IOException {
+        RestTemplate restTemplate = createRestTemplatewithTrustingHttpClient();
+        ClientHttpRequest request = restTemplate.getRequestFactory().createRequest(URI.create(releaseSummariesUrl()), HttpMethod.GET);
+        request.getHeaders().set("Authorization", "Bearer " + getAccessToken());
+        ClientHttpResponse response = request.execute();
+        if (!response.getStatusCode().is2xxSuccessful()) {
+            response.close();
+            throw new IOException("Release summaries request failed with HTTP " + response.getRawStatusCode());
+        }
+        return new FilterInputStream(response.getBody()) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    response.close();
+                }
+            }
+        };
+    }
+
+    private static String releaseSummariesUrl() {
+        // 获取当前日期并格式化
+        LocalDate currentDate = LocalDate.now();
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+        String formattedEndDate = currentDate.format(formatter);
+        
+        // 获取一个月前的日期并格式化
+        LocalDate startDate = currentDate.minusMonths(1).with(TemporalAdjusters.firstDayOfMonth());
+        String formattedStartDate = startDate.format(formatter);
+        
+        // 构建 URL
+        return "https://release-on-demand-svc.ls.dyn.nsroot.net/api/external/v1/release-summaries/c1-1570l&startDate=" + formattedStartDate + "&endDate=" + formattedEndDate;
+    }
     
     public String getAccessToken() {
         try {
@@ -0,0 +1,155 @@
+package com.citi.custody.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 定时邮件的错过触发(misfire)处理: 停机或积压后sentTime已过去超过threshold-ms的邮件按策略处理,
+ * 并以catch-up-rate的目标速率平滑释放, 避免重启后一次性把积压全部打到SMTP中继
+ * <ul>
+ *     <li>FIRE_NOW: 立即补发, 按目标速率排队</li>
+ *     <li>SPREAD: 在spread-window-ms内均匀打散(按邮件id取哈希, 多节点算出的时间一致)</li>
+ *     <li>SKIP: 晚于skip-after-ms的直接跳过(状态MISFIRED), 其余同FIRE_NOW</li>
+ * </ul>
+ */
+@Service
+public class ScheduleMisfireHandler {
+    private static final Logger logger = LoggerFactory.getLogger(ScheduleMisfireHandler.class);
+
+    public static final long SKIP = -1L;
+
+    public enum Policy { FIRE_NOW, SPREAD, SKIP }
+
+    @Value("${email.scheduler.misfire.policy:FIRE_NOW}")
+    private Policy policy;
+
+    @Value("${email.scheduler.misfire.threshold-ms:60000}")
+    private long thresholdMillis;
+
+    @Value("${email.scheduler.misfire.spread-window-ms:600000}")
+    private long spreadWindowMillis;
+
+    @Value("${email.scheduler.misfire.skip-after-ms:3600000}")
+    private long skipAfterMillis;
+
+    @Value("${email.scheduler.misfire.catch-up-rate:5}")
+    private double catchUpRatePerSecond;
+
+    // 当前一轮追赶中尚未释放的邮件 -> 计划释放时间; 时间轮加载和兜底轮询看到同一封邮件时复用同一个时间
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+    private final AtomicLong backlogTotal = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private long nextSlot;
+    private volatile Date catchUpStarted;
+
+    /**
+     * Decides when a SCHEDULED email should actually be released.
+     *
+     * @return {@code sentTime} when it is on time, a later paced or spread time for a misfire,
+     * or {@link #SKIP} when the policy drops it
+     */
+    public long releaseAt(String emailId, long sentTime, long now) {
+        long lateness = now - sentTime;
+        if (lateness <= thresholdMillis) {
+            return sentTime;
+        }
+        Long planned = pending.get(emailId);
+        if (planned != null) {
+            return planned;
+        }
+        if (policy == Policy.SKIP && lateness > skipAfterMillis) {
+            skipped.incrementAndGet();
+            logger.info("Skipping misfired email {}: sentTime was {}ms ago", emailId, lateness);
+            return SKIP;
+        }
+
+        long releaseAt;
+        if (policy == Policy.SPREAD) {
+            releaseAt = now + Math.floorMod(emailId.hashCode(), Math.max(1L, spreadWindowMillis));
+        } else {
+            releaseAt = nextPacedSlot(now);
+        }
+        if (pending.putIfAbsent(emailId, releaseAt) != null) {
+            return pending.get(emailId);
+        }
+        if (backlogTotal.getAndIncrement() == 0) {
+            catchUpStarted = new Date(now);
+            logger.info("Scheduled email backlog detected, catching up with policy {}", policy);
+        }
+        return releaseAt;
+    }
+
+    /**
+     * True when the SKIP policy drops an occurrence this late; used for recurring firings, which are never paced.
+     */
+    public boolean isStale(long scheduledFor, long now) {
+        return policy == Policy.SKIP && now - scheduledFor > skipAfterMillis;
+    }
+
+    /**
+     * Marks a misfired email as handed to the sender; on-time emails are ignored.
+     */
+    public void onReleased(String emailId) {
+        if (pending.remove(emailId) != null) {
+            released.incrementAndGet();
+            finishCatchUpIfDrained();
+        }
+    }
+
+    /**
+     * Forgets a misfired email that was rescheduled, deleted or sent through another path.
+     */
+    public void forget(String emailId) {
+        if (pending.remove(emailId) != null) {
+            backlogTotal.decrementAndGet();
+            finishCatchUpIfDrained();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long total = backlogTotal.get();
+        long remaining = pending.size();
+        stats.put("policy", policy.name());
+        stats.put("thresholdMillis", thresholdMillis);
+        stats.put("catchUpRatePerSecond", catchUpRatePerSecond);
+        stats.put("catchingUp", remaining > 0);
+        stats.put("catchUpStarted", catchUpStarted);
+        stats.put("backlogTotal", total);
+        stats.put("backlogRemaining", remaining);
+        stats.put("progressPercent", total == 0 ? 100.0 : Math.round((total - remaining) * 1000.0 / total) / 10.0);
+        stats.put("estimatedCompletion", remaining == 0 ? null
+                : new Date(pending.values().stream().mapToLong(Long::longValue).max().orElse(System.currentTimeMillis())));
+        stats.put("released", released.get());
+        stats.put("skipped", skipped.get());
+        return stats;
+    }
+
+    private synchronized long nextPacedSlot(long now) {
+        long interval = (long) Math.ceil(1000.0 / Math.max(0.001, catchUpRatePerSecond));
+        long slot = Math.max(now, nextSlot);
+        nextSlot = slot + interval;
+        return slot;
+    }
+
+    private void finishCatchUpIfDrained() {
+        if (pending.isEmpty() && catchUpStarted != null) {
+            synchronized (this) {
+                if (pending.isEmpty() && catchUpStarted != null) {
+                    logger.info("Scheduled email backlog drained: {} released since {}", backlogTotal.get(), catchUpStarted);
+                    backlogTotal.set(0);
+                    catchUpStarted = null;
+                }
+            }
+        }
+    }
+}
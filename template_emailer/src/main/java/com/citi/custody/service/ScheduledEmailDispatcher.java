@@ -0,0 +1,108 @@
+package com.citi.custody.service;
+
+import com.citi.custody.entity.EmailExecution;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 定时邮件的并行发送: 时间轮和兜底轮询抢占到的邮件交给专用线程池发送,
+ * 用信号量限制同时在途(排队+发送中)的数量, 满了以后调用方等待或退回, 形成背压
+ */
+@Service
+public class ScheduledEmailDispatcher {
+    private static final Logger logger = LoggerFactory.getLogger(ScheduledEmailDispatcher.class);
+
+    @Autowired
+    private ThreadPoolExecutor emailDispatchExecutor;
+
+    @Autowired
+    private EmailSendJobService emailSendJobService;
+
+    @Autowired
+    private EmailSenderService emailSenderService;
+
+    @Value("${email.scheduler.max-in-flight:32}")
+    private int maxInFlight;
+
+    private Semaphore inFlight;
+
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        inFlight = new Semaphore(Math.max(1, maxInFlight));
+    }
+
+    /**
+     * Hands the claimed email to the dispatch pool if an in-flight slot is free right now.
+     *
+     * @return false when the dispatcher is saturated; the caller keeps ownership of the email
+     */
+    public boolean tryDispatch(String emailId) {
+        return inFlight.tryAcquire() && execute(emailId, () -> emailSendJobService.runNow(emailId));
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} for an in-flight slot, so a draining loop runs at the pace of the senders.
+     *
+     * @return false when no slot freed up in time; the caller keeps ownership of the email
+     */
+    public boolean dispatch(String emailId, long timeoutMillis) throws InterruptedException {
+        return inFlight.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS) && execute(emailId, () -> emailSendJobService.runNow(emailId));
+    }
+
+    /**
+     * Same as {@link #dispatch(String, long)} for one firing of a recurring email.
+     */
+    public boolean dispatchExecution(EmailExecution execution, long timeoutMillis) throws InterruptedException {
+        return inFlight.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)
+                && execute(execution.getEmailId(), () -> emailSenderService.sendExecution(execution));
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("dispatchThreads", emailDispatchExecutor.getMaximumPoolSize());
+        stats.put("activeThreads", emailDispatchExecutor.getActiveCount());
+        stats.put("maxInFlight", maxInFlight);
+        stats.put("inFlight", maxInFlight - inFlight.availablePermits());
+        stats.put("dispatched", dispatched.get());
+        stats.put("completed", completed.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+
+    private boolean execute(String emailId, Runnable send) {
+        try {
+            emailDispatchExecutor.execute(() -> {
+                try {
+                    send.run();
+                    completed.incrementAndGet();
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    logger.error("Failed to send scheduled email {}: {}", emailId, e.getMessage(), e);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            return false;
+        }
+        dispatched.incrementAndGet();
+        return true;
+    }
+}
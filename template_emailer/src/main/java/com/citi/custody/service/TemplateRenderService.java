@@ -0,0 +1,190 @@
+package com.citi.custody.service;
+
+import com.citi.custody.entity.TemplateInfo;
+import com.citi.custody.util.HtmlMinifier;
+import com.citi.custody.util.JsonToHtmlConverter;
+import com.citi.custody.util.LruCache;
+import com.citi.custody.util.RenderPlan;
+import com.citi.custody.util.StreamingHtmlRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模板编译缓存: 模板JSON编译为渲染计划(静态HTML片段 + 动态槽位)后按模板id和更新时间缓存,
+ * 重复渲染同一模板时不再解析JSON, 只做缓冲区拷贝. 按条数和字符数做LRU淘汰.
+ * 超过streaming-threshold-chars的大模板不编译也不缓存, 由发送方在写出邮件时流式渲染.
+ * 开启minify时压缩在编译时完成, 缓存的就是压缩后的计划
+ */
+@Service
+public class TemplateRenderService {
+    private static final Logger logger = LoggerFactory.getLogger(TemplateRenderService.class);
+
+    @Value("${template.render-cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    @Value("${template.render-cache.max-entries:200}")
+    private int maxEntries;
+
+    @Value("${template.render-cache.max-chars:33554432}")
+    private long maxChars;
+
+    @Value("${template.render.streaming-threshold-chars:1048576}")
+    private long streamingThresholdChars;
+
+    @Value("${template.render.minify.enabled:false}")
+    private boolean minifyEnabled;
+
+    @Value("${template.preview.row-cache.max-entries:5000}")
+    private int previewRowMaxEntries;
+
+    @Value("${template.preview.row-cache.max-chars:33554432}")
+    private long previewRowMaxChars;
+
+    private LruCache<String, RenderPlan> planCache;
+
+    // 编辑器预览用: 键为单行JSON文本的哈希, 值为该行编译结果
+    private LruCache<String, RenderPlan> previewRowCache;
+
+    // 每个模板最近一次压缩前后的字符数, 键为模板id
+    private final Map<String, Map<String, Object>> minifyReports = new ConcurrentHashMap<>();
+
+    private final AtomicLong compilations = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+    private final AtomicLong streamedRenders = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        planCache = new LruCache<>("render-plan", maxEntries, maxChars, RenderPlan::getStaticLength);
+        previewRowCache = new LruCache<>("preview-row", previewRowMaxEntries, previewRowMaxChars, RenderPlan::getStaticLength);
+    }
+
+    /**
+     * Returns the compiled plan of the template, compiling it on a cache miss.
+     */
+    public RenderPlan getPlan(TemplateInfo template) {
+        if (!cacheEnabled || template.getId() == null) {
+            return compile(template);
+        }
+        return planCache.computeIfAbsent(cacheKey(template), key -> compile(template));
+    }
+
+    public String render(TemplateInfo template) {
+        return getPlan(template).render();
+    }
+
+    /**
+     * Renders unsaved template JSON for the editor preview. Rows are compiled individually and cached by a hash
+     * of their JSON text, so a re-render after an edit only compiles the rows that changed. The HTML is the same
+     * as a full render of the template.
+     */
+    public String preview(String json) {
+        long start = System.nanoTime();
+        RenderPlan plan = JsonToHtmlConverter.compileByRow(json,
+                row -> previewRowCache.computeIfAbsent(rowKey(row), key -> JsonToHtmlConverter.compileRow(row)));
+        if (minifyEnabled) {
+            plan = HtmlMinifier.minify(plan);
+        }
+        String html = plan.render();
+        logger.debug("Rendered preview ({} chars of JSON) in {}us", json != null ? json.length() : 0, (System.nanoTime() - start) / 1000);
+        return html;
+    }
+
+    /**
+     * True when the template is large enough that its HTML should be streamed into the message
+     * instead of being built as a string.
+     */
+    public boolean shouldStream(TemplateInfo template) {
+        return streamingThresholdChars > 0 && template.getContent() != null
+                && template.getContent().length() >= streamingThresholdChars;
+    }
+
+    /**
+     * Scans a large template once; the result yields the inline images now and writes the HTML when the message is written.
+     */
+    public StreamingHtmlRenderer.Prepared prepareStreaming(TemplateInfo template) throws IOException {
+        streamedRenders.incrementAndGet();
+        logger.debug("Streaming template {} ({} chars of JSON)", template.getId(), template.getContent().length());
+        return StreamingHtmlRenderer.prepare(StreamingHtmlRenderer.JsonSource.of(template.getContent()), minifyEnabled);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = planCache.getStats();
+        long count = compilations.get();
+        stats.put("enabled", cacheEnabled);
+        stats.put("compilations", count);
+        stats.put("streamingThresholdChars", streamingThresholdChars);
+        stats.put("streamedRenders", streamedRenders.get());
+        stats.put("minifyEnabled", minifyEnabled);
+        stats.put("previewRows", previewRowCache.getStats());
+        stats.put("avgCompileMillis", count == 0 ? 0 : Math.round(compileNanos.get() / (double) count / 1000) / 1000.0);
+        return stats;
+    }
+
+    /**
+     * Size before and after minification of the last compiled version of each template; streamed templates
+     * are minified on the fly and not measured.
+     */
+    public List<Map<String, Object>> getMinifyReports() {
+        return new ArrayList<>(minifyReports.values());
+    }
+
+    public Map<String, Object> getMinifyReport(String templateId) {
+        return minifyReports.get(templateId);
+    }
+
+    private RenderPlan compile(TemplateInfo template) {
+        long start = System.nanoTime();
+        RenderPlan plan = JsonToHtmlConverter.compile(template.getContent());
+        if (minifyEnabled) {
+            plan = minify(template, plan);
+        }
+        long elapsed = System.nanoTime() - start;
+        compilations.incrementAndGet();
+        compileNanos.addAndGet(elapsed);
+        logger.debug("Compiled template {} into {} segments ({} chars) in {}us",
+                template.getId(), plan.getSegmentCount(), plan.getStaticLength(), elapsed / 1000);
+        return plan;
+    }
+
+    private RenderPlan minify(TemplateInfo template, RenderPlan plan) {
+        RenderPlan minified = HtmlMinifier.minify(plan);
+        int before = plan.getStaticLength();
+        int after = minified.getStaticLength();
+        if (template.getId() != null) {
+            Map<String, Object> report = new LinkedHashMap<>();
+            report.put("templateId", template.getId());
+            report.put("updateTime", template.getUpdateTime());
+            report.put("originalChars", before);
+            report.put("minifiedChars", after);
+            report.put("savedPercent", before == 0 ? 0 : Math.round((before - after) * 1000.0 / before) / 10.0);
+            minifyReports.put(template.getId(), report);
+        }
+        logger.debug("Minified template {} from {} to {} chars", template.getId(), before, after);
+        return minified;
+    }
+
+    // 行内容相同则渲染结果相同; 长度参与键, 进一步降低碰撞的可能
+    private static String rowKey(String row) {
+        return DigestUtils.md5DigestAsHex(row.getBytes(StandardCharsets.UTF_8)) + ':' + row.length();
+    }
+
+    // 键里带有更新时间和内容长度, 模板更新后旧计划不会再命中, 由LRU自然淘汰
+    private String cacheKey(TemplateInfo template) {
+        long updateTime = template.getUpdateTime() != null ? template.getUpdateTime().getTime() : 0L;
+        int length = template.getContent() != null ? template.getContent().length() : 0;
+        return template.getId() + ':' + updateTime + ':' + length;
+    }
+}
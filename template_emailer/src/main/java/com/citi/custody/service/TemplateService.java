@@ -1,5 +1,6 @@
 package com.citi.custody.service;
 
+import com.citi.custody.entity.CursorPage;
 import com.citi.custody.entity.TemplateInfo;
 import com.citi.custody.util.SystemUserUtil;
 import com.mongodb.client.gridfs.model.GridFSFile;
@@ -9,10 +10,21 @@ import org.apache.commons.lang3.StringUtils;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.Fields;
+import org.springframework.data.mongodb.core.aggregation.StringOperators;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexOperations;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;;
@@ -33,6 +45,64 @@ public class TemplateService {
     @Autowired
     private GridFsTemplate gridFsTemplate;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${spring.data.mongodb.gridfs.bucket:fs}")
+    private String gridFsBucket;
+
+    @Value("${template.gridfs.ensure-indexes:true}")
+    private boolean ensureIndexes;
+
+    // 列表按更新时间倒序, _id保证同一时间的模板顺序确定, 也是keyset分页的游标
+    private static final Sort LIST_SORT = Sort.by(Sort.Direction.DESC, "metadata.updateTime")
+            .and(Sort.by(Sort.Direction.DESC, "_id"));
+
+    // keyset分页每页的上限, 同时避免size + 1溢出
+    public static final int MAX_CURSOR_PAGE_SIZE = 200;
+
+    // 没有updateTime的模板在倒序中排在最后, 游标单独用这个前缀表示
+    private static final String NULL_UPDATE_TIME_CURSOR = "null";
+
+    /**
+     * fs.files没有实体类, 索引不能用注解声明, 启动时在这里创建; 已存在的索引不会重建.
+     * 旧模板没有filenameLower或updateTime字段, 同时在服务端补齐(updateTime取GridFS的uploadDate).
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureTemplateIndexes() {
+        if (!ensureIndexes) {
+            return;
+        }
+        try {
+            IndexOperations indexOps = mongoTemplate.indexOps(filesCollection());
+            // 列表/keyset分页: 等值条件updateBy, 再按排序字段; filenameLower放在最后, 前缀搜索在索引内过滤
+            indexOps.ensureIndex(new Index().named("metadata_updateBy_updateTime_id")
+                    .on("metadata.updateBy", Sort.Direction.ASC)
+                    .on("metadata.updateTime", Sort.Direction.DESC)
+                    .on("_id", Sort.Direction.DESC)
+                    .on("metadata.filenameLower", Sort.Direction.ASC));
+            // 选择性高的前缀搜索和按名称计数
+            indexOps.ensureIndex(new Index().named("metadata_updateBy_filenameLower")
+                    .on("metadata.updateBy", Sort.Direction.ASC)
+                    .on("metadata.filenameLower", Sort.Direction.ASC));
+
+            long backfilled = mongoTemplate.updateMulti(
+                    new Query(Criteria.where("metadata.filenameLower").exists(false).and("metadata.filename").type(2)),
+                    AggregationUpdate.update().set("metadata.filenameLower")
+                            .toValue(StringOperators.valueOf("metadata.filename").toLower()),
+                    filesCollection()).getModifiedCount();
+            long updateTimeBackfilled = mongoTemplate.updateMulti(
+                    new Query(Criteria.where("metadata").exists(true).and("metadata.updateTime").is(null)),
+                    AggregationUpdate.update().set("metadata.updateTime").toValueOf(Fields.field("uploadDate")),
+                    filesCollection()).getModifiedCount();
+            log.info("Template indexes ensured on {}, filenameLower backfilled for {} templates, updateTime for {}",
+                    filesCollection(), backfilled, updateTimeBackfilled);
+        } catch (Exception e) {
+            // 索引只影响列表性能, 不阻止启动
+            log.warn("Failed to ensure template indexes on {}: {}", filesCollection(), e.getMessage());
+        }
+    }
+
     public void storeTemplate(MultipartFile file, String objectId) throws IOException {
         if (StringUtils.isNotEmpty(objectId) && isTemplateExist(objectId)) {
             // Delete the existing file
@@ -56,6 +126,7 @@ public class TemplateService {
         metadata.put("updateBy", SystemUserUtil.getCurrentUsername());
         metadata.put("updateTime", new Date());
         metadata.put("filename", fileName);
+        metadata.put("filenameLower", filenameKey(fileName));
         return metadata;
     }
 
@@ -76,13 +147,9 @@ public class TemplateService {
         return new InputStreamResource(inputStream);
     }
 
-    private String getTemplateContent(String objectId) {
-        try {
-            GridFSFile gridFSFile = gridFsTemplate.findOne(new Query(Criteria.where("_id").is(objectId)));
-            if (gridFSFile == null) {
-                return null;
-            }
-            InputStream inputStream = gridFsTemplate.getResource(gridFSFile).getInputStream();
+    private String getTemplateContent(GridFSFile gridFSFile) {
+        // 直接用已查到的文件记录读取内容, 不再按id重复查询fs.files
+        try (InputStream inputStream = gridFsTemplate.getResource(gridFSFile).getInputStream()) {
             return IOUtils.toString(inputStream, StandardCharsets.UTF_8);
         } catch (IOException e) {
             log.error("Error reading template content: ", e);
@@ -99,8 +166,9 @@ public class TemplateService {
                 templateInfo.setFilename(metadata.getString("filename"));
                 templateInfo.setUpdateBy(metadata.getString("updateBy"));
                 templateInfo.setUpdateTime((Date) metadata.get("updateTime"));
+                templateInfo.setSize(file.getLength());
                 // 设置模板内容
-                String content = getTemplateContent(file.getObjectId().toHexString());
+                String content = getTemplateContent(file);
                 templateInfo.setContent(content);
                 return templateInfo;
             }
@@ -108,12 +176,23 @@ public class TemplateService {
         return null;
     }
 
-    public Page<TemplateInfo> getTemplates(String name, Pageable pageable) {
-        List<TemplateInfo> templates = new ArrayList<>();
-        Query query = new Query(Criteria.where("metadata.updateBy").is(SystemUserUtil.getCurrentUsername()));
-        if (name != null && !name.isEmpty()) {
-            query.addCriteria(Criteria.where("metadata.filename").regex(name, "i"));
+    /**
+     * Lists the current user's templates. With {@code includeContent} false only fs.files is read, projected to
+     * id, filename, updateBy, updateTime and size; the content is loaded per template via {@link #getTemplateById}.
+     * The total is a count over the same filter, not the size of the page. {@code name} matches a filename prefix,
+     * case-insensitively; pages are ordered by update time, newest first.
+     */
+    public Page<TemplateInfo> getTemplates(String name, Pageable pageable, boolean includeContent) {
+        Query query = templatesQuery(name);
+        long total = mongoTemplate.count(query, filesCollection());
+        if (pageable.getSort().isUnsorted()) {
+            pageable = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize(), LIST_SORT);
+        }
+        if (!includeContent) {
+            return new PageImpl<>(findTemplateMetadata(query.with(pageable)), pageable, total);
         }
+
+        List<TemplateInfo> templates = new ArrayList<>();
         query.with(pageable);
         List<GridFSFile> files = gridFsTemplate.find(query).into(new ArrayList<>());
 
@@ -123,7 +202,104 @@ public class TemplateService {
                 templates.add(templateInfo);
             }
         }
-        return new PageImpl<>(templates, pageable, files.size());
+        return new PageImpl<>(templates, pageable, total);
+    }
+
+    /**
+     * Keyset (seek) listing of the current user's templates by (updateTime, _id), newest first. Each page is one
+     * index range scan whatever its position, so latency does not grow with the number of templates the way
+     * skip/limit does. An empty cursor starts from the first page; the listing is metadata only. {@code size} is
+     * capped at {@link #MAX_CURSOR_PAGE_SIZE}. Templates without an update time come last, after all dated ones.
+     *
+     * @throws IllegalArgumentException if the cursor was not produced by this method
+     */
+    public CursorPage<TemplateInfo> getTemplatesAfter(String name, String cursor, int size) {
+        size = Math.min(size, MAX_CURSOR_PAGE_SIZE);
+        Query query = templatesQuery(name);
+        if (StringUtils.isNotEmpty(cursor)) {
+            int separator = cursor.indexOf('_');
+            Date updateTime;
+            ObjectId id;
+            try {
+                String time = cursor.substring(0, separator);
+                updateTime = NULL_UPDATE_TIME_CURSOR.equals(time) ? null : new Date(Long.parseLong(time));
+                id = new ObjectId(cursor.substring(separator + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+            if (updateTime == null) {
+                query.addCriteria(Criteria.where("metadata.updateTime").is(null).and("_id").lt(id));
+            } else {
+                // $lt不匹配null, 没有updateTime的模板要单独列出, 否则永远翻不到
+                query.addCriteria(new Criteria().orOperator(
+                        Criteria.where("metadata.updateTime").lt(updateTime),
+                        Criteria.where("metadata.updateTime").is(updateTime).and("_id").lt(id),
+                        Criteria.where("metadata.updateTime").is(null)));
+            }
+        }
+        // 多取一条判断是否还有下一页
+        query.with(LIST_SORT).limit(size + 1);
+        List<TemplateInfo> templates = findTemplateMetadata(query);
+        String nextCursor = null;
+        if (templates.size() > size) {
+            templates = new ArrayList<>(templates.subList(0, size));
+            TemplateInfo last = templates.get(size - 1);
+            nextCursor = (last.getUpdateTime() != null ? String.valueOf(last.getUpdateTime().getTime())
+                    : NULL_UPDATE_TIME_CURSOR) + "_" + last.getId();
+        }
+        return new CursorPage<>(templates, size, nextCursor);
+    }
+
+    private Query templatesQuery(String name) {
+        Query query = new Query(Criteria.where("metadata.updateBy").is(SystemUserUtil.getCurrentUsername()));
+        if (name != null && !name.isEmpty()) {
+            // 前缀区间查询, 可以使用索引; 不区分大小写的非锚定正则只能全表扫描
+            String prefix = filenameKey(name);
+            query.addCriteria(Criteria.where("metadata.filenameLower").gte(prefix).lt(prefix + Character.MAX_VALUE));
+        }
+        return query;
+    }
+
+    private static String filenameKey(String filename) {
+        return filename.toLowerCase(Locale.ROOT);
+    }
+
+    private List<TemplateInfo> findTemplateMetadata(Query query) {
+        query.fields().include("metadata.filename").include("metadata.updateBy").include("metadata.updateTime")
+                .include("length");
+        List<TemplateInfo> templates = new ArrayList<>();
+        for (Document file : mongoTemplate.find(query, Document.class, filesCollection())) {
+            Document metadata = file.get("metadata", Document.class);
+            if (metadata == null) {
+                continue;
+            }
+            Object id = file.get("_id");
+            Object length = file.get("length");
+            TemplateInfo templateInfo = new TemplateInfo();
+            templateInfo.setId(id instanceof ObjectId ? ((ObjectId) id).toHexString() : String.valueOf(id));
+            templateInfo.setFilename(metadata.getString("filename"));
+            templateInfo.setUpdateBy(metadata.getString("updateBy"));
+            templateInfo.setUpdateTime(metadata.getDate("updateTime"));
+            templateInfo.setSize(length instanceof Number ? ((Number) length).longValue() : null);
+            templates.add(templateInfo);
+        }
+        return templates;
+    }
+
+    private String filesCollection() {
+        return gridFsBucket + ".files";
+    }
+
+    /**
+     * Cheap version stamp (id, upload time, length) read from fs.files only, without loading the content.
+     * Returns null if the template does not exist.
+     */
+    public String getTemplateVersion(String id) {
+        GridFSFile file = gridFsTemplate.findOne(new Query(Criteria.where("_id").is(id)));
+        if (file == null) {
+            return null;
+        }
+        return file.getObjectId().toHexString() + ":" + file.getUploadDate().getTime() + ":" + file.getLength();
     }
 
     public TemplateInfo getTemplateById(String id) {
@@ -166,6 +342,7 @@ public class TemplateService {
             metadata.put("updateBy", templateInfo.getUpdateBy() != null ? templateInfo.getUpdateBy() : "SYSTEM");
             metadata.put("updateTime", templateInfo.getUpdateTime() != null ? templateInfo.getUpdateTime() : new Date());
             metadata.put("filename", templateInfo.getFilename() != null ? templateInfo.getFilename() : "Test-Template-" + System.currentTimeMillis());
+            metadata.put("filenameLower", filenameKey(metadata.getString("filename")));
             
             // 存储模板内容并获取ID
             ObjectId objectId = gridFsTemplate.store(
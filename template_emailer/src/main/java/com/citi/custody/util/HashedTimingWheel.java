@@ -0,0 +1,165 @@
+package com.citi.custody.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel keyed by id: {@code wheelSize} buckets of {@code tickMillis} each, with a rounds
+ * counter for deadlines further away than one revolution. Scheduling and cancelling are O(1) and never
+ * touch the wheel directly: they are queued and applied by the single worker thread on its next tick.
+ * Scheduling an id that is already pending replaces the earlier deadline. Expired ids are handed to
+ * {@code onExpired} on the given executor so a slow handler cannot delay the wheel.
+ */
+public class HashedTimingWheel {
+    private static final Logger logger = LoggerFactory.getLogger(HashedTimingWheel.class);
+
+    private final String name;
+    private final long tickMillis;
+    private final Set<Timeout>[] buckets;
+    private final Consumer<String> onExpired;
+    private final Executor executor;
+
+    private final Queue<Timeout> pendingAdds = new ConcurrentLinkedQueue<>();
+    private final Map<String, Timeout> timeouts = new ConcurrentHashMap<>();
+    private final AtomicLong fired = new AtomicLong();
+
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long startMillis;
+    private long tick;
+
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(String name, long tickMillis, int wheelSize, Consumer<String> onExpired, Executor executor) {
+        this.name = name;
+        this.tickMillis = Math.max(1, tickMillis);
+        this.buckets = new Set[Math.max(1, wheelSize)];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LinkedHashSet<>();
+        }
+        this.onExpired = onExpired;
+        this.executor = executor;
+        this.worker = new Thread(this::run, name + "-wheel");
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        startMillis = System.currentTimeMillis();
+        worker.start();
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    /**
+     * Fires {@code id} at {@code deadlineMillis} (epoch millis); deadlines in the past fire on the next tick.
+     */
+    public void schedule(String id, long deadlineMillis) {
+        Timeout timeout = new Timeout(id, deadlineMillis);
+        Timeout previous = timeouts.put(id, timeout);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+        pendingAdds.add(timeout);
+    }
+
+    public void cancel(String id) {
+        Timeout previous = timeouts.remove(id);
+        if (previous != null) {
+            previous.cancelled = true;
+        }
+    }
+
+    public boolean isScheduled(String id) {
+        return timeouts.containsKey(id);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("name", name);
+        stats.put("tickMillis", tickMillis);
+        stats.put("wheelSize", buckets.length);
+        stats.put("pending", timeouts.size());
+        stats.put("fired", fired.get());
+        return stats;
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startMillis + (tick + 1) * tickMillis;
+            long sleep = deadline - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                }
+            }
+            try {
+                transferPendingAdds();
+                expireBucket(buckets[(int) (tick % buckets.length)]);
+            } catch (Exception e) {
+                logger.error("Timing wheel {} tick failed: {}", name, e.getMessage(), e);
+            }
+            tick++;
+        }
+    }
+
+    private void transferPendingAdds() {
+        Timeout timeout;
+        while ((timeout = pendingAdds.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // bucket n is processed at startMillis + (n + 1) * tickMillis, i.e. at most one tick after the deadline
+            long ticks = Math.max(tick, (timeout.deadlineMillis - startMillis) / tickMillis);
+            timeout.remainingRounds = (ticks - tick) / buckets.length;
+            buckets[(int) (ticks % buckets.length)].add(timeout);
+        }
+    }
+
+    private void expireBucket(Set<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.cancelled) {
+                iterator.remove();
+            } else if (timeout.remainingRounds <= 0) {
+                iterator.remove();
+                if (timeouts.remove(timeout.id, timeout)) {
+                    fired.incrementAndGet();
+                    executor.execute(() -> onExpired.accept(timeout.id));
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    private static final class Timeout {
+        private final String id;
+        private final long deadlineMillis;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        private Timeout(String id, long deadlineMillis) {
+            this.id = id;
+            this.deadlineMillis = deadlineMillis;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+package com.citi.custody.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 渲染结果的可选压缩: 折叠空白, 去掉普通注释, 去掉没有浮动元素时无用的clear占位div和空的div/span包装,
+ * 整理内联style(去掉多余空格, 同名属性只保留最后一个). 样式仍保持内联, 邮件客户端对{@code <style>}的支持并不可靠.
+ * pre/textarea/script/style的内容和条件注释原样保留.
+ * 按字符处理, 既可重写编译好的渲染计划(槽位原样保留), 也可套在流式渲染的Writer外面
+ */
+public final class HtmlMinifier implements RenderPlan.SlotAppendable {
+
+    // 前后的空白不影响显示的元素
+    private static final Set<String> BLOCK_TAGS = new HashSet<>(Arrays.asList(
+            "!doctype", "html", "head", "body", "title", "meta", "link", "style", "script",
+            "table", "thead", "tbody", "tfoot", "tr", "td", "th", "caption", "colgroup", "col",
+            "div", "p", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "li", "dl", "dt", "dd",
+            "br", "hr", "center", "blockquote", "pre", "form", "section", "header", "footer"));
+
+    // 内容原样输出的元素
+    private static final Set<String> RAW_TAGS = new HashSet<>(Arrays.asList("pre", "textarea", "script", "style"));
+
+    private static final Pattern STYLE_ATTR = Pattern.compile("(\\sstyle\\s*=\\s*)(\"([^\"]*)\"|'([^']*)')", Pattern.CASE_INSENSITIVE);
+
+    private static final String CLEAR_DIV = "<div style=\"clear:both\">";
+
+    private enum State { TEXT, TAG, VERBATIM_TAG, RAW }
+
+    private final Appendable out;
+    private State state = State.TEXT;
+
+    private final StringBuilder tag = new StringBuilder();
+    private char quote;
+
+    private boolean pendingSpace;
+    private boolean afterBlock = true;
+    private boolean floatSeen;
+
+    // 可能被删掉的开始标签, 等到下一个标签再决定
+    private String held;
+    private String heldName;
+    private boolean heldSpace;
+
+    private String rawEnd;
+    private final StringBuilder rawMatch = new StringBuilder();
+    private int floatMatch;
+
+    private HtmlMinifier(Appendable out) {
+        this.out = out;
+    }
+
+    /**
+     * Minifies the static fragments of a plan; slots and inline images are kept.
+     */
+    public static RenderPlan minify(RenderPlan plan) {
+        RenderPlan.Builder builder = RenderPlan.builder();
+        HtmlMinifier minifier = new HtmlMinifier(builder);
+        try {
+            plan.copyTo(minifier);
+            minifier.finish();
+        } catch (IOException e) {
+            // Builder does not throw
+            throw new UncheckedIOException(e);
+        }
+        return builder.inlineImages(plan.getInlineImages()).build();
+    }
+
+    /**
+     * Writer that minifies everything written to it. Closing it writes what is still held back but does not
+     * close {@code out}.
+     */
+    public static Writer writer(Writer out) {
+        HtmlMinifier minifier = new HtmlMinifier(out);
+        return new Writer() {
+            @Override
+            public void write(char[] buf, int off, int len) throws IOException {
+                for (int i = off; i < off + len; i++) {
+                    minifier.accept(buf[i]);
+                }
+            }
+
+            @Override
+            public void write(String str, int off, int len) throws IOException {
+                minifier.append(str, off, off + len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                minifier.finish();
+                out.flush();
+            }
+        };
+    }
+
+    @Override
+    public HtmlMinifier append(CharSequence text) throws IOException {
+        return append(text, 0, text.length());
+    }
+
+    @Override
+    public HtmlMinifier append(CharSequence text, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            accept(text.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public HtmlMinifier append(char c) throws IOException {
+        accept(c);
+        return this;
+    }
+
+    @Override
+    public HtmlMinifier slot(RenderPlan.Slot slot) throws IOException {
+        if (!(out instanceof RenderPlan.SlotAppendable)) {
+            throw new IllegalStateException("Output does not accept slots");
+        }
+        switch (state) {
+            case TEXT:
+                releaseHeld();
+                writeSpace();
+                afterBlock = false;
+                break;
+            case TAG:
+                // 槽位在标签内部(例如属性值), 这个标签不再整理, 原样输出
+                releaseHeld();
+                writeSpace();
+                out.append(tag);
+                tag.setLength(0);
+                state = State.VERBATIM_TAG;
+                break;
+            case RAW:
+                out.append(rawMatch);
+                rawMatch.setLength(0);
+                break;
+            default:
+                break;
+        }
+        ((RenderPlan.SlotAppendable) out).slot(slot);
+        return this;
+    }
+
+    private void accept(char c) throws IOException {
+        switch (state) {
+            case TEXT:
+                text(c);
+                break;
+            case TAG:
+                tag(c);
+                break;
+            case VERBATIM_TAG:
+                out.append(c);
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '>') {
+                    state = State.TEXT;
+                    afterBlock = false;
+                }
+                break;
+            default:
+                raw(c);
+                break;
+        }
+    }
+
+    private void text(char c) throws IOException {
+        if (isSpace(c)) {
+            pendingSpace = true;
+            return;
+        }
+        if (c == '<') {
+            state = State.TAG;
+            tag.append(c);
+            return;
+        }
+        releaseHeld();
+        writeSpace();
+        out.append(c);
+        afterBlock = false;
+    }
+
+    private void tag(char c) throws IOException {
+        if (tag.length() == 1 && !(Character.isLetter(c) || c == '/' || c == '!' || c == '?')) {
+            // "<" that does not start a tag is plain text
+            tag.setLength(0);
+            state = State.TEXT;
+            releaseHeld();
+            writeSpace();
+            out.append('<');
+            afterBlock = false;
+            text(c);
+            return;
+        }
+        tag.append(c);
+        if (tag.length() >= 4 && tag.charAt(1) == '!' && tag.charAt(2) == '-' && tag.charAt(3) == '-') {
+            // 注释只在"-->"处结束, 不跟踪引号
+            if (c == '>' && tag.length() >= 7 && tag.charAt(tag.length() - 2) == '-' && tag.charAt(tag.length() - 3) == '-') {
+                endComment();
+            }
+            return;
+        }
+        if (quote != 0) {
+            if (c == quote) {
+                quote = 0;
+            }
+        } else if ((c == '"' || c == '\'') && tag.indexOf("=") >= 0) {
+            quote = c;
+        } else if (c == '>') {
+            String text = tag.toString();
+            tag.setLength(0);
+            state = State.TEXT;
+            endTag(text);
+        }
+    }
+
+    private void endComment() throws IOException {
+        String comment = tag.toString();
+        tag.setLength(0);
+        state = State.TEXT;
+        if (comment.startsWith("<!--[if") || comment.startsWith("<!--<![endif")) {
+            // Outlook条件注释必须保留
+            releaseHeld();
+            writeSpace();
+            out.append(comment);
+            afterBlock = false;
+            markFloat(comment);
+        }
+    }
+
+    private void endTag(String raw) throws IOException {
+        String text = normalizeTag(raw);
+        boolean closing = text.startsWith("</");
+        String name = tagName(text, closing ? 2 : 1);
+        markFloat(text);
+
+        if (held != null) {
+            if (closing && name.equals(heldName)) {
+                // 空的包装元素, 连同结束标签一起去掉
+                pendingSpace = pendingSpace || heldSpace;
+                held = null;
+                return;
+            }
+            releaseHeld();
+        }
+        if (!closing && isRemovableWrapper(text, name)) {
+            held = text;
+            heldName = name;
+            heldSpace = pendingSpace;
+            pendingSpace = false;
+            return;
+        }
+        writeTag(text, name, closing);
+    }
+
+    private void writeTag(String text, String name, boolean closing) throws IOException {
+        boolean block = BLOCK_TAGS.contains(name);
+        if (pendingSpace && !block && !afterBlock) {
+            out.append(' ');
+        }
+        pendingSpace = false;
+        out.append(text);
+        afterBlock = block;
+        if (!closing && RAW_TAGS.contains(name) && !text.endsWith("/>")) {
+            state = State.RAW;
+            rawEnd = "</" + name;
+            floatMatch = 0;
+        }
+    }
+
+    private boolean isRemovableWrapper(String text, String name) {
+        if (text.equals("<div>") || text.equals("<span>")) {
+            return true;
+        }
+        // clear只影响前面的浮动元素, 之前没有出现过float时clear占位没有作用
+        return !floatSeen && "div".equals(name) && text.equalsIgnoreCase(CLEAR_DIV);
+    }
+
+    private void releaseHeld() throws IOException {
+        if (held == null) {
+            return;
+        }
+        String text = held;
+        held = null;
+        boolean space = pendingSpace;
+        pendingSpace = heldSpace;
+        writeTag(text, heldName, false);
+        pendingSpace = space;
+    }
+
+    private void raw(char c) throws IOException {
+        if (!floatSeen) {
+            floatMatch = Character.toLowerCase(c) == "float".charAt(floatMatch) ? floatMatch + 1
+                    : (Character.toLowerCase(c) == 'f' ? 1 : 0);
+            if (floatMatch == 5) {
+                floatSeen = true;
+            }
+        }
+        if (Character.toLowerCase(c) == rawEnd.charAt(rawMatch.length())) {
+            rawMatch.append(c);
+            if (rawMatch.length() == rawEnd.length()) {
+                // 结束标签的其余部分按普通标签处理
+                tag.append(rawMatch);
+                rawMatch.setLength(0);
+                state = State.TAG;
+                pendingSpace = false;
+                afterBlock = false;
+            }
+            return;
+        }
+        if (rawMatch.length() > 0) {
+            out.append(rawMatch);
+            rawMatch.setLength(0);
+            if (c == '<') {
+                rawMatch.append(c);
+                return;
+            }
+        }
+        out.append(c);
+    }
+
+    private void finish() throws IOException {
+        releaseHeld();
+        if (tag.length() > 0) {
+            out.append(tag);
+            tag.setLength(0);
+        }
+        if (rawMatch.length() > 0) {
+            out.append(rawMatch);
+            rawMatch.setLength(0);
+        }
+        state = State.TEXT;
+    }
+
+    private void writeSpace() throws IOException {
+        if (pendingSpace && !afterBlock) {
+            out.append(' ');
+        }
+        pendingSpace = false;
+    }
+
+    private void markFloat(String text) {
+        if (!floatSeen && text.toLowerCase(Locale.ROOT).contains("float")) {
+            floatSeen = true;
+        }
+    }
+
+    /**
+     * Collapses whitespace outside attribute values and tidies inline styles.
+     */
+    static String normalizeTag(String raw) {
+        StringBuilder text = new StringBuilder(raw.length());
+        char q = 0;
+        boolean space = false;
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (q != 0) {
+                if (c == q) {
+                    q = 0;
+                }
+                text.append(c);
+            } else if (isSpace(c)) {
+                space = true;
+            } else {
+                if (space) {
+                    char last = text.charAt(text.length() - 1);
+                    boolean selfClose = c == '/' && i + 1 < raw.length() && raw.charAt(i + 1) == '>';
+                    // 标签末尾和等号两侧的空白可以去掉; "/>"前只有在引号值之后或没有属性值时才安全, 否则斜杠会并入无引号的属性值
+                    boolean safeSelfClose = selfClose && (last == '"' || last == '\'' || text.indexOf("=") < 0);
+                    if (c != '>' && c != '=' && last != '=' && !safeSelfClose) {
+                        text.append(' ');
+                    }
+                    space = false;
+                }
+                if ((c == '"' || c == '\'') && text.indexOf("=") >= 0) {
+                    q = c;
+                }
+                text.append(c);
+            }
+        }
+        if (text.indexOf("style") < 0 && text.indexOf("STYLE") < 0) {
+            return text.toString();
+        }
+        Matcher matcher = STYLE_ATTR.matcher(text);
+        // Java 8的Matcher只接受StringBuffer
+        StringBuffer result = new StringBuffer(text.length());
+        while (matcher.find()) {
+            char q2 = matcher.group(3) != null ? '"' : '\'';
+            String value = matcher.group(3) != null ? matcher.group(3) : matcher.group(4);
+            matcher.appendReplacement(result, Matcher.quoteReplacement(" style=" + q2 + normalizeStyle(value) + q2));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    /**
+     * "a: 1; b:2 ;a:3;" becomes "b:2;a:3". Styles with url(), quotes or escapes are only trimmed.
+     */
+    static String normalizeStyle(String style) {
+        if (style.indexOf('"') >= 0 || style.indexOf('\'') >= 0 || style.indexOf('\\') >= 0
+                || style.toLowerCase(Locale.ROOT).contains("url(")) {
+            return style.trim();
+        }
+        Map<String, String> declarations = new LinkedHashMap<>();
+        for (String part : style.split(";")) {
+            String declaration = part.trim();
+            if (declaration.isEmpty()) {
+                continue;
+            }
+            int colon = declaration.indexOf(':');
+            if (colon <= 0) {
+                return style.trim();
+            }
+            String name = declaration.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = declaration.substring(colon + 1).trim().replaceAll("\\s+", " ");
+            // 后出现的同名属性生效, 放在最后出现的位置上以保持与简写属性的先后关系
+            declarations.remove(name);
+            declarations.put(name, value);
+        }
+        StringBuilder result = new StringBuilder(style.length());
+        for (Map.Entry<String, String> declaration : declarations.entrySet()) {
+            if (result.length() > 0) {
+                result.append(';');
+            }
+            result.append(declaration.getKey()).append(':').append(declaration.getValue());
+        }
+        return result.toString();
+    }
+
+    private static String tagName(String text, int start) {
+        int end = start;
+        while (end < text.length()) {
+            char c = text.charAt(end);
+            if (isSpace(c) || c == '>' || c == '/') {
+                break;
+            }
+            end++;
+        }
+        return text.substring(start, end).toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+}
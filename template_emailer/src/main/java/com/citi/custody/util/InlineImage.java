@@ -0,0 +1,162 @@
+package com.citi.custody.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * 模板渲染时收集到的内嵌图片: 渲染结果中以{@code cid:<contentId>}引用, 发送时按同一个contentId加入related部分.
+ * contentId由图片来源确定性生成(文件名 + 来源哈希), 同一来源在同一模板内只嵌入一次, 缓存的渲染结果在多次发送间保持一致.
+ * http/https图片保持原链接, 不会生成InlineImage.
+ */
+public final class InlineImage {
+
+    public enum Kind {
+        /** Local path resolved against the image directories at send time. */
+        FILE,
+        /** Base64 data URI embedded as its decoded bytes. */
+        DATA
+    }
+
+    private static final String DATA_PREFIX = "data:";
+    private static final String BASE64_MARKER = ";base64,";
+
+    private final Kind kind;
+    private final String source;
+    private final String fileName;
+    private final String mimeType;
+    private final String contentId;
+
+    private InlineImage(Kind kind, String source, String fileName, String mimeType) {
+        this.kind = kind;
+        this.source = source;
+        this.fileName = fileName;
+        this.mimeType = mimeType;
+        this.contentId = fileName.replaceAll("[^a-zA-Z0-9.-]", "_") + "@" + shortHash(source);
+    }
+
+    /**
+     * Classifies an image src from the template.
+     *
+     * @return the inline image to embed, or null when the src should stay as it is (remote URL, empty, non-base64 data URI)
+     */
+    public static InlineImage forSource(String src) {
+        if (src == null || src.isEmpty() || src.startsWith("http://") || src.startsWith("https://") || src.startsWith("cid:")) {
+            return null;
+        }
+        if (src.startsWith(DATA_PREFIX)) {
+            int marker = src.indexOf(BASE64_MARKER);
+            if (marker < 0) {
+                return null;
+            }
+            String mimeType = src.substring(DATA_PREFIX.length(), marker);
+            if (mimeType.isEmpty()) {
+                mimeType = "application/octet-stream";
+            }
+            return new InlineImage(Kind.DATA, src, "image" + extensionOf(mimeType), mimeType);
+        }
+        String fileName = src;
+        int lastSlash = src.lastIndexOf('/');
+        if (lastSlash >= 0 && lastSlash < src.length() - 1) {
+            fileName = src.substring(lastSlash + 1);
+        }
+        return new InlineImage(Kind.FILE, src, fileName, mimeTypeOf(fileName));
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * The src as written in the template: a path for {@link Kind#FILE}, the whole data URI for {@link Kind#DATA}.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public String getContentId() {
+        return contentId;
+    }
+
+    /**
+     * Decoded bytes of a {@link Kind#DATA} image.
+     */
+    public byte[] decodeData() {
+        String data = source.substring(source.indexOf(BASE64_MARKER) + BASE64_MARKER.length());
+        return Base64.getMimeDecoder().decode(data);
+    }
+
+    public static String mimeTypeOf(String fileName) {
+        int dotIndex = fileName == null ? -1 : fileName.lastIndexOf('.');
+        if (dotIndex == -1) {
+            return "application/octet-stream";
+        }
+
+        switch (fileName.substring(dotIndex + 1).toLowerCase()) {
+            case "jpg":
+            case "jpeg":
+                return "image/jpeg";
+            case "png":
+                return "image/png";
+            case "gif":
+                return "image/gif";
+            case "bmp":
+                return "image/bmp";
+            case "webp":
+                return "image/webp";
+            case "svg":
+                return "image/svg+xml";
+            case "tiff":
+            case "tif":
+                return "image/tiff";
+            case "ico":
+                return "image/x-icon";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    private static String extensionOf(String mimeType) {
+        switch (mimeType.toLowerCase()) {
+            case "image/jpeg":
+                return ".jpg";
+            case "image/png":
+                return ".png";
+            case "image/gif":
+                return ".gif";
+            case "image/svg+xml":
+                return ".svg";
+            case "image/webp":
+                return ".webp";
+            default:
+                return "";
+        }
+    }
+
+    private static String shortHash(String source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(8);
+            for (int i = 0; i < 4; i++) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16)).append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return kind + ":" + fileName + " <" + contentId + ">";
+    }
+}
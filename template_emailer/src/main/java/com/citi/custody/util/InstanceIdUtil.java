@@ -0,0 +1,14 @@
+package com.citi.custody.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+
+public class InstanceIdUtil {
+    // 当前应用实例的标识(主机名@进程号), 用于记录发送锁的持有者
+    private static final String INSTANCE_ID = ManagementFactory.getRuntimeMXBean().getName() + "-"
+            + UUID.randomUUID().toString().substring(0, 8);
+
+    public static String getInstanceId() {
+        return INSTANCE_ID;
+    }
+}
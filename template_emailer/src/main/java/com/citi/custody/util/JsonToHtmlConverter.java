@@ -1,12 +1,66 @@
 package com.citi.custody.util;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class JsonToHtmlConverter {
 
+    // ObjectMapper is thread-safe once configured; building one per call was a measurable part of every render
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    static final String NO_CONTENT = "<html><body><p>No content available</p></body></html>";
+
+    // 顶部HTML结构: 只保留必要的样式, 然后打开内容主表格
+    static final String DOCUMENT_START = "<!DOCTYPE html>"
+            + "<html>"
+            + "<head>"
+            + "<meta charset=\"UTF-8\">"
+            + "<title>Email Template</title>"
+            + "<style>"
+            + "body{margin:0;padding:0;font-family:arial,sans-serif;}"
+            + "table{border-collapse:collapse;width:100%;}"
+            + "img{max-width:100%;height:auto;}"
+            + "</style>"
+            + "</head>"
+            + "<body>"
+            + "<table cellspacing=\"0\" cellpadding=\"0\" border=\"0\" width=\"100%\">";
+
+    static final String DOCUMENT_END = "</table>" // 关闭主容器表格
+            + "</body></html>";
+
+    // 每行代表一个表格行, 行内再用一个表格放置各列
+    static final String ROW_START = "<tr><td>"
+            + "<table cellspacing=\"0\" cellpadding=\"0\" border=\"0\" width=\"100%\"><tr>";
+
+    static final String ROW_END = "</tr></table>" // 关闭行表格
+            + "</td></tr>"; // 关闭容器
+
+    static final String COLUMN_END = "</td>"; // 关闭列单元格
+
+    static final String HTML_BLOCK_END = "</div>";
+
+    private static final String CLEAR = "<div style=\"clear:both;\"></div>";
+
+    // 变量占位符 {{name}}, 名称由字母/数字/_/./-组成
+    private static final String PLACEHOLDER_OPEN = "{{";
+    private static final String PLACEHOLDER_CLOSE = "}}";
+
+    // html内容块中<img>标签的src属性
+    private static final Pattern IMG_SRC = Pattern.compile("<img[^>]+src\\s*=\\s*['\"]([^'\"]+)['\"][^>]*>", Pattern.CASE_INSENSITIVE);
+
     /**
      * Converts JSON data to an HTML string.
      * @param json The JSON string describing the HTML structure.
@@ -14,35 +68,26 @@ public class JsonToHtmlConverter {
      * @throws IOException If JSON parsing fails.
      */
     public static String convertJsonToHtml(String json) throws IOException {
+        return compile(json).render();
+    }
+
+    /**
+     * Compiles template JSON into a render plan. Callers that render the same template repeatedly
+     * should cache the plan (see TemplateRenderService) instead of converting the JSON each time.
+     * @param json The JSON string describing the HTML structure.
+     * @return The immutable render plan with its inline images; invalid JSON yields a plan for an error page.
+     */
+    public static RenderPlan compile(String json) {
         // 检测输入JSON是否为空
         if (json == null || json.trim().isEmpty()) {
-            return "<html><body><p>No content available</p></body></html>";
+            return RenderPlan.builder().append(NO_CONTENT).build();
         }
 
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode rootNode = objectMapper.readTree(json);
-
-            // 创建顶部HTML结构
-            StringBuilder htmlBuilder = new StringBuilder();
-            htmlBuilder.append("<!DOCTYPE html>");
-            htmlBuilder.append("<html>");
-            htmlBuilder.append("<head>");
-            htmlBuilder.append("<meta charset=\"UTF-8\">");
-            htmlBuilder.append("<title>Email Template</title>");
-
-            // 只保留必要的样式
-            htmlBuilder.append("<style>");
-            htmlBuilder.append("body{margin:0;padding:0;font-family:arial,sans-serif;}");
-            htmlBuilder.append("table{border-collapse:collapse;width:100%;}");
-            htmlBuilder.append("img{max-width:100%;height:auto;}");
-            htmlBuilder.append("</style>");
-
-            htmlBuilder.append("</head>");
-            htmlBuilder.append("<body>");
-
-            // 生成内容主表格
-            htmlBuilder.append("<table cellspacing=\"0\" cellpadding=\"0\" border=\"0\" width=\"100%\">");
+            JsonNode rootNode = OBJECT_MAPPER.readTree(json);
+            RenderPlan.Builder htmlBuilder = RenderPlan.builder();
+            Map<String, InlineImage> images = new LinkedHashMap<>();
+            htmlBuilder.append(DOCUMENT_START);
 
             // 解析body节点
             JsonNode bodyNode = rootNode.get("body");
@@ -50,164 +95,430 @@ public class JsonToHtmlConverter {
                 JsonNode rows = bodyNode.get("rows");
                 if (rows != null && rows.isArray()) {
                     for (JsonNode row : rows) {
-                        // 每行代表一个表格行
-                        htmlBuilder.append("<tr><td>");
-                        
-                        // 此行内容表格
-                        htmlBuilder.append("<table cellspacing=\"0\" cellpadding=\"0\" border=\"0\" width=\"100%\"><tr>");
-                        
-                        JsonNode columns = row.get("columns");
-                        if (columns != null && columns.isArray()) {
-                            int totalColumns = columns.size();
-                            
-                            // 计算列宽
-                            int[] widths = new int[totalColumns];
-                            int totalWidth = 0;
-                            
-                            for (int i = 0; i < totalColumns; i++) {
-                                JsonNode column = columns.get(i);
-                                if (column.has("ratio") && column.get("ratio").isInt()) {
-                                    widths[i] = column.get("ratio").asInt();
-                                } else {
-                                    widths[i] = 1;
-                                }
-                                totalWidth += widths[i];
-                            }
-                            
-                            for (int i = 0; i < totalColumns; i++) {
-                                JsonNode column = columns.get(i);
-                                
-                                // 计算百分比宽度
-                                int widthPercent = (widths[i] * 100) / totalWidth;
-                                
-                                // 列作为表格单元格
-                                htmlBuilder.append("<td width=\"").append(widthPercent).append("%\" valign=\"top\" style=\"padding:10px\">");
-                                
-                                JsonNode contents = column.get("contents");
-                                if (contents != null && contents.isArray()) {
-                                    for (JsonNode content : contents) {
-                                        String type = content.path("type").asText("");
-                                        
-                                        // 获取内容值
-                                        JsonNode values = content.path("values");
-                                        String text = values.path("text").asText("");
-                                        String alignment = values.path("align").asText("left");
-                                        
-                                        if ("text".equals(type)) {
-                                            // 文本段落
-                                            htmlBuilder.append("<p style=\"margin:0 0 10px 0;text-align:").append(alignment).append(";\">")
-                                                      .append(text).append("</p>");
-                                        } else if ("heading".equals(type)) {
-                                            // 标题 - 确保标题独立一行，前后有间隔边距
-                                            htmlBuilder.append("<div style=\"clear:both;\"></div>");
-                                            htmlBuilder.append("<h1 style=\"margin:0 0 10px 0;font-size:24px;text-align:")
-                                                      .append(alignment).append(";\">").append(text).append("</h1>");
-                                            htmlBuilder.append("<div style=\"clear:both;\"></div>");
-                                        } else if ("image".equals(type)) {
-                                            // 图片处理
-                                            String imageUrl = "";
-                                            if (values.has("src")) {
-                                                if (values.path("src").isObject()) {
-                                                    imageUrl = values.path("src").path("url").asText();
-                                                } else {
-                                                    imageUrl = values.path("src").asText();
-                                                }
-                                            } else if (values.has("url")) {
-                                                imageUrl = values.path("url").asText();
-                                            }
-                                            
-                                            if (!imageUrl.isEmpty()) {
-                                                // 处理本地图片引用
-                                                if (imageUrl.startsWith("http://") || imageUrl.startsWith("https://") || imageUrl.startsWith("data:")) {
-                                                    String imgFileName = imageUrl;
-                                                    if (imageUrl.contains("/")) {
-                                                        imgFileName = imageUrl.substring(imageUrl.lastIndexOf("/") + 1);
-                                                    }
-                                                    
-                                                    // 简单地生成图片ID
-                                                    String contentId = imgFileName.replaceAll("[^a-zA-Z0-9.]", "_");
-                                                    if (contentId.contains(".")) {
-                                                        contentId = contentId.substring(0, contentId.lastIndexOf('.'));
-                                                    }
-                                                    contentId = contentId + "_img";
-                                                    
-                                                    imageUrl = "cid:" + contentId;
-                                                }
-                                                
-                                                String altText = text.isEmpty() ? "Image" : text;
-                                                
-                                                // 为图片添加清除浮动，确保它在自己的行中显示
-                                                htmlBuilder.append("<div style=\"clear:both;\"></div>");
-                                                
-                                                // 为图片创建一个自包含的div，宽度与其他元素保持一致
-                                                htmlBuilder.append("<div style=\"display:block; width:100%; margin:0 0 10px 0;\">");
-                                                
-                                                if ("left".equals(alignment)) {
-                                                    // 左对齐
-                                                    htmlBuilder.append("<div style=\"text-align:left;\">");
-                                                    htmlBuilder.append("<img src=\"").append(imageUrl).append("\" alt=\"")
-                                                              .append(altText).append("\" style=\"display:block; border:0; max-width:100%; margin:0 auto;\" />");
-                                                    htmlBuilder.append("</div>");
-                                                } else if ("right".equals(alignment)) {
-                                                    // 右对齐
-                                                    htmlBuilder.append("<div style=\"text-align:right;\">");
-                                                    htmlBuilder.append("<img src=\"").append(imageUrl).append("\" alt=\"")
-                                                              .append(altText).append("\" style=\"display:block; border:0; max-width:100%; margin:0 auto;\" />");
-                                                    htmlBuilder.append("</div>");
-                                                } else {
-                                                    // 居中对齐
-                                                    htmlBuilder.append("<div style=\"text-align:center;\">");
-                                                    htmlBuilder.append("<img src=\"").append(imageUrl).append("\" alt=\"")
-                                                              .append(altText).append("\" style=\"display:block; border:0; max-width:100%; margin:0 auto;\" />");
-                                                    htmlBuilder.append("</div>");
-                                                }
-                                                
-                                                htmlBuilder.append("</div>");
-                                                htmlBuilder.append("<div style=\"clear:both;\"></div>");
-                                            }
-                                        } else if ("html".equals(type)) {
-                                            // 直接HTML内容
-                                            String htmlContent = values.path("html").asText("");
-                                            if (!htmlContent.isEmpty()) {
-                                                htmlBuilder.append("<div style=\"text-align:").append(alignment).append(";\">")
-                                                          .append(htmlContent).append("</div>");
-                                            }
-                                        } else if ("button".equals(type)) {
-                                            // 简化按钮
-                                            String alignStyle = "left".equals(alignment) ? "" : 
-                                                              ("center".equals(alignment) ? "margin:0 auto;" : "margin-left:auto;");
-
-                                            htmlBuilder.append("<table cellspacing=\"0\" cellpadding=\"0\" border=\"0\" style=\"margin:10px 0;")
-                                                      .append(alignStyle).append("\"><tr><td style=\"padding:10px 15px;background-color:#337ab7;border-radius:4px;\">")
-                                                      .append("<a href=\"#\" style=\"color:#ffffff;text-decoration:none;display:block;\">")
-                                                      .append(text).append("</a></td></tr></table>");
-                                        }
-                                    }
-                                }
-                                
-                                htmlBuilder.append("</td>"); // 关闭列单元格
-                            }
-                        }
-                        
-                        htmlBuilder.append("</tr></table>"); // 关闭行表格
-                        htmlBuilder.append("</td></tr>"); // 关闭容器
+                        appendRow(htmlBuilder, row, images);
                     }
                 }
             } else {
                 // 没有正确的body结构时添加默认内容
                 htmlBuilder.append("<tr><td>").append(json).append("</td></tr>");
             }
-            
-            htmlBuilder.append("</table>"); // 关闭主容器表格
-            htmlBuilder.append("</body></html>");
-            return htmlBuilder.toString();
+
+            htmlBuilder.append(DOCUMENT_END);
+            return htmlBuilder.inlineImages(images.values()).build();
         } catch (Exception e) {
             // 记录错误并返回简单HTML
             System.err.println("Error converting JSON to HTML: " + e.getMessage());
-            return "<html><body><p>Error parsing template content: " + e.getMessage() + "</p></body></html>";
+            return RenderPlan.builder().append(errorPage(e)).build();
+        }
+    }
+
+    /**
+     * Compiles the template row by row. {@code rowPlans} turns the raw JSON text of one row into its fragment
+     * (see {@link #compileRow}), so callers can cache fragments by row content and only compile rows that changed.
+     * The result renders exactly like {@link #compile}; JSON whose rows cannot be split reliably (invalid,
+     * duplicate keys, unexpected structure) is compiled as a whole.
+     */
+    public static RenderPlan compileByRow(String json, Function<String, RenderPlan> rowPlans) {
+        List<String> rows;
+        try {
+            rows = splitRows(json);
+        } catch (Exception e) {
+            rows = null;
+        }
+        if (rows == null) {
+            return compile(json);
+        }
+
+        RenderPlan.Builder htmlBuilder = RenderPlan.builder();
+        Map<String, InlineImage> images = new LinkedHashMap<>();
+        htmlBuilder.append(DOCUMENT_START);
+        try {
+            for (String row : rows) {
+                RenderPlan fragment = rowPlans.apply(row);
+                htmlBuilder.append(fragment);
+                for (InlineImage image : fragment.getInlineImages()) {
+                    images.putIfAbsent(image.getContentId(), image);
+                }
+            }
+        } catch (RuntimeException e) {
+            // 某一行无法渲染时整体编译, 得到与之相同的错误页面
+            return compile(json);
+        }
+        htmlBuilder.append(DOCUMENT_END);
+        return htmlBuilder.inlineImages(images.values()).build();
+    }
+
+    /**
+     * Compiles one row of {@code body.rows}, given as its JSON text; the fragment carries the row's inline images.
+     */
+    public static RenderPlan compileRow(String rowJson) {
+        try {
+            RenderPlan.Builder rowBuilder = RenderPlan.builder();
+            Map<String, InlineImage> images = new LinkedHashMap<>();
+            appendRow(rowBuilder, OBJECT_MAPPER.readTree(rowJson), images);
+            return rowBuilder.inlineImages(images.values()).build();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Raw JSON text of each row, or null when the document is not a plain {"body":{"rows":[...]}} object
+     * and must go through the tree model.
+     */
+    private static List<String> splitRows(String json) throws IOException {
+        if (json == null || json.trim().isEmpty()) {
+            return null;
+        }
+        List<String> rows = null;
+        try (JsonParser parser = OBJECT_MAPPER.getFactory().createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            boolean seenBody = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!"body".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                // 树模型中重复键取最后一个值, 这里不做同样的处理, 交给整体编译
+                if (seenBody || value != JsonToken.START_OBJECT) {
+                    return null;
+                }
+                seenBody = true;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String bodyField = parser.getCurrentName();
+                    JsonToken bodyValue = parser.nextToken();
+                    if (!"rows".equals(bodyField)) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    if (rows != null || bodyValue != JsonToken.START_ARRAY) {
+                        return null;
+                    }
+                    rows = new ArrayList<>();
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        int start = (int) parser.getTokenLocation().getCharOffset();
+                        parser.skipChildren();
+                        int end = (int) parser.getCurrentLocation().getCharOffset();
+                        rows.add(json.substring(start, end));
+                    }
+                }
+            }
+            if (!seenBody) {
+                return null;
+            }
+        }
+        return rows != null ? rows : new ArrayList<>();
+    }
+
+    private static void appendRow(RenderPlan.Builder htmlBuilder, JsonNode row, Map<String, InlineImage> images) throws IOException {
+        htmlBuilder.append(ROW_START);
+
+        JsonNode columns = row.get("columns");
+        if (columns != null && columns.isArray()) {
+            int[] ratios = new int[columns.size()];
+            for (int i = 0; i < ratios.length; i++) {
+                ratios[i] = ratioOf(columns.get(i));
+            }
+            int[] widths = widthPercents(ratios);
+
+            for (int i = 0; i < widths.length; i++) {
+                appendColumnStart(htmlBuilder, widths[i]);
+                JsonNode contents = columns.get(i).get("contents");
+                if (contents != null && contents.isArray()) {
+                    for (JsonNode content : contents) {
+                        appendContent(htmlBuilder, content.path("type").asText(""), content.path("values"), images);
+                    }
+                }
+                htmlBuilder.append(COLUMN_END);
+            }
+        }
+
+        htmlBuilder.append(ROW_END);
+    }
+
+    static String errorPage(Exception e) {
+        return "<html><body><p>Error parsing template content: " + e.getMessage() + "</p></body></html>";
+    }
+
+    /**
+     * Column ratio as the editor stores it; anything other than an int counts as 1.
+     */
+    static int ratioOf(JsonNode column) {
+        if (column.has("ratio") && column.get("ratio").isInt()) {
+            return column.get("ratio").asInt();
+        }
+        return 1;
+    }
+
+    /**
+     * 按各列比例计算百分比宽度
+     */
+    static int[] widthPercents(int[] ratios) {
+        int totalWidth = 0;
+        for (int ratio : ratios) {
+            totalWidth += ratio;
+        }
+        int[] widths = new int[ratios.length];
+        for (int i = 0; i < ratios.length; i++) {
+            widths[i] = (ratios[i] * 100) / totalWidth;
+        }
+        return widths;
+    }
+
+    /**
+     * 列作为表格单元格
+     */
+    static void appendColumnStart(Appendable out, int widthPercent) throws IOException {
+        out.append("<td width=\"").append(String.valueOf(widthPercent)).append("%\" valign=\"top\" style=\"padding:10px\">");
+    }
+
+    /**
+     * 直接HTML内容的外层div; 内容本身由调用方写入(流式渲染时不经过String)
+     */
+    static void appendHtmlBlockStart(Appendable out, String alignment) throws IOException {
+        out.append("<div style=\"text-align:").append(alignment).append(";\">");
+    }
+
+    /**
+     * Renders one content block of a column; embedded images are added to {@code images} by content-id.
+     */
+    static void appendContent(Appendable out, String type, JsonNode values, Map<String, InlineImage> images) throws IOException {
+        // 获取内容值
+        String text = values.path("text").asText("");
+        String alignment = values.path("align").asText("left");
+
+        if ("text".equals(type)) {
+            // 文本段落
+            out.append("<p style=\"margin:0 0 10px 0;text-align:").append(alignment).append(";\">");
+            appendText(out, text, 0, text.length());
+            out.append("</p>");
+        } else if ("heading".equals(type)) {
+            // 标题 - 确保标题独立一行，前后有间隔边距
+            out.append(CLEAR);
+            out.append("<h1 style=\"margin:0 0 10px 0;font-size:24px;text-align:")
+                    .append(alignment).append(";\">");
+            appendText(out, text, 0, text.length());
+            out.append("</h1>");
+            out.append(CLEAR);
+        } else if ("image".equals(type)) {
+            appendImage(out, imageUrl(values), text, alignment, images);
+        } else if ("html".equals(type)) {
+            // 直接HTML内容
+            String htmlContent = values.path("html").asText("");
+            if (!htmlContent.isEmpty()) {
+                appendHtmlBlockStart(out, alignment);
+                appendHtml(out, htmlContent, images);
+                out.append(HTML_BLOCK_END);
+            }
+        } else if ("button".equals(type)) {
+            // 简化按钮
+            String alignStyle = "left".equals(alignment) ? "" :
+                    ("center".equals(alignment) ? "margin:0 auto;" : "margin-left:auto;");
+
+            out.append("<table cellspacing=\"0\" cellpadding=\"0\" border=\"0\" style=\"margin:10px 0;")
+                    .append(alignStyle).append("\"><tr><td style=\"padding:10px 15px;background-color:#337ab7;border-radius:4px;\">")
+                    .append("<a href=\"#\" style=\"color:#ffffff;text-decoration:none;display:block;\">");
+            appendText(out, text, 0, text.length());
+            out.append("</a></td></tr></table>");
+        } else if ("table".equals(type)) {
+            // 数据表格: 列格式在此编译一次, 数据行在渲染时按source名从变量中取出并逐行流式输出
+            TableSlot table = new TableSlot(values);
+            if (out instanceof RenderPlan.SlotAppendable) {
+                ((RenderPlan.SlotAppendable) out).slot(table);
+            } else {
+                table.render(out, Collections.emptyMap());
+            }
+        }
+    }
+
+    /**
+     * 图片块的地址: src可以是字符串或带url的对象, 没有src时取url
+     */
+    static String imageUrl(JsonNode values) {
+        String imageUrl = "";
+        if (values.has("src")) {
+            if (values.path("src").isObject()) {
+                imageUrl = values.path("src").path("url").asText();
+            } else {
+                imageUrl = values.path("src").asText();
+            }
+        } else if (values.has("url")) {
+            imageUrl = values.path("url").asText();
+        }
+        return imageUrl;
+    }
+
+    /**
+     * 本地图片和base64图片改为cid引用并记录到images; 远程图片保持原链接
+     */
+    static String imageSrc(String url, Map<String, InlineImage> images) {
+        InlineImage image = InlineImage.forSource(url);
+        if (image == null) {
+            return url;
+        }
+        images.putIfAbsent(image.getContentId(), image);
+        return "cid:" + image.getContentId();
+    }
+
+    /**
+     * Appends {@code text[start, end)}, turning each {{name}} placeholder into a variable slot when the output
+     * accepts slots. Malformed placeholders are copied as they are.
+     */
+    static void appendText(Appendable out, String text, int start, int end) throws IOException {
+        int written = start;
+        int from = start;
+        while (true) {
+            int open = text.indexOf(PLACEHOLDER_OPEN, from);
+            if (open < 0 || open >= end) {
+                break;
+            }
+            int close = text.indexOf(PLACEHOLDER_CLOSE, open + PLACEHOLDER_OPEN.length());
+            if (close < 0 || close + PLACEHOLDER_CLOSE.length() > end) {
+                break;
+            }
+            String name = placeholderName(text, open + PLACEHOLDER_OPEN.length(), close);
+            if (name == null) {
+                from = open + 1;
+                continue;
+            }
+            out.append(text, written, open);
+            if (out instanceof RenderPlan.SlotAppendable) {
+                ((RenderPlan.SlotAppendable) out).slot(new VariableSlot(name));
+            } else {
+                out.append(text, open, close + PLACEHOLDER_CLOSE.length());
+            }
+            written = close + PLACEHOLDER_CLOSE.length();
+            from = written;
+        }
+        out.append(text, written, end);
+    }
+
+    /**
+     * True when the text has at least one placeholder that {@link #appendText} turns into a slot.
+     */
+    static boolean hasPlaceholders(String text) {
+        if (text.indexOf(PLACEHOLDER_OPEN) < 0) {
+            return false;
+        }
+        SlotCounter counter = new SlotCounter();
+        try {
+            appendText(counter, text, 0, text.length());
+        } catch (IOException e) {
+            // SlotCounter does not throw
+            throw new IllegalStateException(e);
         }
+        return counter.slots > 0;
     }
-    
+
+    private static String placeholderName(String text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return null;
+        }
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_'
+                    || (i > start && ((c >= '0' && c <= '9') || c == '.' || c == '-'));
+            if (!valid) {
+                return null;
+            }
+        }
+        return text.substring(start, end);
+    }
+
+    private static final class SlotCounter implements RenderPlan.SlotAppendable {
+        int slots;
+
+        @Override
+        public SlotCounter slot(RenderPlan.Slot slot) {
+            slots++;
+            return this;
+        }
+
+        @Override
+        public SlotCounter append(CharSequence csq) {
+            return this;
+        }
+
+        @Override
+        public SlotCounter append(CharSequence csq, int start, int end) {
+            return this;
+        }
+
+        @Override
+        public SlotCounter append(char c) {
+            return this;
+        }
+    }
+
+    /**
+     * Writes an html block, rewriting {@code <img src>} the same way as image blocks and compiling placeholders.
+     */
+    static void appendHtml(Appendable out, String html, Map<String, InlineImage> images) throws IOException {
+        Matcher matcher = IMG_SRC.matcher(html);
+        int written = 0;
+        while (matcher.find()) {
+            String src = matcher.group(1);
+            String rewritten = imageSrc(src, images);
+            if (!rewritten.equals(src)) {
+                appendText(out, html, written, matcher.start(1));
+                out.append(rewritten);
+                written = matcher.end(1);
+            }
+        }
+        appendText(out, html, written, html.length());
+    }
+
+    /**
+     * Collects the inline images of an html block without writing it.
+     * @return true when the block has at least one src that {@link #appendHtml} rewrites
+     */
+    static boolean collectHtmlImages(String html, Map<String, InlineImage> images) {
+        Matcher matcher = IMG_SRC.matcher(html);
+        boolean rewrites = false;
+        while (matcher.find()) {
+            String src = matcher.group(1);
+            rewrites |= !imageSrc(src, images).equals(src);
+        }
+        return rewrites;
+    }
+
+    private static void appendImage(Appendable out, String imageUrl, String text, String alignment,
+                                    Map<String, InlineImage> images) throws IOException {
+        // 图片处理
+        if (imageUrl.isEmpty()) {
+            return;
+        }
+        imageUrl = imageSrc(imageUrl, images);
+
+        String altText = text.isEmpty() ? "Image" : text;
+
+        // 为图片添加清除浮动，确保它在自己的行中显示
+        out.append(CLEAR);
+
+        // 为图片创建一个自包含的div，宽度与其他元素保持一致
+        out.append("<div style=\"display:block; width:100%; margin:0 0 10px 0;\">");
+
+        // 左对齐 / 右对齐 / 居中对齐
+        String textAlign = "left".equals(alignment) ? "left" : ("right".equals(alignment) ? "right" : "center");
+        out.append("<div style=\"text-align:").append(textAlign).append(";\">");
+        out.append("<img src=\"").append(imageUrl).append("\" alt=\"")
+                .append(altText).append("\" style=\"display:block; border:0; max-width:100%; margin:0 auto;\" />");
+        out.append("</div>");
+
+        out.append("</div>");
+        out.append(CLEAR);
+    }
+
     /**
      * Saves the generated HTML string to a file.
      * @param html The HTML string.
@@ -220,19 +531,19 @@ public class JsonToHtmlConverter {
             System.out.println("HTML file saved to: " + filePath);
         }
     }
-    
+
     public static void main(String[] args) {
         // Example JSON input
         String json = "..."; // Replace with your JSON string
-        
+
         try {
             // Convert JSON to HTML
             String html = convertJsonToHtml(json);
-            
+
             // Save HTML to a file
             saveHtmlToFile(html, "output.html");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,110 @@
+package com.citi.custody.util;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread-safe least-recently-used cache bounded by entry count and, optionally, by total weight
+ * (e.g. bytes). Keeps hit/miss/eviction counters for monitoring.
+ */
+public class LruCache<K, V> {
+    private final String name;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<K, V> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalWeight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LruCache(String name, int maxEntries) {
+        this(name, maxEntries, Long.MAX_VALUE, value -> 1);
+    }
+
+    public LruCache(String name, int maxEntries, long maxWeight, ToLongFunction<V> weigher) {
+        this.name = name;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+    }
+
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    /**
+     * Stores the value unless it alone is heavier than the cache may hold; then evicts least recently used entries.
+     */
+    public synchronized void put(K key, V value) {
+        long weight = weigher.applyAsLong(value);
+        if (weight > maxWeight) {
+            return;
+        }
+        V previous = entries.put(key, value);
+        if (previous != null) {
+            totalWeight -= weigher.applyAsLong(previous);
+        }
+        totalWeight += weight;
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || totalWeight > maxWeight) && iterator.hasNext()) {
+            Map.Entry<K, V> eldest = iterator.next();
+            totalWeight -= weigher.applyAsLong(eldest.getValue());
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Returns the cached value, computing and caching it on a miss. The loader runs outside the lock,
+     * so two threads missing at the same time may both compute; the last one wins.
+     */
+    public V computeIfAbsent(K key, Function<K, V> loader) {
+        V value = get(key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value != null) {
+                put(key, value);
+            }
+        }
+        return value;
+    }
+
+    public synchronized void remove(K key) {
+        V previous = entries.remove(key);
+        if (previous != null) {
+            totalWeight -= weigher.applyAsLong(previous);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        totalWeight = 0;
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        long requests = hits + misses;
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("name", name);
+        stats.put("entries", entries.size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("weight", totalWeight);
+        stats.put("maxWeight", maxWeight == Long.MAX_VALUE ? null : maxWeight);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("hitRate", requests == 0 ? 0 : Math.round(hits * 1000.0 / requests) / 1000.0);
+        return stats;
+    }
+}
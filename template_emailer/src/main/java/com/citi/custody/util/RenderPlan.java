@@ -0,0 +1,214 @@
+package com.citi.custody.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable result of compiling a template: pre-built static HTML fragments interleaved with dynamic slots.
+ * Adjacent static output is merged at compile time, so rendering a template without slots is a single copy.
+ * The plan also carries the inline images its HTML references by content-id, so senders never re-parse the template.
+ * Plans are shared between threads and must not be modified after {@link Builder#build()}.
+ */
+public final class RenderPlan {
+
+    /**
+     * Part of the output that is only known at render time.
+     */
+    public interface Slot {
+        void render(Appendable out, Map<String, ?> variables) throws IOException;
+    }
+
+    /**
+     * Output that accepts slots: a {@link Builder} keeps them for later, a streaming writer renders them right away.
+     */
+    public interface SlotAppendable extends Appendable {
+        SlotAppendable slot(Slot slot) throws IOException;
+    }
+
+    private final Object[] segments; // String or Slot
+    private final int staticLength;
+    private final int slotCount;
+    private final int variableCount;
+    private final Set<String> tableSources;
+    private final List<InlineImage> inlineImages;
+
+    private RenderPlan(Object[] segments, int staticLength, int slotCount, int variableCount, Set<String> tableSources,
+                       List<InlineImage> inlineImages) {
+        this.segments = segments;
+        this.staticLength = staticLength;
+        this.slotCount = slotCount;
+        this.variableCount = variableCount;
+        this.tableSources = tableSources;
+        this.inlineImages = inlineImages;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public String render() {
+        return render(Collections.emptyMap());
+    }
+
+    public String render(Map<String, ?> variables) {
+        StringBuilder out = new StringBuilder(staticLength + 16 * slotCount);
+        try {
+            writeTo(out, variables);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    public void writeTo(Appendable out, Map<String, ?> variables) throws IOException {
+        for (Object segment : segments) {
+            if (segment instanceof String) {
+                out.append((String) segment);
+            } else {
+                ((Slot) segment).render(out, variables);
+            }
+        }
+    }
+
+    /**
+     * Replays the plan into another output: static fragments are appended, slots are passed on unrendered.
+     */
+    void copyTo(SlotAppendable out) throws IOException {
+        for (Object segment : segments) {
+            if (segment instanceof String) {
+                out.append((String) segment);
+            } else {
+                out.slot((Slot) segment);
+            }
+        }
+    }
+
+    /**
+     * Number of characters in the static fragments, used to presize buffers and to weigh plans in the cache.
+     */
+    public int getStaticLength() {
+        return staticLength;
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    /**
+     * True when the output depends on {{name}} placeholders, i.e. differs per recipient.
+     */
+    public boolean hasVariables() {
+        return variableCount > 0;
+    }
+
+    /**
+     * Data source names of the table blocks; their rows are streamed in at render time.
+     */
+    public Set<String> getTableSources() {
+        return tableSources;
+    }
+
+    /**
+     * Images referenced as {@code cid:} in the output, each content-id once, in document order.
+     */
+    public List<InlineImage> getInlineImages() {
+        return inlineImages;
+    }
+
+    /**
+     * Collects static text and slots in output order; static text can be written through the Appendable interface.
+     */
+    public static final class Builder implements SlotAppendable {
+        private final List<Object> segments = new ArrayList<>();
+        private final StringBuilder pending = new StringBuilder();
+        private int staticLength;
+        private int slotCount;
+        private int variableCount;
+        private final Set<String> tableSources = new LinkedHashSet<>();
+        private List<InlineImage> inlineImages = Collections.emptyList();
+
+        private Builder() {
+        }
+
+        @Override
+        public Builder append(CharSequence text) {
+            pending.append(text);
+            return this;
+        }
+
+        @Override
+        public Builder append(CharSequence text, int start, int end) {
+            pending.append(text, start, end);
+            return this;
+        }
+
+        public Builder append(int value) {
+            pending.append(value);
+            return this;
+        }
+
+        @Override
+        public Builder append(char value) {
+            pending.append(value);
+            return this;
+        }
+
+        /**
+         * Appends another plan's output: its static fragments and slots, not its inline images.
+         */
+        public Builder append(RenderPlan plan) {
+            for (Object segment : plan.segments) {
+                if (segment instanceof String) {
+                    pending.append((String) segment);
+                } else {
+                    slot((Slot) segment);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public Builder slot(Slot slot) {
+            flush();
+            segments.add(slot);
+            slotCount++;
+            if (slot instanceof VariableSlot) {
+                variableCount++;
+            } else if (slot instanceof TableSlot) {
+                tableSources.add(((TableSlot) slot).getSource());
+            }
+            return this;
+        }
+
+        public Builder inlineImages(Collection<InlineImage> images) {
+            inlineImages = Collections.unmodifiableList(new ArrayList<>(images));
+            return this;
+        }
+
+        public RenderPlan build() {
+            flush();
+            return new RenderPlan(segments.toArray(), staticLength, slotCount, variableCount,
+                    Collections.unmodifiableSet(new LinkedHashSet<>(tableSources)), inlineImages);
+        }
+
+        private void flush() {
+            if (pending.length() > 0) {
+                segments.add(pending.toString());
+                staticLength += pending.length();
+                pending.setLength(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,574 @@
+package com.citi.custody.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 流式渲染: 用JsonParser逐个token读取模板JSON, HTML直接写到Writer/OutputStream, 不在内存中构建完整的树和结果字符串.
+ * 输出与{@link JsonToHtmlConverter#convertJsonToHtml(String)}逐字节一致.
+ * <p>
+ * 列宽依赖同一行所有列的ratio, 而ratio可能出现在contents之后, 因此分两遍读取:
+ * 第一遍({@link #prepare})记录每行的列宽、每个内容块的类型/对齐方式和内嵌图片清单, 第二遍输出.
+ * 两遍使用同一个遍历器, 保证走过的结构一致. 准备结果可重复输出.
+ * 内存占用与嵌套深度和内容块数量相关, 单个字符串token仍由Jackson整体缓冲.
+ */
+public final class StreamingHtmlRenderer {
+    private static final Logger logger = LoggerFactory.getLogger(StreamingHtmlRenderer.class);
+
+    private static final int WRITE_BUFFER_SIZE = 8192;
+
+    /**
+     * Re-readable template JSON; the renderer opens it once per pass.
+     */
+    public interface JsonSource {
+        JsonParser createParser(JsonFactory factory) throws IOException;
+
+        Reader openReader() throws IOException;
+
+        static JsonSource of(String json) {
+            return new JsonSource() {
+                @Override
+                public JsonParser createParser(JsonFactory factory) throws IOException {
+                    return factory.createParser(json);
+                }
+
+                @Override
+                public Reader openReader() {
+                    return new StringReader(json);
+                }
+            };
+        }
+
+        static JsonSource of(byte[] utf8) {
+            return of(() -> new ByteArrayInputStream(utf8));
+        }
+
+        static JsonSource of(StreamOpener opener) {
+            return new JsonSource() {
+                @Override
+                public JsonParser createParser(JsonFactory factory) throws IOException {
+                    return factory.createParser(opener.open());
+                }
+
+                @Override
+                public Reader openReader() throws IOException {
+                    return new InputStreamReader(opener.open(), StandardCharsets.UTF_8);
+                }
+            };
+        }
+    }
+
+    public interface StreamOpener {
+        InputStream open() throws IOException;
+    }
+
+    private StreamingHtmlRenderer() {
+    }
+
+    /**
+     * Runs the scan pass: the result knows the layout and inline images and can write the HTML any number of times.
+     */
+    public static Prepared prepare(JsonSource source) throws IOException {
+        return prepare(source, false);
+    }
+
+    /**
+     * @param minify pass the output through {@link HtmlMinifier} while it is written
+     */
+    public static Prepared prepare(JsonSource source, boolean minify) throws IOException {
+        Layout layout = new Layout();
+        try (JsonParser parser = source.createParser(JsonToHtmlConverter.OBJECT_MAPPER.getFactory())) {
+            new Walker(parser, layout, layout.images, null).walk();
+        } catch (DuplicateKeyException e) {
+            // 重复键时树模型取最后一个值, 流式无法提前得知, 退回整体渲染
+            logger.debug("Template JSON has duplicate key '{}', rendering without streaming", e.getMessage());
+            return planned(source, JsonToHtmlConverter.compile(readAll(source)), minify);
+        } catch (Exception e) {
+            logger.warn("Error converting JSON to HTML: {}", e.getMessage(), e);
+            return planned(source, RenderPlan.builder().append(JsonToHtmlConverter.errorPage(e)).build(), minify);
+        }
+        if (layout.empty) {
+            return planned(source, RenderPlan.builder().append(JsonToHtmlConverter.NO_CONTENT).build(), minify);
+        }
+        return new Prepared(source, layout, null, minify);
+    }
+
+    private static Prepared planned(JsonSource source, RenderPlan plan, boolean minify) {
+        return new Prepared(source, null, minify ? HtmlMinifier.minify(plan) : plan, false);
+    }
+
+    /**
+     * Renders the template as UTF-8 HTML. The stream is flushed but not closed.
+     */
+    public static void render(JsonSource source, OutputStream out) throws IOException {
+        prepare(source).writeTo(out);
+    }
+
+    public static void render(JsonSource source, Writer out) throws IOException {
+        prepare(source).writeTo(out);
+    }
+
+    /**
+     * Scanned template, ready to be written. Either streams from the source or, for empty, invalid or
+     * ambiguous JSON, holds the small plan the tree renderer produced.
+     */
+    public static final class Prepared {
+        private final JsonSource source;
+        private final Layout layout;
+        private final RenderPlan plan;
+        private final boolean minify;
+
+        private Prepared(JsonSource source, Layout layout, RenderPlan plan, boolean minify) {
+            this.source = source;
+            this.layout = layout;
+            this.plan = plan;
+            this.minify = minify;
+        }
+
+        /**
+         * Images the HTML references as {@code cid:}, in document order; same content-ids as the tree renderer.
+         */
+        public List<InlineImage> getInlineImages() {
+            return plan != null ? plan.getInlineImages()
+                    : Collections.unmodifiableList(new ArrayList<>(layout.images.values()));
+        }
+
+        /**
+         * True when the output depends on variables, i.e. the template has {{name}} placeholders.
+         */
+        public boolean hasVariables() {
+            return plan != null ? plan.getSlotCount() > 0 : layout.hasVariables;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            writeTo(out, Collections.emptyMap());
+        }
+
+        public void writeTo(OutputStream out, Map<String, ?> variables) throws IOException {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE);
+            writeTo(writer, variables);
+            writer.flush();
+        }
+
+        public void writeTo(Writer out) throws IOException {
+            writeTo(out, Collections.emptyMap());
+        }
+
+        public void writeTo(Writer out, Map<String, ?> variables) throws IOException {
+            if (plan != null) {
+                plan.writeTo(out, variables);
+                return;
+            }
+            if (minify) {
+                Writer minified = HtmlMinifier.writer(out);
+                write(minified, variables);
+                minified.close();
+            } else {
+                write(out, variables);
+            }
+        }
+
+        private void write(Writer out, Map<String, ?> variables) throws IOException {
+            out.write(JsonToHtmlConverter.DOCUMENT_START);
+            if (layout.hasBody) {
+                try (JsonParser parser = source.createParser(JsonToHtmlConverter.OBJECT_MAPPER.getFactory())) {
+                    // 图片已在第一遍收集, 输出时的cid与其一致, 这里只需一个临时表
+                    new Walker(parser, layout, new HashMap<>(), new SlotWriter(out, variables)).walk();
+                }
+            } else {
+                // 没有正确的body结构时添加默认内容
+                out.write("<tr><td>");
+                try (Reader reader = source.openReader()) {
+                    copy(reader, out);
+                }
+                out.write("</td></tr>");
+            }
+            out.write(JsonToHtmlConverter.DOCUMENT_END);
+        }
+    }
+
+    /**
+     * Renders placeholder slots as soon as the renderer reaches them.
+     */
+    private static final class SlotWriter extends FilterWriter implements RenderPlan.SlotAppendable {
+        private final Map<String, ?> variables;
+
+        SlotWriter(Writer out, Map<String, ?> variables) {
+            super(out);
+            this.variables = variables;
+        }
+
+        @Override
+        public SlotWriter slot(RenderPlan.Slot slot) throws IOException {
+            slot.render(this, variables);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            // 不关闭调用方的Writer
+        }
+    }
+
+    private static String readAll(JsonSource source) throws IOException {
+        StringWriter json = new StringWriter();
+        try (Reader reader = source.openReader()) {
+            copy(reader, json);
+        }
+        return json.toString();
+    }
+
+    private static void copy(Reader in, Writer out) throws IOException {
+        char[] buffer = new char[WRITE_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Result of the scan pass: row widths and content block metadata, both in document order.
+     */
+    private static final class Layout {
+        boolean empty;
+        boolean hasBody;
+        boolean hasVariables;
+        final List<int[]> rowWidths = new ArrayList<>(); // null for rows without a columns array
+        final List<Block> blocks = new ArrayList<>();
+        final Map<String, InlineImage> images = new LinkedHashMap<>();
+    }
+
+    private static final class Block {
+        String type = "";
+        String align = "left";
+        boolean htmlNonEmpty;
+        String inlineHtml; // html given as a non-string value, already converted like the tree does
+        boolean htmlRewrite; // html has <img> sources rewritten to cid or placeholders, so it is written from a String
+        boolean htmlPlaceholders;
+        boolean textPlaceholders;
+        Map<String, InlineImage> htmlImages;
+        ObjectNode imageFields; // src/url of the values, for image blocks
+    }
+
+    private static final class DuplicateKeyException extends RuntimeException {
+        DuplicateKeyException(String key) {
+            super(key, null, false, false);
+        }
+    }
+
+    /**
+     * Walks the template structure; scans into the layout when {@code out} is null, otherwise writes HTML from it.
+     */
+    private static final class Walker {
+        private final JsonParser parser;
+        private final Layout layout;
+        private final Map<String, InlineImage> images;
+        private final Writer out;
+        private int rowIndex;
+        private int blockIndex;
+
+        Walker(JsonParser parser, Layout layout, Map<String, InlineImage> images, Writer out) {
+            this.parser = parser;
+            this.layout = layout;
+            this.images = images;
+            this.out = out;
+        }
+
+        private boolean scanning() {
+            return out == null;
+        }
+
+        void walk() throws IOException {
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                layout.empty = true;
+                return;
+            }
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return;
+            }
+            boolean seen = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if ("body".equals(name)) {
+                    seen = checkFirst(seen, name);
+                    layout.hasBody = true;
+                    body();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        private void body() throws IOException {
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return;
+            }
+            boolean seen = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if ("rows".equals(name)) {
+                    seen = checkFirst(seen, name);
+                    if (parser.currentToken() == JsonToken.START_ARRAY) {
+                        while (parser.nextToken() != JsonToken.END_ARRAY) {
+                            row();
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        private void row() throws IOException {
+            if (!scanning()) {
+                out.write(JsonToHtmlConverter.ROW_START);
+            }
+            int[] widths = scanning() ? null : layout.rowWidths.get(rowIndex++);
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                boolean seen = false;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("columns".equals(name)) {
+                        seen = checkFirst(seen, name);
+                        if (parser.currentToken() == JsonToken.START_ARRAY) {
+                            widths = columns(widths);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+            if (scanning()) {
+                layout.rowWidths.add(widths);
+            } else {
+                out.write(JsonToHtmlConverter.ROW_END);
+            }
+        }
+
+        private int[] columns(int[] widths) throws IOException {
+            List<Integer> ratios = new ArrayList<>();
+            int column = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (!scanning()) {
+                    JsonToHtmlConverter.appendColumnStart(out, widths[column++]);
+                }
+                int ratio = 1;
+                if (parser.currentToken() == JsonToken.START_OBJECT) {
+                    boolean seenRatio = false;
+                    boolean seenContents = false;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String name = parser.getCurrentName();
+                        JsonToken value = parser.nextToken();
+                        if ("ratio".equals(name)) {
+                            seenRatio = checkFirst(seenRatio, name);
+                            if (value == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == JsonParser.NumberType.INT) {
+                                ratio = parser.getIntValue();
+                            }
+                            parser.skipChildren();
+                        } else if ("contents".equals(name)) {
+                            seenContents = checkFirst(seenContents, name);
+                            contents();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+                if (scanning()) {
+                    ratios.add(ratio);
+                } else {
+                    out.write(JsonToHtmlConverter.COLUMN_END);
+                }
+            }
+            if (!scanning()) {
+                return widths;
+            }
+            int[] values = new int[ratios.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = ratios.get(i);
+            }
+            // 比例总和为0时与树模型一样抛出异常, 在第一遍就转为错误页
+            return JsonToHtmlConverter.widthPercents(values);
+        }
+
+        private void contents() throws IOException {
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                return;
+            }
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                if (parser.currentToken() == JsonToken.START_OBJECT) {
+                    content();
+                } else {
+                    // 非对象内容块没有type, 不产生输出
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        private void content() throws IOException {
+            Block block = scanning() ? new Block() : layout.blocks.get(blockIndex++);
+            boolean seenType = false;
+            boolean seenValues = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if ("type".equals(name)) {
+                    seenType = checkFirst(seenType, name);
+                    if (scanning()) {
+                        block.type = readTree().asText("");
+                    } else {
+                        parser.skipChildren();
+                    }
+                } else if ("values".equals(name)) {
+                    seenValues = checkFirst(seenValues, name);
+                    values(block);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (scanning()) {
+                // type可能出现在values之后, 内容块结束时才知道收集到的图片是否有效; 按文档顺序登记
+                if ("image".equals(block.type) && block.imageFields != null) {
+                    String url = JsonToHtmlConverter.imageUrl(block.imageFields);
+                    if (!url.isEmpty()) {
+                        JsonToHtmlConverter.imageSrc(url, images);
+                    }
+                } else if ("html".equals(block.type) && block.htmlImages != null) {
+                    block.htmlImages.forEach(images::putIfAbsent);
+                }
+                if ("html".equals(block.type) ? block.htmlPlaceholders
+                        : block.textPlaceholders && ("text".equals(block.type) || "heading".equals(block.type) || "button".equals(block.type))) {
+                    layout.hasVariables = true;
+                }
+                block.imageFields = null;
+                block.htmlImages = null;
+                layout.blocks.add(block);
+            } else if (!seenValues) {
+                JsonToHtmlConverter.appendContent(out, block.type, MissingNode.getInstance(), images);
+            }
+        }
+
+        private void values(Block block) throws IOException {
+            boolean htmlObject = "html".equals(block.type) && parser.currentToken() == JsonToken.START_OBJECT;
+            if (!scanning() && !htmlObject) {
+                // 其他类型的内容块很小, 直接读成树后复用同一段渲染逻辑
+                JsonToHtmlConverter.appendContent(out, block.type, readTree(), images);
+                return;
+            }
+            if (parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                return;
+            }
+            boolean write = !scanning() && block.htmlNonEmpty;
+            if (write) {
+                JsonToHtmlConverter.appendHtmlBlockStart(out, block.align);
+            }
+            if (scanning()) {
+                block.imageFields = JsonToHtmlConverter.OBJECT_MAPPER.createObjectNode();
+            }
+            boolean seenAlign = false;
+            boolean seenHtml = false;
+            boolean seenSrc = false;
+            boolean seenUrl = false;
+            boolean seenText = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (scanning() && "align".equals(name)) {
+                    seenAlign = checkFirst(seenAlign, name);
+                    block.align = readTree().asText("left");
+                } else if (scanning() && ("src".equals(name) || "url".equals(name))) {
+                    if ("src".equals(name)) {
+                        seenSrc = checkFirst(seenSrc, name);
+                    } else {
+                        seenUrl = checkFirst(seenUrl, name);
+                    }
+                    block.imageFields.set(name, readTree());
+                } else if (scanning() && "text".equals(name)) {
+                    seenText = checkFirst(seenText, name);
+                    block.textPlaceholders = JsonToHtmlConverter.hasPlaceholders(readTree().asText(""));
+                } else if ("html".equals(name)) {
+                    seenHtml = checkFirst(seenHtml, name);
+                    if (scanning()) {
+                        String html = value == JsonToken.VALUE_STRING ? parser.getText() : readTree().asText("");
+                        if (value != JsonToken.VALUE_STRING) {
+                            block.inlineHtml = html;
+                        }
+                        block.htmlNonEmpty = !html.isEmpty();
+                        Map<String, InlineImage> found = new LinkedHashMap<>();
+                        block.htmlPlaceholders = JsonToHtmlConverter.hasPlaceholders(html);
+                        block.htmlRewrite = JsonToHtmlConverter.collectHtmlImages(html, found) || block.htmlPlaceholders;
+                        block.htmlImages = found.isEmpty() ? null : found;
+                    } else if (write && block.inlineHtml != null) {
+                        JsonToHtmlConverter.appendHtml(out, block.inlineHtml, images);
+                        parser.skipChildren();
+                    } else if (write && block.htmlRewrite) {
+                        JsonToHtmlConverter.appendHtml(out, parser.getText(), images);
+                    } else if (write) {
+                        // 大段HTML直接从解析缓冲区写出, 不生成中间字符串
+                        parser.getText(out);
+                    } else {
+                        parser.skipChildren();
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (write) {
+                out.write(JsonToHtmlConverter.HTML_BLOCK_END);
+            }
+        }
+
+        private JsonNode readTree() throws IOException {
+            JsonNode node = parser.readValueAsTree();
+            return node != null ? node : MissingNode.getInstance();
+        }
+
+        private boolean checkFirst(boolean seen, String name) {
+            if (seen && scanning()) {
+                throw new DuplicateKeyException(name);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.citi.custody.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.text.DecimalFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@code table} content block compiled into a render plan. The rows come from a JSON array bound at render
+ * time under the block's {@code source} name (JSON text, bytes, a {@link StreamingHtmlRenderer.JsonSource} or
+ * a JsonNode); they are read from the parser one row object at a time and written straight to the output,
+ * so the table is never held in memory as a whole. Column formats are compiled once with the template.
+ *
+ * <pre>
+ * {"type": "table", "values": {"source": "releases", "path": "data.items", "empty": "No releases",
+ *   "columns": [{"field": "releaseId", "header": "Release"},
+ *               {"field": "changes", "header": "Changes", "format": "number", "pattern": "#,##0", "align": "right"},
+ *               {"field": "date", "header": "Date", "format": "date", "pattern": "yyyy-MM-dd"},
+ *               {"field": "url", "header": "Link", "format": "link", "text": "Open"}]}}
+ * </pre>
+ * Without columns, the fields of the first row are used as text columns.
+ */
+final class TableSlot implements RenderPlan.Slot {
+
+    static final String TABLE_START = "<table cellspacing=\"0\" cellpadding=\"0\" border=\"0\" width=\"100%\" style=\"margin:0 0 10px 0;border-collapse:collapse;\">";
+    static final String TABLE_END = "</table>";
+    private static final String CELL_STYLE = "padding:6px 8px;border:1px solid #dddddd;";
+
+    enum Format { TEXT, NUMBER, DATE, LINK }
+
+    /**
+     * One compiled column: where its value is, how it is formatted and the prebuilt start of its cells.
+     */
+    static final class Column {
+        final JsonPointer field;
+        final Format format;
+        final String pattern;
+        final DateTimeFormatter dateFormatter;
+        final String linkText;
+        final String headerHtml;
+        final String cellStart;
+
+        Column(String field, String header, String format, String pattern, String align, String linkText) {
+            this.field = pointerOf(field);
+            this.format = formatOf(format);
+            this.pattern = this.format == Format.NUMBER && !isNumberPattern(pattern) ? "" : pattern;
+            this.dateFormatter = this.format == Format.DATE ? dateFormatterOf(pattern) : null;
+            this.linkText = linkText;
+            this.headerHtml = "<th style=\"" + CELL_STYLE + "background-color:#f5f5f5;text-align:" + align + ";\">"
+                    + escaped(header) + "</th>";
+            this.cellStart = "<td style=\"" + CELL_STYLE + "text-align:" + align + ";\">";
+        }
+    }
+
+    private final String source;
+    private final List<String> path;
+    private final List<Column> columns;
+    private final String headerRow;
+    private final String emptyText;
+
+    TableSlot(JsonNode values) {
+        this.source = values.path("source").asText("");
+        String pathText = values.path("path").asText("");
+        this.path = pathText.isEmpty() ? Collections.emptyList() : Arrays.asList(pathText.split("\\."));
+        this.emptyText = values.path("empty").asText("No data");
+
+        List<Column> compiled = new ArrayList<>();
+        for (JsonNode column : values.path("columns")) {
+            String field = column.path("field").asText("");
+            if (!field.isEmpty()) {
+                compiled.add(new Column(field, column.path("header").asText(field), column.path("format").asText("text"),
+                        column.path("pattern").asText(""), column.path("align").asText("left"), column.path("text").asText("")));
+            }
+        }
+        this.columns = Collections.unmodifiableList(compiled);
+        this.headerRow = columns.isEmpty() ? null : headerRowOf(columns);
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    @Override
+    public void render(Appendable out, Map<String, ?> variables) throws IOException {
+        out.append(TABLE_START);
+        List<Column> rowColumns = columns;
+        if (headerRow != null) {
+            out.append(headerRow);
+        }
+        int rows = 0;
+        Object data = source.isEmpty() ? null : variables.get(source);
+        if (data != null) {
+            try (JsonParser parser = open(data)) {
+                if (seekArray(parser)) {
+                    // DecimalFormat不是线程安全的, 每次渲染各建一份
+                    DecimalFormat[] numberFormats = new DecimalFormat[rowColumns.size()];
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        if (parser.currentToken() != JsonToken.START_OBJECT) {
+                            parser.skipChildren();
+                            continue;
+                        }
+                        JsonNode row = parser.readValueAsTree();
+                        if (rowColumns.isEmpty()) {
+                            rowColumns = columnsOf(row);
+                            numberFormats = new DecimalFormat[rowColumns.size()];
+                            out.append(headerRowOf(rowColumns));
+                        }
+                        appendRow(out, row, rowColumns, numberFormats);
+                        rows++;
+                    }
+                }
+            }
+        }
+        if (rows == 0) {
+            out.append("<tr><td colspan=\"").append(String.valueOf(Math.max(1, rowColumns.size())))
+                    .append("\" style=\"").append(CELL_STYLE).append("text-align:center;\">");
+            appendEscaped(out, emptyText);
+            out.append("</td></tr>");
+        }
+        out.append(TABLE_END);
+    }
+
+    private static void appendRow(Appendable out, JsonNode row, List<Column> columns, DecimalFormat[] numberFormats) throws IOException {
+        out.append("<tr>");
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            out.append(column.cellStart);
+            JsonNode value = row.at(column.field);
+            if (!value.isMissingNode() && !value.isNull()) {
+                appendValue(out, value, column, numberFormats, i);
+            }
+            out.append("</td>");
+        }
+        out.append("</tr>");
+    }
+
+    private static void appendValue(Appendable out, JsonNode value, Column column, DecimalFormat[] numberFormats, int index) throws IOException {
+        String text = value.isValueNode() ? value.asText() : value.toString();
+        switch (column.format) {
+            case NUMBER:
+                if (value.isNumber() && !column.pattern.isEmpty()) {
+                    if (numberFormats[index] == null) {
+                        numberFormats[index] = new DecimalFormat(column.pattern);
+                    }
+                    text = numberFormats[index].format(value.decimalValue());
+                }
+                appendEscaped(out, text);
+                break;
+            case DATE:
+                appendEscaped(out, formatDate(value, text, column.dateFormatter));
+                break;
+            case LINK:
+                if (!isLinkUrl(text)) {
+                    appendEscaped(out, text);
+                    break;
+                }
+                out.append("<a href=\"");
+                appendEscaped(out, text);
+                out.append("\">");
+                appendEscaped(out, column.linkText.isEmpty() ? text : column.linkText);
+                out.append("</a>");
+                break;
+            default:
+                appendEscaped(out, text);
+                break;
+        }
+    }
+
+    /**
+     * Dates given as ISO text or epoch milliseconds; anything that does not parse or fit the pattern is shown as is.
+     */
+    private static String formatDate(JsonNode value, String text, DateTimeFormatter formatter) {
+        if (formatter == null) {
+            return text;
+        }
+        try {
+            TemporalAccessor date;
+            if (value.isIntegralNumber()) {
+                date = Instant.ofEpochMilli(value.asLong()).atZone(ZoneId.systemDefault());
+            } else if (text.length() <= 10) {
+                date = LocalDate.parse(text);
+            } else if (text.endsWith("Z") || text.lastIndexOf('+') > 10 || text.lastIndexOf('-') > 10) {
+                date = OffsetDateTime.parse(text);
+            } else {
+                date = LocalDateTime.parse(text);
+            }
+            return formatter.format(date);
+        } catch (DateTimeException e) {
+            return text;
+        }
+    }
+
+    private JsonParser open(Object data) throws IOException {
+        JsonFactory factory = JsonToHtmlConverter.OBJECT_MAPPER.getFactory();
+        if (data instanceof StreamingHtmlRenderer.JsonSource) {
+            return ((StreamingHtmlRenderer.JsonSource) data).createParser(factory);
+        }
+        if (data instanceof byte[]) {
+            return factory.createParser((byte[]) data);
+        }
+        if (data instanceof JsonNode) {
+            return JsonToHtmlConverter.OBJECT_MAPPER.treeAsTokens((JsonNode) data);
+        }
+        return factory.createParser(data.toString());
+    }
+
+    /**
+     * Moves the parser onto the start of the row array: the value at {@code path}, or without a path the root
+     * itself or the first array field of a root object.
+     */
+    private boolean seekArray(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (path.isEmpty() && token == JsonToken.START_OBJECT) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                if (parser.nextToken() == JsonToken.START_ARRAY) {
+                    return true;
+                }
+                parser.skipChildren();
+            }
+            return false;
+        }
+        for (String field : path) {
+            if (token != JsonToken.START_OBJECT) {
+                return false;
+            }
+            boolean found = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                token = parser.nextToken();
+                if (name.equals(field)) {
+                    found = true;
+                    break;
+                }
+                parser.skipChildren();
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return token == JsonToken.START_ARRAY;
+    }
+
+    private static List<Column> columnsOf(JsonNode row) {
+        List<Column> derived = new ArrayList<>();
+        for (Iterator<String> names = row.fieldNames(); names.hasNext(); ) {
+            String name = names.next();
+            derived.add(new Column(name, name, "text", "", "left", ""));
+        }
+        return derived;
+    }
+
+    private static String headerRowOf(List<Column> columns) {
+        StringBuilder row = new StringBuilder("<tr>");
+        for (Column column : columns) {
+            row.append(column.headerHtml);
+        }
+        return row.append("</tr>").toString();
+    }
+
+    // "a.b"指向嵌套字段; 字段名本身含"."时无法表示
+    private static JsonPointer pointerOf(String field) {
+        StringBuilder pointer = new StringBuilder();
+        for (String part : field.split("\\.")) {
+            pointer.append('/').append(part.replace("~", "~0").replace("/", "~1"));
+        }
+        return JsonPointer.compile(pointer.toString());
+    }
+
+    private static Format formatOf(String format) {
+        switch (format.toLowerCase()) {
+            case "number":
+                return Format.NUMBER;
+            case "date":
+                return Format.DATE;
+            case "link":
+                return Format.LINK;
+            default:
+                return Format.TEXT;
+        }
+    }
+
+    // 格式无效时不让整个模板失败, 按原值输出
+    private static DateTimeFormatter dateFormatterOf(String pattern) {
+        if (pattern.isEmpty()) {
+            return null;
+        }
+        try {
+            return DateTimeFormatter.ofPattern(pattern);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isNumberPattern(String pattern) {
+        try {
+            new DecimalFormat(pattern);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // 只为http/https/mailto生成链接, 其他值(包括javascript:)按文本输出
+    private static boolean isLinkUrl(String text) {
+        String lower = text.trim().toLowerCase();
+        return lower.startsWith("http://") || lower.startsWith("https://") || lower.startsWith("mailto:");
+    }
+
+    private static void appendEscaped(Appendable out, String text) throws IOException {
+        VariableSlot.appendEscaped(out, text);
+    }
+
+    private static String escaped(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        try {
+            VariableSlot.appendEscaped(out, text);
+        } catch (IOException e) {
+            // StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "table(" + source + ")";
+    }
+}
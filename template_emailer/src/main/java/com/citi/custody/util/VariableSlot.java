@@ -0,0 +1,62 @@
+package com.citi.custody.util;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A {@code {{name}}} placeholder compiled into a render plan. The value is HTML-escaped while it is
+ * appended; a missing variable renders as nothing.
+ */
+final class VariableSlot implements RenderPlan.Slot {
+    private final String name;
+
+    VariableSlot(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    @Override
+    public void render(Appendable out, Map<String, ?> variables) throws IOException {
+        Object value = variables.get(name);
+        if (value != null) {
+            appendEscaped(out, value.toString());
+        }
+    }
+
+    static void appendEscaped(Appendable out, String text) throws IOException {
+        int written = 0;
+        for (int i = 0; i < text.length(); i++) {
+            String entity;
+            switch (text.charAt(i)) {
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '"':
+                    entity = "&quot;";
+                    break;
+                case '\'':
+                    entity = "&#39;";
+                    break;
+                default:
+                    continue;
+            }
+            out.append(text, written, i).append(entity);
+            written = i + 1;
+        }
+        out.append(text, written, text.length());
+    }
+
+    @Override
+    public String toString() {
+        return "{{" + name + "}}";
+    }
+}
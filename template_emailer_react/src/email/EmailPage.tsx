@@ -111,13 +111,16 @@ const EmailPage: React.FC = () => {
                 method: 'POST',
             })
                 .then(response => {
+                    if (response.status === 429) {
+                        throw new Error('The send queue is full, please try again later');
+                    }
                     if (!response.ok) {
                         throw new Error('Failed to send email');
                     }
-                    return response.text();
+                    return response.json();
                 })
-                .then(result => {
-                    alert(result);
+                .then(job => {
+                    alert(`Email queued for sending (job ${job.jobId})`);
                     // Refresh the email list
                     const params = {
                         page: currentPage - 1,
@@ -156,13 +159,16 @@ const EmailPage: React.FC = () => {
                 method: 'POST',
             })
                 .then(response => {
+                    if (response.status === 429) {
+                        throw new Error('The send queue is full, please try again later');
+                    }
                     if (!response.ok) {
                         throw new Error('Failed to retry email');
                     }
-                    return response.text();
+                    return response.json();
                 })
-                .then(result => {
-                    alert(result);
+                .then(job => {
+                    alert(`Email queued for retry (job ${job.jobId})`);
                     // Refresh the email list
                     const params = {
                         page: currentPage - 1,
@@ -420,11 +420,11 @@ ${error.stack || '(No stack trace available)'}
                                     if (!response.ok) {
                                         throw new Error(`Send failed: ${response.status} ${response.statusText}`);
                                     }
-                                    return response.text();
+                                    return response.json();
                                 })
-                                .then(result => {
-                                    console.log('Send result:', result);
-                                    alert(result || 'Email sent successfully');
+                                .then(job => {
+                                    console.log('Send job queued:', job);
+                                    alert(`Email queued for sending (job ${job.jobId})`);
                                     navigate('/email');
                                 })
                                 .catch(error => {
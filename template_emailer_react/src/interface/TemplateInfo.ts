@@ -3,5 +3,6 @@ export interface TemplateInfo {
     filename: string;
     updateBy: string;
     updateTime: Date;
+    size?: number;
   }
   
\ No newline at end of file
@@ -106,7 +106,9 @@ const TemplatePage: React.FC = () => {
             </div>
             <div className="filter">
                 <label>Filter by Name:</label>
-                <input type="text" value={filter} onChange={handleFilterChange} />
+                {/* 后端按名称前缀匹配, 不是包含匹配 */}
+                <input type="text" value={filter} onChange={handleFilterChange} placeholder="Name starts with..."
+                       title="Matches templates whose name starts with this text (case-insensitive)" />
             </div>
             <table className="template-table">
                 <thead>